@@ -0,0 +1,18 @@
+package il.ac.hit.project.algorithms;
+
+// thrown when an algorithm stopped because its CancellationToken was cancelled or its deadline passed
+public class AlgorithmCancelledException extends AlgorithmException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean timedOut;
+
+    public AlgorithmCancelledException(boolean timedOut) {
+        super(timedOut ? "The deadline of the algorithm has passed" : "The algorithm was cancelled");
+        this.timedOut = timedOut;
+    }
+
+    // returns true if the algorithm stopped because of the deadline, and false if it was cancelled
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
@@ -1,429 +1,399 @@
 package il.ac.hit.project.algorithms;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 // contains implementations for methods solving the 4 tasks specified
 public class Algorithms {
+    // matrices with at least this many cells are labeled in parallel by default
+    public static final int PARALLEL_LABELING_MIN_CELLS = 1 << 20;
+    // default number of cells in each band of rows labeled by a single parallel task
+    private static final int CELLS_PER_LABELING_BAND = 1 << 16;
+    // default number of steps of an all-paths search that are forked into parallel tasks
+    public static final int DEFAULT_PATH_SPLIT_DEPTH = 4;
+
     // === task 1 ===
     // receives a matrix containing 0's and 1's
     // returns a list of the connected components in the matrix (each connected component represented by a HashSet<Index>)
+    // large matrices are labeled in parallel (see findAllConnectedComponents(BitMatrix, int, int))
     // throws AlgorithmThreadingException if a threading-related exception occurred during execution
-    public static List<HashSet<Index>> findAllConnectedComponents(int[][] matrix) throws AlgorithmThreadingException {
-        // a map where each index the matrix is mapped to its connected component
-        Map<Index, HashSet<Index>> indexToConnectedHashSetMap = new HashMap<>();
-        // lock  2 threads won't enter to critical section
-        ReentrantReadWriteLock connectedHashSetMatrixLock = new ReentrantReadWriteLock();
-
-        // one thread for each crawl start position
-        ExecutorService executorService = Executors.newFixedThreadPool(matrix.length * matrix[0].length);
-
-        // initialize all indices to point to null (marks them as unvisited)
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                indexToConnectedHashSetMap.put(new Index(i, j), null);
-            }
-        }
-
-        // for each (i,j) in matrix start crawling at index (i,j)
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                Index newIndex = new Index(i, j);
-                executorService.execute(
-                        () -> crawlAtLocation(newIndex,
-                                null, indexToConnectedHashSetMap, matrix, connectedHashSetMatrixLock));
-            }
-        }
+    // throws AlgorithmException if the matrix has more than Integer.MAX_VALUE cells - see
+    // countConnectedComponents(BitRows) for those
+    public static List<HashSet<Index>> findAllConnectedComponents(BitMatrix matrix) throws AlgorithmException {
+        return collectConnectedComponents(matrix, labelConnectedComponents(matrix, CancellationToken.NONE));
+    }
 
-        shutdownAndWaitForTasksToFinish(executorService);
+    // same as findAllConnectedComponents(BitMatrix), but stops soon after the token is cancelled
+    // throws AlgorithmCancelledException if the token was cancelled (or its deadline passed)
+    public static List<HashSet<Index>> findAllConnectedComponents(BitMatrix matrix, CancellationToken token)
+            throws AlgorithmException {
+        UnionFind unionFind = labelConnectedComponents(matrix, token);
+        token.throwIfCancelled();
+        return collectConnectedComponents(matrix, unionFind);
+    }
 
-        // remove nulls and duplicates from values(), collect into a list of HashSet<Index>
-        return indexToConnectedHashSetMap.values().stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+    // same as findAllConnectedComponents(BitMatrix) - the matrix is converted to a BitMatrix once
+    public static List<HashSet<Index>> findAllConnectedComponents(int[][] matrix) throws AlgorithmException {
+        return findAllConnectedComponents(BitMatrix.fromArray(matrix));
     }
 
-    // === task 2 ===
-    // receives a matrix containing 0's and 1's, index of the source index, index of the destination index
-    // returns a list containing all paths from source index to destination index in the matrix
-    // (each path is represented by a list of indices)
+    // parallel version of task 1
+    // receives a matrix containing 0's and 1's, the maximal number of rows in each band labeled by a single task,
+    // and the number of threads to label with
+    // the matrix is split into bands of rows which are labeled independently on a ForkJoinPool, and the labels are
+    // then merged along the band borders (respecting 8-neighbour adjacency)
+    // returns the same result as findAllConnectedComponents(matrix)
     // throws AlgorithmThreadingException if a threading-related exception occurred during execution
-    public static List<List<Index>> findAllPathsFromSourceToDest(int[][] matrix, Index source, Index dest)
-            throws AlgorithmThreadingException {
-        // creates new threads as needed, but will reuse previously constructed threads when they are available
-        // threads are disposed after 60 seconds of inactivity
-        ExecutorService executorService = Executors.newCachedThreadPool();
-        List<List<Index>> paths = findPathFromCurrentIndex(source, new ArrayList<>(), dest, matrix, executorService);
-        shutdownAndWaitForTasksToFinish(executorService);
-
-        // sort paths by length (shortest path first)
-        paths.sort(Comparator.comparingInt(List::size));
-        return paths;
+    // throws AlgorithmException if the matrix is too large to label (see findAllConnectedComponents(BitMatrix))
+    public static List<HashSet<Index>> findAllConnectedComponents(BitMatrix matrix, int rowsPerBand, int parallelism)
+            throws AlgorithmException {
+        if (rowsPerBand <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("rowsPerBand and parallelism must be positive");
+        }
+        return collectConnectedComponents(matrix,
+                labelConnectedComponents(matrix, rowsPerBand, parallelism, CancellationToken.NONE));
     }
 
-    // === task 3 ===
-    // receives a matrix containing 0's and 1's, index of the source index, index of the destination index
-    // returns a list containing only the shortest paths from source index to destination index in the matrix
-    // (each path is represented by a list of indices)
-    public static List<List<Index>> findShortestPathsFromSourceToDest(int[][] matrix, Index source, Index dest) {
-        // the length of the shortest path up until now
-        // we put it in an array so it can be changed from any recursive call, and all other recursive calls can see
-        // the change
-        int[] shortestPathLength = {Integer.MAX_VALUE};
-        List<List<Index>> shortestPaths = new ArrayList<>();
-
-        findShortestPathFromCurrentIndex(source, new ArrayList<>(), dest, matrix, shortestPaths, shortestPathLength);
+    // same as findAllConnectedComponents(BitMatrix, int, int) - the matrix is converted to a BitMatrix once
+    public static List<HashSet<Index>> findAllConnectedComponents(int[][] matrix, int rowsPerBand, int parallelism)
+            throws AlgorithmException {
+        return findAllConnectedComponents(BitMatrix.fromArray(matrix), rowsPerBand, parallelism);
+    }
 
-        // return a list containing only the paths with lengths smaller than or equal to shortest path length
-        return shortestPaths.stream().filter((l) -> l.size() <= shortestPathLength[0]).collect(Collectors.toList());
+    // task 1 for matrices too large to label, such as a MappedBitMatrix
+    // receives a matrix containing 0's and 1's
+    // returns the number of connected components in the matrix, counted in a single pass over its rows with O(cols)
+    // memory (see ComponentCounter)
+    public static long countConnectedComponents(BitRows matrix) {
+        return ComponentCounter.count(matrix, CancellationToken.NONE);
     }
 
-    // === task 4 ===
-    // receives a matrix containing 0's and 1's representing a submarine game (each block of 1's represents a submarine)
-    // returns the number of submarines in the game matrix
-    //    // throws AlgorithmThreadingException if a threading-related exception occurred during execution
-    // throws InvalidSubmarineMatrixAlgorithmException if game matrix is invalid, that is, an invalid submarine exists
-    public static int countSubmarines(int[][] submarineGameMatrix)
-            throws AlgorithmThreadingException, InvalidSubmarineMatrixAlgorithmException {
-        // first find the connected components using method from task 1
-        List<HashSet<Index>> allConnectedComponents = findAllConnectedComponents(submarineGameMatrix);
+    // same as countConnectedComponents(BitRows), but stops soon after the token is cancelled
+    // throws AlgorithmCancelledException if the token was cancelled (or its deadline passed)
+    public static long countConnectedComponents(BitRows matrix, CancellationToken token)
+            throws AlgorithmCancelledException {
+        long count = ComponentCounter.count(matrix, token);
+        token.throwIfCancelled();
+        return count;
+    }
 
-        // will store the validity result for each connected component (updated and read in a synchronized manner)
-        List<Boolean> componentResults = new ArrayList<>();
+    // helper methods for task 1
+    // label the matrix - in parallel if it is large - until the token is cancelled
+    private static UnionFind labelConnectedComponents(BitMatrix matrix, CancellationToken token)
+            throws AlgorithmException {
+        long numCells = (long) matrix.getNumRows() * matrix.getNumCols();
+        if (numCells < PARALLEL_LABELING_MIN_CELLS) {
+            return ComponentLabeler.label(matrix, token);
+        }
+        return labelConnectedComponents(matrix, defaultRowsPerBand(matrix), ForkJoinPool.getCommonPoolParallelism(),
+                token);
+    }
 
-        // check that each connected component is a rectangle
-        // one thread for each connected component
-        ExecutorService executorService = Executors.newFixedThreadPool(allConnectedComponents.size());
+    // the number of rows in each band of a matrix labeled in parallel, unless specified otherwise
+    static int defaultRowsPerBand(BitMatrix matrix) {
+        return Math.max(1, CELLS_PER_LABELING_BAND / matrix.getNumCols());
+    }
 
-        for (HashSet<Index> connectedComponent : allConnectedComponents) {
-            executorService.execute(
-                    () -> {
-                        boolean res = isValidSubmarine(connectedComponent);
-
-                        // add the result to the componentResults list
-                        // and notify the main thread that there is a new result waiting
-                        synchronized (submarineGameMatrix) {
-                            componentResults.add(res);
-                            submarineGameMatrix.notify();
-                        }
-                    });
+    private static UnionFind labelConnectedComponents(BitMatrix matrix, int rowsPerBand, int parallelism,
+                                                      CancellationToken token) throws AlgorithmException {
+        if (parallelism == ForkJoinPool.getCommonPoolParallelism()) {
+            return ComponentLabeler.labelParallel(matrix, rowsPerBand, ForkJoinPool.commonPool(), token);
         }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return ComponentLabeler.labelParallel(matrix, rowsPerBand, pool, token);
+        } catch (RuntimeException e) {
+            throw new AlgorithmThreadingException(e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-        // check that each connected component represents a valid submarine
-        // componentResults is updated in a synchronized manner (on the game matrix object) by each checker thread
-        // and this thread runs through the results
-        // if there exists an invalid submarine, InvalidSubmarineMatrixAlgorithmException is thrown
-
-        // number of component validity results checked in total - will be same as number of connected components
-        // if end of method is reached
-        int resCount = 0;
-
-        synchronized (submarineGameMatrix) {
-            while (true) {
-                // run through available results: if a result is false, throw InvalidSubmarineMatrixAlgorithmException
-                for (boolean result : componentResults) {
-                    ++resCount; // increment number of results checked
-
-                    if (!result) {
-                        // stop all other tasks as there's no need to continue checking the other components
-                        executorService.shutdownNow();
-                        throw new InvalidSubmarineMatrixAlgorithmException();
-                    }
+    // helper method for task 1
+    // receives a matrix containing 0's and 1's and its labeling (cell (i,j) is element i*numCols+j of the forest)
+    // returns the list of connected components, ordered by their first cell in row-major order
+    // throws AlgorithmException if the matrix is too large to label (see ComponentLabeler.numCells)
+    static List<HashSet<Index>> collectConnectedComponents(BitMatrix matrix, UnionFind unionFind)
+            throws AlgorithmException {
+        int numRows = matrix.getNumRows();
+        int numCols = matrix.getNumCols();
+
+        // first holds minus the size of each component at its root, and then maps each component root to the position
+        // of its HashSet in the result list, so every HashSet is created with its final capacity and never rehashes
+        int[] rootToComponent = new int[ComponentLabeler.numCells(matrix)];
+        for (int i = 0; i < numRows; i++) {
+            for (int w = 0; w < matrix.getWordsPerRow(); w++) {
+                for (long bits = matrix.word(i, w); bits != 0; bits &= bits - 1) {
+                    --rootToComponent[unionFind.find(i * numCols + (w << 6) + Long.numberOfTrailingZeros(bits))];
                 }
+            }
+        }
 
-                // clear result list
-                componentResults.clear();
-
-                if (resCount == allConnectedComponents.size()) { // results for all connected components checked - terminate loop
-                    break;
-                } else {
-                    try {
-                        // wait until a checker thread notifies that there's an additional result available
-                        // note tha wait() releases the lock on submarineGameMatrix (so the checker threads can
-                        // access their synchronized block and add the result to componentResults)
-                        submarineGameMatrix.wait();
-                    } catch (InterruptedException e) {
-                        throw new AlgorithmThreadingException(e.getMessage());
+        List<HashSet<Index>> connectedComponents = new ArrayList<>();
+        for (int i = 0; i < numRows; i++) {
+            for (int w = 0; w < matrix.getWordsPerRow(); w++) {
+                // visit only the 1's of the row, a word at a time
+                for (long bits = matrix.word(i, w); bits != 0; bits &= bits - 1) {
+                    int j = (w << 6) + Long.numberOfTrailingZeros(bits);
+
+                    int root = unionFind.find(i * numCols + j);
+                    if (rootToComponent[root] < 0) {
+                        int componentSize = -rootToComponent[root];
+                        rootToComponent[root] = connectedComponents.size();
+                        connectedComponents.add(new HashSet<>((int) (componentSize / 0.75f) + 1));
                     }
+                    connectedComponents.get(rootToComponent[root]).add(new Index(i, j));
                 }
             }
         }
 
-        // if we got here all connected components are rectangles, so matrix is valid
-
-        // got results for all components so shutdown the executor service
-        shutdownAndWaitForTasksToFinish(executorService);
+        return connectedComponents;
+    }
 
-        return allConnectedComponents.size();
+    // === task 2 ===
+    // receives a matrix containing 0's and 1's, index of the source index, index of the destination index
+    // returns a list containing all paths from source index to destination index in the matrix
+    // (each path is represented by a list of indices), sorted by length (shortest path first)
+    // the number of paths can be exponential in the size of the matrix - use
+    // findAllPathsFromSourceToDest(BitMatrix, Index, Index, PathLimits, Consumer) to bound the search, or to handle
+    // the paths without holding all of them in memory
+    // the search runs in parallel on the common ForkJoinPool (see findAllPathsFromSourceToDest(BitMatrix, Index, Index,
+    // int, int))
+    // throws AlgorithmThreadingException if a threading-related exception occurred during execution
+    public static List<List<Index>> findAllPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest)
+            throws AlgorithmThreadingException {
+        return findAllPathsFromSourceToDest(matrix, source, dest, DEFAULT_PATH_SPLIT_DEPTH,
+                ForkJoinPool.getCommonPoolParallelism());
     }
 
+    // same as findAllPathsFromSourceToDest(BitMatrix, Index, Index), but stops soon after the token is cancelled
+    // throws AlgorithmCancelledException if the token was cancelled (or its deadline passed)
+    public static List<List<Index>> findAllPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest,
+                                                                 CancellationToken token)
+            throws AlgorithmThreadingException, AlgorithmCancelledException {
+        List<List<Index>> paths = findAllPaths(matrix, source, dest, DEFAULT_PATH_SPLIT_DEPTH,
+                ForkJoinPool.getCommonPoolParallelism(), token);
+        token.throwIfCancelled();
+        return paths;
+    }
 
-    // helper method for task 4
-    // receives a matrix connected component, represented by a HashSet of indices
-    // returns true if component represents a valid submarine, else false
-    private static boolean isValidSubmarine(HashSet<Index> connectedComponent) {
-        // first check that component's size is larger than 1
-        if (connectedComponent.size() <= 1) {
-            return false;
+    // parallel version of task 2
+    // receives a matrix containing 0's and 1's, index of the source index, index of the destination index, the number
+    // of steps of the search that are forked into parallel tasks, and the number of threads to search with
+    // below splitDepth each task backtracks sequentially with a visited bitmap of its own
+    // returns the same result as findAllPathsFromSourceToDest(matrix, source, dest)
+    // throws AlgorithmThreadingException if a threading-related exception occurred during execution
+    public static List<List<Index>> findAllPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest,
+                                                                 int splitDepth, int parallelism)
+            throws AlgorithmThreadingException {
+        if (splitDepth < 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("splitDepth must not be negative and parallelism must be positive");
         }
+        return findAllPaths(matrix, source, dest, splitDepth, parallelism, CancellationToken.NONE);
+    }
 
-        // next check that component is a rectangle
-
-        // first find corners of bounding rectangle
-        int left = Collections.min(connectedComponent, Comparator.comparingInt(Index::getCol)).getCol();
-        int right = Collections.max(connectedComponent, Comparator.comparingInt(Index::getCol)).getCol();
-        int top = Collections.min(connectedComponent, Comparator.comparingInt(Index::getRow)).getRow();
-        int bottom = Collections.max(connectedComponent, Comparator.comparingInt(Index::getRow)).getRow();
-
-        // check if the bounding rectangle is "filled", that is the indices in the connected component
-        // form the bounding rectangle. if this is the case, then connected component is a rectangle
-        for (int i = top; i <= bottom; i++) {
-            for (int j = left; j <= right; j++) {
-                Index index = new Index(i, j);
-
-                if (!connectedComponent.contains(index)) {
-                    return false;
-                }
+    // helper method for task 2
+    // finds the paths on a pool of the given parallelism until the token is cancelled, sorted by length
+    private static List<List<Index>> findAllPaths(BitMatrix matrix, Index source, Index dest, int splitDepth,
+                                                  int parallelism, CancellationToken token)
+            throws AlgorithmThreadingException {
+        PathEnumerator enumerator = new PathEnumerator(matrix, source, dest);
+        List<List<Index>> paths;
+        if (parallelism == ForkJoinPool.getCommonPoolParallelism()) {
+            paths = enumerator.findAll(ForkJoinPool.commonPool(), splitDepth, Integer.MAX_VALUE, token);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                paths = enumerator.findAll(pool, splitDepth, Integer.MAX_VALUE, token);
+            } catch (RuntimeException e) {
+                throw new AlgorithmThreadingException(e.getMessage());
+            } finally {
+                pool.shutdown();
             }
         }
 
-        // bounding rectangle filled by indices in connected component
-        return true;
-    }
-
-    // recursive helper method for task 3
-    //
-    // receives:
-    // index to start search from,
-    // current path up until this point represented by a list of indices,
-    // the index of the destination,
-    // a matrix containing 0's and 1's,
-    // the shortest paths list(a list containing lists of indices representing paths),
-    // an array containing the currently shortest path length at (in shortestPathLength[0]).
-    //
-    // if index is the destination, and current path up to destination is smaller than or equal to current shortest path,
-    // adds path to shortestPaths.
-    // else, if index is not destination, but is a valid unvisited index, continues searching and building a path to destination
-    // by recursively calling itself in all 8 possible directions
-    private static void findShortestPathFromCurrentIndex(Index index, List<Index> currentPath, Index dest,
-                                                         int[][] matrix, List<List<Index>> shortestPaths, int[] shortestPathLength) {
-        // invalid index, or index already visited, or 0 in matrix at index
-        if (!index.isValid(matrix.length, matrix[0].length) || currentPath.contains(index)
-                || matrix[index.getRow()][index.getCol()] == 0) {
-            return;
-        }
+        // sort paths by length (shortest path first)
+        paths.sort(Comparator.comparingInt(List::size));
+        return paths;
+    }
 
-        // add current index to path
-        currentPath.add(index);
+    // streaming version of task 2
+    // receives a matrix containing 0's and 1's, index of the source index, index of the destination index, limits on
+    // the search and a consumer
+    // passes each path from source index to destination index to the consumer as soon as it is found (in depth first
+    // order, not sorted by length), until all paths were found or one of the limits is reached
+    // returns how the search ended
+    public static PathSearchStatus findAllPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest,
+                                                                PathLimits limits, Consumer<List<Index>> consumer) {
+        return findAllPathsFromSourceToDest(matrix, source, dest, limits, CancellationToken.NONE, consumer);
+    }
 
-        // current path is already longer than shortest path, so no need to keep looking in this path
-        if (currentPath.size() > shortestPathLength[0]) {
-            return;
-        }
+    // same as findAllPathsFromSourceToDest(BitMatrix, Index, Index, PathLimits, Consumer), but also stops soon after
+    // the token is cancelled - returning CANCELLED, or TIMED_OUT if its deadline passed
+    public static PathSearchStatus findAllPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest,
+                                                                PathLimits limits, CancellationToken token,
+                                                                Consumer<List<Index>> consumer) {
+        return new PathEnumerator(matrix, source, dest).enumerate(limits, token, consumer);
+    }
 
-        if (index.equals(dest)) { // reached destination - path found - add only current path to paths list
-            shortestPaths.add(currentPath);
+    // same as findAllPathsFromSourceToDest(BitMatrix, Index, Index) - the matrix is converted to a BitMatrix once
+    public static List<List<Index>> findAllPathsFromSourceToDest(int[][] matrix, Index source, Index dest)
+            throws AlgorithmThreadingException {
+        return findAllPathsFromSourceToDest(BitMatrix.fromArray(matrix), source, dest);
+    }
 
-            // update current shortest path length if current path is shorter
-            if (currentPath.size() < shortestPathLength[0]) {
-                shortestPathLength[0] = currentPath.size();
-            }
-        } else { // destination not reached - keep looking in all directions
-            // try going in all 8 directions
-            for (int i = -1; i <= 1; i++) {
-                for (int j = -1; j <= 1; j++) {
-                    if (i == 0 && j == 0) continue; // same as current index
-                    Index nextIndex = new Index(index.getRow() + i, index.getCol() + j);
-
-                    // make a recursive call - second argument is copy of current path
-                    // so each recursive call has its on path list
-                    findShortestPathFromCurrentIndex(nextIndex, new ArrayList<>(currentPath), dest, matrix,
-                            shortestPaths, shortestPathLength);
-                }
-            }
-        }
+    // === task 3 ===
+    // receives a matrix containing 0's and 1's, index of the source index, index of the destination index
+    // returns a list containing only the shortest paths from source index to destination index in the matrix
+    // (each path is represented by a list of indices)
+    // the paths are found with a BFS in time linear in the size of the matrix, and then enumerated from the BFS
+    // predecessor DAG (see ShortestPathFinder)
+    public static List<List<Index>> findShortestPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest) {
+        return findShortestPathsFromSourceToDest(matrix, source, dest, Integer.MAX_VALUE);
     }
 
-    // recursive helper method for task 2
-    //
-    // receives:
-    // index to start search from,
-    // current path up until this point represented by a list of indices,
-    // index of the destination,
-    // a matrix containing 0's and 1's,
-    // the executor service.
-    //
-    // returns a list of paths from current index to destination (each path represented by a list of indices)
-    // if index is destination, returns a list containing a single path, containing only the destination.
-    // else, if index is invalid or was already visited, returns an empty list.
-    // else, continues searching and building a path to destination by recursively calling itself in all 8 possible directions
-    // (each recursive call is submitted as a task to the executorService).
-    // if one or more of these searches yields a path to destination, returns a list containing those paths,
-    // and otherwise, returns an empty list
-    // throws AlgorithmThreadingException if a threading-related exception occurred during execution
-    private static List<List<Index>> findPathFromCurrentIndex(Index index, List<Index> currentPath, Index dest,
-                                                              int[][] matrix, ExecutorService executorService)
-            throws AlgorithmThreadingException {
-        // invalid index, or index already visited, or 0 in matrix at index - return empty path list
-        if (!index.isValid(matrix.length, matrix[0].length) || currentPath.contains(index)
-                || matrix[index.getRow()][index.getCol()] == 0) {
-            return new ArrayList<>();
-        }
+    // same as findShortestPathsFromSourceToDest(BitMatrix, Index, Index), but returns only the first maxPaths paths
+    public static List<List<Index>> findShortestPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest,
+                                                                      int maxPaths) {
+        return new ShortestPathFinder(matrix, source, dest, CancellationToken.NONE).findPaths(maxPaths);
+    }
 
-        // initialize an empty list of paths from current index
-        ArrayList<List<Index>> pathsFromCurrent = new ArrayList<>();
+    // same as findShortestPathsFromSourceToDest(BitMatrix, Index, Index, int), but stops soon after the token is
+    // cancelled
+    // throws AlgorithmCancelledException if the token was cancelled (or its deadline passed)
+    public static List<List<Index>> findShortestPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest,
+                                                                      int maxPaths, CancellationToken token)
+            throws AlgorithmCancelledException {
+        List<List<Index>> paths = new ShortestPathFinder(matrix, source, dest, token).findPaths(maxPaths);
+        token.throwIfCancelled();
+        return paths;
+    }
 
-        // add current index to path
-        currentPath.add(index);
+    // returns the number of shortest paths from source index to destination index in the matrix, without
+    // enumerating them (Long.MAX_VALUE if there are more than that)
+    public static long countShortestPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest) {
+        return new ShortestPathFinder(matrix, source, dest, CancellationToken.NONE).countPaths();
+    }
 
-        if (index.equals(dest)) { // reached destination - path found - add only current path to paths list
-            pathsFromCurrent.add(currentPath);
-        } else {
-            List<Future<List<List<Index>>>> futures = new ArrayList<>();
-
-            // try going in all 8 directions
-            for (int i = -1; i <= 1; i++) {
-                for (int j = -1; j <= 1; j++) {
-                    if (i == 0 && j == 0) continue; // same as current index
-                    Index nextIndex = new Index(index.getRow() + i, index.getCol() + j);
-                    futures.add(executorService.submit(
-                            // make a recursive call - second argument is copy of current path
-                            // so each recursive call has its on path list
-                            () -> findPathFromCurrentIndex(nextIndex,
-                                    new ArrayList<>(currentPath),
-                                    dest,
-                                    matrix,
-                                    executorService)));
-                }
-            }
+    // task 3 for matrices too large for the heap, such as a MappedBitMatrix
+    // receives a matrix containing 0's and 1's, index of the source index, index of the destination index, and the
+    // directory to keep the BFS state in (the default temporary directory if null)
+    // returns the number of indices on a shortest path from source index to destination index, or -1 if there is no
+    // path. the BFS frontier and visited cells are bitsets in memory-mapped scratch files (see FrontierSearch)
+    // throws IOException if the scratch files can't be created
+    public static long findShortestPathLength(BitRows matrix, Index source, Index dest, Path scratchDirectory)
+            throws IOException {
+        return FrontierSearch.shortestPathLength(matrix, source, dest, scratchDirectory, CancellationToken.NONE);
+    }
 
-            // get results from futures - these are the list of paths from the recursive calls
-            for (Future<List<List<Index>>> future : futures) {
-                try {
-                    // future.get() will block if task is not completed
-                    // but by this point all tasks (path lookups) from current were already submitted,
-                    // so current thread should wait in case a task is not yet finished
-                    pathsFromCurrent.addAll(future.get());
-                } catch (InterruptedException | ExecutionException e) {
-                    throw new AlgorithmThreadingException(e.getMessage());
-                }
-            }
-        }
+    // same as findShortestPathLength(BitRows, Index, Index, Path), but stops soon after the token is cancelled
+    // throws AlgorithmCancelledException if the token was cancelled (or its deadline passed)
+    public static long findShortestPathLength(BitRows matrix, Index source, Index dest, Path scratchDirectory,
+                                              CancellationToken token)
+            throws IOException, AlgorithmCancelledException {
+        long length = FrontierSearch.shortestPathLength(matrix, source, dest, scratchDirectory, token);
+        token.throwIfCancelled();
+        return length;
+    }
 
-        return pathsFromCurrent;
+    // same as findShortestPathsFromSourceToDest(BitMatrix, Index, Index) - the matrix is converted to a BitMatrix once
+    public static List<List<Index>> findShortestPathsFromSourceToDest(int[][] matrix, Index source, Index dest) {
+        return findShortestPathsFromSourceToDest(BitMatrix.fromArray(matrix), source, dest);
     }
 
-    // helper method for task 1
-    // receives:
-    // index of current index,
-    // index of previous index crawled,
-    // map containing a mapping from each index in the matrix to its current connected component (represented by a HashSet
-    // of indices),
-    // matrix containing 0's and 1's
-    // a ReentrantReadWriteLock.
-    //
-    // if index is valid, and matrix contains a 1 at its location:
-    // if index was not yet visited, tries adding index to the current connected
-    // component being built, and continue crawling to all 8 directions find other indices in the connected component.
-    // else, if the index belongs to a different connected component, merges the two connected components. this is done
-    // by adding all indices in the two components to one of them, and remapping all indices to the chosen component
-    // in the indexToConnectedHashSetMap.
-    private static void crawlAtLocation(Index index, Index prevIndex, Map<Index, HashSet<Index>> indexToConnectedHashSetMap,
-                                        int[][] matrix, ReentrantReadWriteLock connectedHashSetMatrixLock) {
-
-        // check for illegal index (out of matrix bounds) or 0 in matrix at index
-        if (!indexToConnectedHashSetMap.containsKey(index) || matrix[index.getRow()][index.getCol()] == 0) {
-            return;
-        }
+    // === task 4 ===
+    // receives a matrix containing 0's and 1's representing a submarine game (each block of 1's represents a submarine)
+    // returns the number of submarines in the game matrix
+    // the matrix is validated in a single pass over its rows, stopping at the first invalid submarine
+    // (see SubmarineCounter)
+    // throws InvalidSubmarineMatrixAlgorithmException if game matrix is invalid, that is, an invalid submarine exists
+    public static int countSubmarines(BitMatrix submarineGameMatrix)
+            throws AlgorithmThreadingException, InvalidSubmarineMatrixAlgorithmException {
+        return Math.toIntExact(SubmarineCounter.count(submarineGameMatrix, CancellationToken.NONE));
+    }
 
-        // access to the index-to-connected_component mapping is synchronized using a write lock
-        connectedHashSetMatrixLock.writeLock().lock();
-
-        if (indexToConnectedHashSetMap.get(index) == null) { // index not yet visited
-            HashSet<Index> connectedHashSet;
-            if (prevIndex == null) { // this is the first index in the component
-                // create a new HashSet for this index (start a new connected component)
-                connectedHashSet = new HashSet<>();
-                connectedHashSet.add(index);
-            } else { // the component was already initialized
-                // add current index to existing component
-                connectedHashSet = indexToConnectedHashSetMap.get(prevIndex);
-                connectedHashSet.add(index);
-            }
+    // task 4 for matrices too large for the heap, such as a MappedBitMatrix
+    // same as countSubmarines(BitMatrix), but the count may exceed an int
+    public static long countSubmarines(BitRows submarineGameMatrix) throws InvalidSubmarineMatrixAlgorithmException {
+        return SubmarineCounter.count(submarineGameMatrix, CancellationToken.NONE);
+    }
 
-            // map index to its connected component hashset
-            indexToConnectedHashSetMap.put(index, connectedHashSet);
+    // same as countSubmarines(BitRows), but stops soon after the token is cancelled
+    // throws AlgorithmCancelledException if the token was cancelled (or its deadline passed)
+    public static long countSubmarines(BitRows submarineGameMatrix, CancellationToken token)
+            throws InvalidSubmarineMatrixAlgorithmException, AlgorithmCancelledException {
+        long count = SubmarineCounter.count(submarineGameMatrix, token);
+        token.throwIfCancelled();
+        return count;
+    }
 
-            connectedHashSetMatrixLock.writeLock().unlock();
+    // same as countSubmarines(BitMatrix) - the matrix is converted to a BitMatrix once
+    public static int countSubmarines(int[][] submarineGameMatrix)
+            throws AlgorithmThreadingException, InvalidSubmarineMatrixAlgorithmException {
+        return countSubmarines(BitMatrix.fromArray(submarineGameMatrix));
+    }
 
-            // try crawling to all 8 directions
-            for (int i = -1; i <= 1; i++) {
-                for (int j = -1; j <= 1; j++) {
-                    if (i == 0 && j == 0) continue; // same as current index
-                    Index nextIndex = new Index(index.getRow() + i, index.getCol() + j);
-                    crawlAtLocation(nextIndex, index, indexToConnectedHashSetMap, matrix, connectedHashSetMatrixLock);
-                }
-            }
-        } else { // index was already visited
-            // if crawl has just started (prevIndex == null) do nothing
-            if (prevIndex != null) {
-                // check if index was visited from current component, or from a different component
-                // if visited from current component, do nothing
-                HashSet<Index> thisComponentHashSet = indexToConnectedHashSetMap.get(prevIndex);
-                HashSet<Index> otherComponentHashSet = indexToConnectedHashSetMap.get(index);
-
-                if (thisComponentHashSet != otherComponentHashSet) {
-                    // index was visited from a different component
-                    // this means this component and other component are connected
-                    // merge this and other component and set all indices in this component
-                    // to point to other component
-                    otherComponentHashSet.addAll(thisComponentHashSet);
-
-                    for (Index ind : thisComponentHashSet) {
-                        indexToConnectedHashSetMap.put(ind, otherComponentHashSet);
-                    }
-                }
+    // task 4 for a submarine game matrix whose connected components were already found
+    // receives the connected components of the matrix, as returned by findAllConnectedComponents
+    // returns the number of submarines in the game matrix
+    // throws InvalidSubmarineMatrixAlgorithmException if game matrix is invalid, that is, an invalid submarine exists
+    public static int countSubmarines(List<HashSet<Index>> allConnectedComponents)
+            throws InvalidSubmarineMatrixAlgorithmException {
+        for (HashSet<Index> connectedComponent : allConnectedComponents) {
+            if (!isValidSubmarine(connectedComponent)) {
+                throw new InvalidSubmarineMatrixAlgorithmException();
             }
-
-            connectedHashSetMatrixLock.writeLock().unlock();
         }
+        return allConnectedComponents.size();
     }
 
-    // shuts down the executor service, and waits (blocks the current thread) for the already submitted tasks to finish
-    // throws AlgorithmThreadingException if waiting for tasks to finish caused an exception
-    private static void shutdownAndWaitForTasksToFinish(ExecutorService executorService) throws AlgorithmThreadingException {
-        executorService.shutdown(); // do not accept any new tasks (but wait until all existing tasks are finished)
-
-        try {
-            // wait 1000 seconds for executor to finish the work
-            // if 1000 seconds passed and executor is still not finished, wait 1000 seconds again
-            while (!executorService.awaitTermination(1000L, TimeUnit.SECONDS)) {
+    // helper method for task 4
+    // receives a matrix connected component, represented by a HashSet of indices
+    // returns true if component represents a valid submarine, else false
+    private static boolean isValidSubmarine(HashSet<Index> connectedComponent) {
+        // first check that component's size is larger than 1
+        if (connectedComponent.size() <= 1) {
+            return false;
+        }
 
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            throw new AlgorithmThreadingException(e.getMessage());
+        // find the bounding rectangle in a single pass
+        int left = Integer.MAX_VALUE, right = Integer.MIN_VALUE, top = Integer.MAX_VALUE, bottom = Integer.MIN_VALUE;
+        for (Index index : connectedComponent) {
+            left = Math.min(left, index.getCol());
+            right = Math.max(right, index.getCol());
+            top = Math.min(top, index.getRow());
+            bottom = Math.max(bottom, index.getRow());
         }
+
+        // all indices lie in the bounding rectangle, so it is "filled" (the component is a rectangle) iff the component
+        // has as many indices as the rectangle has cells
+        return connectedComponent.size() == (long) (bottom - top + 1) * (right - left + 1);
     }
 
     //matrixGenerator receives integer num
-    //return matrix n x n
+    //return matrix n x n, in which every cell is 1 with probability 1/2 (callers print it if they want to)
     public static int[][] matrixGenerator(int n) {
-        Random r = new Random();
-        int[][] matrix = new int[n][n];
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                matrix[i][j] = r.nextInt(2);
-            }
+        return matrixGenerator(n, n, 0.5, new Random().nextLong());
+    }
+
+    // seeded version of matrixGenerator, for repeatable tests and load
+    // returns a numRows x numCols matrix in which every cell is 1 with probability density
+    public static int[][] matrixGenerator(int numRows, int numCols, double density, long seed) {
+        if (numRows <= 0 || numCols <= 0 || density < 0 || density > 1) {
+            throw new IllegalArgumentException("the matrix must not be empty and density must be between 0 and 1");
         }
-        System.out.println("matrix "+n+" x "+n);
-        for (int[] row : matrix) {
-            String s = Arrays.toString(row);
-            System.out.println(s);
+        Random r = new Random(seed);
+        int[][] matrix = new int[numRows][numCols];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                matrix[i][j] = r.nextDouble() < density ? 1 : 0;
             }
-            System.out.println("\n");
-        return  matrix;
         }
+        return matrix;
+    }
 
 
 
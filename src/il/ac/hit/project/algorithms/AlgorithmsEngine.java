@@ -0,0 +1,185 @@
+package il.ac.hit.project.algorithms;
+
+import java.io.Closeable;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// runs the parallel tasks (task 1 and task 2) on a single ForkJoinPool shared by all of its callers, so no threads are
+// created or destroyed per call - a server creates one engine and uses it for every request.
+// the pool has a thread per core by default (named "algorithms-<n>"), and each call is split into at most
+// maxRequestParallelism tasks - by default half of the pool - so a single large request can't take over the whole
+// pool.
+// the calling thread waits for the tasks of its call, and all calls stop soon after their CancellationToken is
+// cancelled (see Algorithms for the results of the tasks).
+// thread safe
+public class AlgorithmsEngine implements Closeable {
+    public static final String THREAD_NAME_PREFIX = "algorithms-";
+
+    private final ForkJoinPool pool;
+    private final int maxRequestParallelism;
+    private final AtomicInteger nextThreadNumber = new AtomicInteger();
+    // calls made, calls running and calls stopped by their token
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicLong cancelledRequests = new AtomicLong();
+
+    // an engine with a thread per core, which lets a single call use half of them
+    public AlgorithmsEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // an engine with the given number of threads, which lets a single call use half of them
+    public AlgorithmsEngine(int parallelism) {
+        this(parallelism, defaultMaxRequestParallelism(parallelism));
+    }
+
+    public AlgorithmsEngine(int parallelism, int maxRequestParallelism) {
+        if (parallelism <= 0 || maxRequestParallelism <= 0) {
+            throw new IllegalArgumentException("parallelism and maxRequestParallelism must be positive");
+        }
+        this.maxRequestParallelism = maxRequestParallelism;
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(THREAD_NAME_PREFIX + nextThreadNumber.incrementAndGet());
+            // like the threads of the common pool, they don't keep the JVM alive
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    // the share of a pool of the given parallelism a single call may use by default - half of it, so at least two
+    // large calls run side by side
+    public static int defaultMaxRequestParallelism(int parallelism) {
+        return Math.max(1, parallelism / 2);
+    }
+
+    // task 1, see Algorithms.findAllConnectedComponents(BitMatrix)
+    // small matrices are labeled on the calling thread, and large ones in at most maxRequestParallelism bands
+    // throws AlgorithmCancelledException if the token was cancelled (or its deadline passed)
+    public List<HashSet<Index>> findAllConnectedComponents(BitMatrix matrix, CancellationToken token)
+            throws AlgorithmException {
+        begin();
+        try {
+            UnionFind unionFind;
+            int numRows = matrix.getNumRows();
+            if ((long) numRows * matrix.getNumCols() < Algorithms.PARALLEL_LABELING_MIN_CELLS) {
+                unionFind = ComponentLabeler.label(matrix, token);
+            } else {
+                // the rows are split in halves, so there are at most as many bands as the largest power of two up to
+                // maxRequestParallelism
+                int maxBands = Integer.highestOneBit(maxRequestParallelism);
+                int rowsPerBand = Math.max(Algorithms.defaultRowsPerBand(matrix), (numRows + maxBands - 1) / maxBands);
+                try {
+                    unionFind = ComponentLabeler.labelParallel(matrix, rowsPerBand, pool, token);
+                } catch (RuntimeException e) {
+                    throw new AlgorithmThreadingException(e.getMessage());
+                }
+            }
+            token.throwIfCancelled();
+            return Algorithms.collectConnectedComponents(matrix, unionFind);
+        } catch (AlgorithmCancelledException e) {
+            cancelledRequests.incrementAndGet();
+            throw e;
+        } finally {
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    // task 2, see Algorithms.findAllPathsFromSourceToDest(BitMatrix, Index, Index)
+    // the search is split into at most maxRequestParallelism tasks
+    // throws AlgorithmCancelledException if the token was cancelled (or its deadline passed)
+    public List<List<Index>> findAllPathsFromSourceToDest(BitMatrix matrix, Index source, Index dest,
+                                                          CancellationToken token)
+            throws AlgorithmThreadingException, AlgorithmCancelledException {
+        begin();
+        try {
+            List<List<Index>> paths;
+            try {
+                paths = new PathEnumerator(matrix, source, dest)
+                        .findAll(pool, Algorithms.DEFAULT_PATH_SPLIT_DEPTH, maxRequestParallelism, token);
+            } catch (RuntimeException e) {
+                throw new AlgorithmThreadingException(e.getMessage());
+            }
+            token.throwIfCancelled();
+            // sort paths by length (shortest path first)
+            paths.sort(Comparator.comparingInt(List::size));
+            return paths;
+        } catch (AlgorithmCancelledException e) {
+            cancelledRequests.incrementAndGet();
+            throw e;
+        } finally {
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    private void begin() {
+        requests.incrementAndGet();
+        activeRequests.incrementAndGet();
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public int getMaxRequestParallelism() {
+        return maxRequestParallelism;
+    }
+
+    // number of threads the pool started (and not yet retired)
+    public int getPoolSize() {
+        return pool.getPoolSize();
+    }
+
+    // number of threads running or stealing tasks
+    public int getActiveThreadCount() {
+        return pool.getActiveThreadCount();
+    }
+
+    // number of tasks forked and not yet started
+    public long getQueuedTaskCount() {
+        return pool.getQueuedTaskCount();
+    }
+
+    // number of tasks run by a thread other than the one that forked them
+    public long getStealCount() {
+        return pool.getStealCount();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    public long getCancelledRequests() {
+        return cancelledRequests.get();
+    }
+
+    // stops the pool once its running calls are done
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "AlgorithmsEngine{" +
+                "parallelism=" + pool.getParallelism() +
+                ", maxRequestParallelism=" + maxRequestParallelism +
+                ", poolSize=" + pool.getPoolSize() +
+                ", activeThreads=" + pool.getActiveThreadCount() +
+                ", queuedTasks=" + pool.getQueuedTaskCount() +
+                ", steals=" + pool.getStealCount() +
+                ", requests=" + requests.get() +
+                ", activeRequests=" + activeRequests.get() +
+                ", cancelledRequests=" + cancelledRequests.get() +
+                '}';
+    }
+}
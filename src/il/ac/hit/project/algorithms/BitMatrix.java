@@ -0,0 +1,360 @@
+package il.ac.hit.project.algorithms;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+// a matrix of 0's and 1's packed into a flat array of longs, one bit per cell.
+// each row starts at a word boundary (bit j of word w in a row is column w*64+j), and the padding bits after the last
+// column of each row are always 0, so whole rows can be scanned a word at a time
+public class BitMatrix implements BitRows, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int numRows, numCols;
+    private final int wordsPerRow;
+    private final long[] words;
+
+    public BitMatrix(int numRows, int numCols) {
+        if (numRows <= 0 || numCols <= 0) {
+            throw new IllegalArgumentException("matrix dimensions must be positive");
+        }
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.wordsPerRow = wordsForCols(numCols);
+        this.words = new long[Math.multiplyExact(numRows, wordsPerRow)];
+    }
+
+    private BitMatrix(BitMatrix other) {
+        this.numRows = other.numRows;
+        this.numCols = other.numCols;
+        this.wordsPerRow = other.wordsPerRow;
+        this.words = other.words.clone();
+    }
+
+    // converts a matrix containing 0's and 1's (any non-zero value is treated as 1)
+    public static BitMatrix fromArray(int[][] matrix) {
+        BitMatrix bitMatrix = new BitMatrix(matrix.length, matrix[0].length);
+        for (int i = 0; i < matrix.length; i++) {
+            int[] row = matrix[i];
+            if (row.length != bitMatrix.numCols) {
+                throw new IllegalArgumentException("matrix rows must all have the same length");
+            }
+            int rowStart = i * bitMatrix.wordsPerRow;
+            for (int j = 0; j < row.length; j++) {
+                if (row[j] != 0) {
+                    bitMatrix.words[rowStart + (j >>> 6)] |= 1L << j;
+                }
+            }
+        }
+        return bitMatrix;
+    }
+
+    // returns the number of words needed to hold a row of numCols bits
+    static int wordsForCols(int numCols) {
+        return (numCols + 63) >>> 6;
+    }
+
+    public int[][] toArray() {
+        int[][] matrix = new int[numRows][numCols];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                matrix[i][j] = getValue(i, j);
+            }
+        }
+        return matrix;
+    }
+
+    public BitMatrix copy() {
+        return new BitMatrix(this);
+    }
+
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    // number of words of every row (see word)
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    // returns true if cell (row, col) contains 1
+    // throws ArrayIndexOutOfBoundsException if (row, col) is out of the matrix bounds
+    public boolean get(int row, int col) {
+        checkBounds(row, col);
+        return (words[row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    public boolean get(Index index) {
+        return get(index.getRow(), index.getCol());
+    }
+
+    // returns the value (0 or 1) at cell (row, col)
+    // throws ArrayIndexOutOfBoundsException if (row, col) is out of the matrix bounds
+    public int getValue(int row, int col) {
+        return get(row, col) ? 1 : 0;
+    }
+
+    public void set(int row, int col, boolean value) {
+        checkBounds(row, col);
+        int wordIndex = row * wordsPerRow + (col >>> 6);
+        if (value) {
+            words[wordIndex] |= 1L << col;
+        } else {
+            words[wordIndex] &= ~(1L << col);
+        }
+    }
+
+    // sets the cells [fromCol, toCol) of the row to 1, a word at a time
+    // throws ArrayIndexOutOfBoundsException if the range is out of the matrix bounds
+    public void setRange(int row, int fromCol, int toCol) {
+        if (fromCol >= toCol) {
+            return;
+        }
+        checkBounds(row, fromCol);
+        checkBounds(row, toCol - 1);
+        int rowStart = row * wordsPerRow;
+        int first = fromCol >>> 6;
+        int last = (toCol - 1) >>> 6;
+        // -1L << fromCol and -1L >>> -toCol only look at the low 6 bits of the shifts
+        long firstMask = -1L << fromCol;
+        long lastMask = -1L >>> -toCol;
+        if (first == last) {
+            words[rowStart + first] |= firstMask & lastMask;
+            return;
+        }
+        words[rowStart + first] |= firstMask;
+        for (int w = first + 1; w < last; w++) {
+            words[rowStart + w] = -1L;
+        }
+        words[rowStart + last] |= lastMask;
+    }
+
+    // replaces the word of a row (see word) - bit j is column wordIndex*64+j
+    // throws ArrayIndexOutOfBoundsException if the word is out of the row, and IllegalArgumentException if it sets a
+    // bit past the last column
+    public void setWord(int row, int wordIndex, long word) {
+        if (row < 0 || row >= numRows || wordIndex < 0 || wordIndex >= wordsPerRow) {
+            throw new ArrayIndexOutOfBoundsException(String.format("word (%d,%d)", row, wordIndex));
+        }
+        if (wordIndex == wordsPerRow - 1 && (numCols & 63) != 0 && (word & (-1L << numCols)) != 0) {
+            throw new IllegalArgumentException("padding bits must be 0");
+        }
+        words[row * wordsPerRow + wordIndex] = word;
+    }
+
+    // receives the neighbours of a cell
+    public interface NeighbourVisitor {
+        void visit(int row, int col);
+    }
+
+    // calls the visitor for every neighbour of (row, col) that is inside the matrix, in Connectivity order
+    // (row, col) itself does not have to be inside the matrix
+    public void forEachNeighbour(int row, int col, Connectivity connectivity, NeighbourVisitor visitor) {
+        for (int k = 0; k < connectivity.numNeighbours(); k++) {
+            int neighbourRow = row + connectivity.rowOffset(k), neighbourCol = col + connectivity.colOffset(k);
+            if (isInside(neighbourRow, neighbourCol)) {
+                visitor.visit(neighbourRow, neighbourCol);
+            }
+        }
+    }
+
+    // calls the visitor for every neighbour of (row, col) that is inside the matrix and contains 1, in Connectivity
+    // order
+    public void forEachReachable(int row, int col, Connectivity connectivity, NeighbourVisitor visitor) {
+        for (int bits = reachableMask(row, col, connectivity); bits != 0; bits &= bits - 1) {
+            int k = Integer.numberOfTrailingZeros(bits);
+            visitor.visit(row + connectivity.rowOffset(k), col + connectivity.colOffset(k));
+        }
+    }
+
+    // returns a mask with bit k set if the k'th neighbour of (row, col) (in Connectivity order) is inside the matrix
+    // and contains 1 - lets traversals walk the neighbours without a callback or any allocation
+    public int reachableMask(int row, int col, Connectivity connectivity) {
+        int mask = 0;
+        for (int k = 0; k < connectivity.numNeighbours(); k++) {
+            int neighbourRow = row + connectivity.rowOffset(k), neighbourCol = col + connectivity.colOffset(k);
+            if (isInside(neighbourRow, neighbourCol)
+                    && (words[neighbourRow * wordsPerRow + (neighbourCol >>> 6)] & (1L << neighbourCol)) != 0) {
+                mask |= 1 << k;
+            }
+        }
+        return mask;
+    }
+
+    public boolean isInside(int row, int col) {
+        return row >= 0 && row < numRows && col >= 0 && col < numCols;
+    }
+
+    // returns word wordIndex of the given row, or 0 if the row or word is out of the matrix bounds
+    // (so callers scanning neighbour words never need to special-case the matrix edges)
+    @Override
+    public long word(int row, int wordIndex) {
+        if (row < 0 || row >= numRows || wordIndex < 0 || wordIndex >= wordsPerRow) {
+            return 0L;
+        }
+        return words[row * wordsPerRow + wordIndex];
+    }
+
+    // same as BitRows.nextSetBit, indexing the words directly
+    @Override
+    public int nextSetBit(int row, int fromCol) {
+        if (fromCol >= numCols) {
+            return numCols;
+        }
+        int rowStart = row * wordsPerRow;
+        int w = fromCol >>> 6;
+        long bits = words[rowStart + w] & (-1L << fromCol);
+        while (bits == 0) {
+            if (++w == wordsPerRow) {
+                return numCols;
+            }
+            bits = words[rowStart + w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    // same as BitRows.nextClearBit, indexing the words directly
+    @Override
+    public int nextClearBit(int row, int fromCol) {
+        if (fromCol >= numCols) {
+            return numCols;
+        }
+        int rowStart = row * wordsPerRow;
+        int w = fromCol >>> 6;
+        long bits = ~words[rowStart + w] & (-1L << fromCol);
+        while (bits == 0) {
+            if (++w == wordsPerRow) {
+                return numCols;
+            }
+            bits = ~words[rowStart + w];
+        }
+        // the padding bits are 0, so this never goes past numCols
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    // returns the number of 1's in the matrix
+    public long countOnes() {
+        long count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // returns a 64-bit hash of the dimensions and cells, mixing a whole word of cells per step
+    // (unlike hashCode, collisions are rare enough for the hash to be used as a cache key prefilter)
+    public long contentHash() {
+        long hash = mix(((long) numRows << 32) | numCols);
+        for (long word : words) {
+            hash = mix(hash ^ word) + 0x9E3779B97F4A7C15L;
+        }
+        return hash;
+    }
+
+    // murmur3 64-bit finalizer
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    private void checkBounds(int row, int col) {
+        if (!isInside(row, col)) {
+            throw new ArrayIndexOutOfBoundsException(String.format("(%d,%d)", row, col));
+        }
+    }
+
+    // writes the matrix as: rows (int), cols (int), then the packed words of every row (longs)
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(numRows);
+        out.writeInt(numCols);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    // reads a matrix written by writeTo, that takes up at most maxEncodedSize bytes
+    // (checked before anything is allocated, so a bogus header can't trigger a huge allocation)
+    // throws IOException if the dimensions are invalid or too large, or the padding bits are not 0
+    public static BitMatrix readFrom(DataInput in, long maxEncodedSize) throws IOException {
+        int numRows = in.readInt();
+        int numCols = in.readInt();
+        if (numRows <= 0 || numCols <= 0 || encodedSize(numRows, numCols) > maxEncodedSize) {
+            throw new IOException("invalid matrix dimensions " + numRows + "x" + numCols);
+        }
+        BitMatrix bitMatrix = new BitMatrix(numRows, numCols);
+        for (int i = 0; i < bitMatrix.words.length; i++) {
+            bitMatrix.words[i] = in.readLong();
+        }
+        if (!bitMatrix.hasZeroPadding()) {
+            throw new IOException("matrix padding bits must be 0");
+        }
+        return bitMatrix;
+    }
+
+    // returns the number of bytes writeTo writes for a matrix of the given dimensions
+    public static long encodedSize(int numRows, int numCols) {
+        return 8L + 8L * numRows * wordsForCols(numCols);
+    }
+
+    private boolean hasZeroPadding() {
+        long paddingMask = (numCols & 63) == 0 ? 0L : -1L << numCols;
+        for (int i = 0; i < numRows; i++) {
+            if ((words[(i + 1) * wordsPerRow - 1] & paddingMask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // rejects streams whose dimensions don't match the packed words
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (numRows <= 0 || numCols <= 0 || wordsPerRow != wordsForCols(numCols) || words == null
+                || words.length != (long) numRows * wordsPerRow) {
+            throw new InvalidObjectException("inconsistent BitMatrix dimensions");
+        }
+        if (!hasZeroPadding()) {
+            throw new InvalidObjectException("BitMatrix padding bits must be 0");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < numRows; i++) {
+            stringBuilder.append('[');
+            for (int j = 0; j < numCols; j++) {
+                if (j > 0) stringBuilder.append(", ");
+                stringBuilder.append(getValue(i, j));
+            }
+            stringBuilder.append("]\n");
+        }
+        return stringBuilder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BitMatrix that = (BitMatrix) o;
+        return numRows == that.numRows &&
+                numCols == that.numCols &&
+                Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * numRows + numCols) + Arrays.hashCode(words);
+    }
+}
@@ -0,0 +1,51 @@
+package il.ac.hit.project.algorithms;
+
+// read-only access to the rows of a matrix of 0's and 1's packed one bit per cell, as laid out by BitMatrix:
+// bit j of word w of a row is column w*64+j, and the padding bits after the last column of each row are 0.
+// implemented by BitMatrix on the heap and by MappedBitMatrix over a memory-mapped file, so the algorithms that only
+// scan rows a word at a time run on both
+public interface BitRows {
+    int getNumRows();
+
+    int getNumCols();
+
+    // returns word wordIndex of the given row, or 0 if the row or word is out of the matrix bounds
+    long word(int row, int wordIndex);
+
+    // returns the first column >= fromCol that contains 1 in the given row, or numCols if there is none
+    default int nextSetBit(int row, int fromCol) {
+        int numCols = getNumCols();
+        if (fromCol >= numCols) {
+            return numCols;
+        }
+        int wordsPerRow = BitMatrix.wordsForCols(numCols);
+        int w = fromCol >>> 6;
+        long bits = word(row, w) & (-1L << fromCol);
+        while (bits == 0) {
+            if (++w == wordsPerRow) {
+                return numCols;
+            }
+            bits = word(row, w);
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    // returns the first column >= fromCol that contains 0 in the given row, or numCols if there is none
+    default int nextClearBit(int row, int fromCol) {
+        int numCols = getNumCols();
+        if (fromCol >= numCols) {
+            return numCols;
+        }
+        int wordsPerRow = BitMatrix.wordsForCols(numCols);
+        int w = fromCol >>> 6;
+        long bits = ~word(row, w) & (-1L << fromCol);
+        while (bits == 0) {
+            if (++w == wordsPerRow) {
+                return numCols;
+            }
+            bits = ~word(row, w);
+        }
+        // the padding bits are 0, so this never goes past numCols
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+}
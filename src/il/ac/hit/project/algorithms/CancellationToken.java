@@ -0,0 +1,73 @@
+package il.ac.hit.project.algorithms;
+
+// lets the caller of a long running algorithm stop it - by cancelling the token from another thread, or by giving
+// it a deadline. the algorithms check the token at regular intervals (every row, BFS layer or few thousand search
+// steps), stop soon after it was cancelled or its deadline passed, and then throw AlgorithmCancelledException (or
+// return a CANCELLED / TIMED_OUT status, for the streaming path search).
+// thread safe
+public class CancellationToken {
+    // a token that is never cancelled
+    public static final CancellationToken NONE = new CancellationToken(0) {
+        @Override
+        public void cancel() {
+        }
+    };
+
+    // System.nanoTime value of the deadline, or 0 for none
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+    // returns a token without a deadline
+    public CancellationToken() {
+        this(0);
+    }
+
+    private CancellationToken(long deadline) {
+        this.deadline = deadline;
+    }
+
+    // returns a token whose deadline is timeoutMillis from now (0 for none)
+    public static CancellationToken withTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must not be negative");
+        }
+        if (timeoutMillis == 0) {
+            return new CancellationToken();
+        }
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        // 0 means no deadline
+        return new CancellationToken(deadline == 0 ? 1 : deadline);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // returns true if the token was cancelled, or its deadline passed
+    public boolean isCancelled() {
+        return cancelled || isDeadlinePassed();
+    }
+
+    // returns true if the token has a deadline, and it passed
+    public boolean isDeadlinePassed() {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    // throws AlgorithmCancelledException if the token was cancelled or its deadline passed
+    public void throwIfCancelled() throws AlgorithmCancelledException {
+        if (cancelled) {
+            throw new AlgorithmCancelledException(false);
+        }
+        if (isDeadlinePassed()) {
+            throw new AlgorithmCancelledException(true);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CancellationToken{" +
+                "cancelled=" + cancelled +
+                ", deadlinePassed=" + isDeadlinePassed() +
+                '}';
+    }
+}
@@ -0,0 +1,98 @@
+package il.ac.hit.project.algorithms;
+
+import java.util.Arrays;
+
+// counts the 8-connected components of a matrix containing 0's and 1's in a single pass over its rows, without
+// labeling its cells.
+// each row is split into runs of 1's, and only the runs of the previous row are kept, each with the id of its
+// component. a run of the current row that touches no run above it (including diagonally) starts a new component,
+// and a run touching runs of two different components above it merges them. the number of components is the number
+// of components started minus the number of merges. after each row the components of its runs are renumbered
+// densely, so the state is O(cols) however many rows the matrix has
+class ComponentCounter {
+    // the cancellation token is checked once per this many rows
+    private static final int ROWS_PER_CANCELLATION_CHECK = 64;
+
+    private ComponentCounter() {
+    }
+
+    // stops soon after the token is cancelled, and then returns the number of components counted so far
+    static long count(BitRows matrix, CancellationToken token) {
+        int numRows = matrix.getNumRows();
+        int numCols = matrix.getNumCols();
+        int maxRuns = (numCols + 1) / 2;
+        // the runs [left, end) of the previous and the current row, and their components
+        int[] previousLeft = new int[maxRuns], previousEnd = new int[maxRuns], previousComponent = new int[maxRuns];
+        int[] left = new int[maxRuns], end = new int[maxRuns], component = new int[maxRuns];
+        int previousRuns = 0, previousComponents = 0;
+        // ids 0..previousComponents-1 are the components of the previous row, and the components started in the
+        // current row get the next ids
+        UnionFind unionFind = new UnionFind(2 * maxRuns);
+        // renumbered[root] is the dense id of a component root, if renumberedRow[root] is the current row
+        int[] renumbered = new int[2 * maxRuns], renumberedRow = new int[2 * maxRuns];
+        Arrays.fill(renumberedRow, -1);
+        long count = 0;
+
+        for (int i = 0; i < numRows; i++) {
+            if (i % ROWS_PER_CANCELLATION_CHECK == 0 && token.isCancelled()) {
+                return count;
+            }
+            for (int id = 0; id < previousComponents; id++) {
+                unionFind.reset(id);
+            }
+            int runs = 0, nextId = previousComponents;
+            // the first run of the previous row that may touch the current run
+            int p = 0;
+            for (int runLeft = matrix.nextSetBit(i, 0); runLeft < numCols; ) {
+                int runEnd = matrix.nextClearBit(i, runLeft);
+                // runs above touch [runLeft, runEnd) if they have a cell in columns runLeft-1 to runEnd
+                while (p < previousRuns && previousEnd[p] < runLeft) {
+                    p++;
+                }
+                int id = -1;
+                for (int q = p; q < previousRuns && previousLeft[q] <= runEnd; q++) {
+                    if (id < 0) {
+                        id = previousComponent[q];
+                    } else if (unionFind.find(id) != unionFind.find(previousComponent[q])) {
+                        unionFind.union(id, previousComponent[q]);
+                        --count;
+                    }
+                }
+                if (id < 0) {
+                    id = nextId++;
+                    unionFind.reset(id);
+                    ++count;
+                }
+                left[runs] = runLeft;
+                end[runs] = runEnd;
+                component[runs] = id;
+                runs++;
+                runLeft = matrix.nextSetBit(i, runEnd);
+            }
+
+            int components = 0;
+            for (int r = 0; r < runs; r++) {
+                int root = unionFind.find(component[r]);
+                if (renumberedRow[root] != i) {
+                    renumberedRow[root] = i;
+                    renumbered[root] = components++;
+                }
+                component[r] = renumbered[root];
+            }
+
+            // the current row becomes the previous one, and its arrays are reused for the next row
+            int[] swap = previousLeft;
+            previousLeft = left;
+            left = swap;
+            swap = previousEnd;
+            previousEnd = end;
+            end = swap;
+            swap = previousComponent;
+            previousComponent = component;
+            component = swap;
+            previousRuns = runs;
+            previousComponents = components;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,151 @@
+package il.ac.hit.project.algorithms;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// labels the 8-connected components of a matrix containing 0's and 1's into a disjoint-set forest
+// (cell (i,j) is element i*numCols+j of the forest).
+// the matrix can be labeled sequentially, or split into horizontal bands of rows that are labeled in parallel on a
+// ForkJoinPool and then merged along the band borders.
+// labeling stops soon after its CancellationToken is cancelled, leaving the rest of the forest unlabeled.
+// the forest has an element per cell, so matrices of more than Integer.MAX_VALUE cells can't be labeled
+class ComponentLabeler {
+    // the cancellation token is checked once per this many rows
+    private static final int ROWS_PER_CANCELLATION_CHECK = 64;
+
+    private ComponentLabeler() {
+    }
+
+    // the number of elements in the forest of the matrix
+    // throws AlgorithmException if the matrix has more than Integer.MAX_VALUE cells
+    static int numCells(BitMatrix matrix) throws AlgorithmException {
+        try {
+            return Math.multiplyExact(matrix.getNumRows(), matrix.getNumCols());
+        } catch (ArithmeticException e) {
+            throw new AlgorithmException("a matrix of " + matrix.getNumRows() + "x" + matrix.getNumCols()
+                    + " cells is too large to label - count its components with countConnectedComponents instead");
+        }
+    }
+
+    // labels the whole matrix in a single row-major pass on the current thread
+    // throws AlgorithmException if the matrix is too large to label (see numCells)
+    static UnionFind label(BitMatrix matrix, CancellationToken token) throws AlgorithmException {
+        UnionFind unionFind = new UnionFind(numCells(matrix));
+        labelRows(matrix, unionFind, 0, matrix.getNumRows(), token);
+        return unionFind;
+    }
+
+    // labels the matrix in parallel on the given pool.
+    // the rows are recursively split in half until a band has at most rowsPerBand rows, each band is labeled
+    // independently, and after both halves of a split are done the border row of the lower half is merged with the
+    // last row of the upper half
+    // throws AlgorithmException if the matrix is too large to label (see numCells)
+    static UnionFind labelParallel(BitMatrix matrix, int rowsPerBand, ForkJoinPool pool, CancellationToken token)
+            throws AlgorithmException {
+        UnionFind unionFind = new UnionFind(numCells(matrix));
+        pool.invoke(new LabelBandTask(matrix, unionFind, 0, matrix.getNumRows(), Math.max(1, rowsPerBand), token));
+        return unionFind;
+    }
+
+    // unions each 1-cell in rows [fromRow, toRow) with its already-scanned neighbours (left, upper-left, up,
+    // upper-right), which is enough to cover all 8 directions since the remaining neighbours will look back at
+    // this cell. the first row of the range is not connected to the row above it - see mergeWithRowAbove.
+    // only elements inside the range are touched, so disjoint ranges can be labeled concurrently
+    private static void labelRows(BitMatrix matrix, UnionFind unionFind, int fromRow, int toRow,
+                                  CancellationToken token) {
+        int numCols = matrix.getNumCols();
+        int wordsPerRow = matrix.getWordsPerRow();
+
+        for (int i = fromRow; i < toRow; i++) {
+            if ((i - fromRow) % ROWS_PER_CANCELLATION_CHECK == 0 && token.isCancelled()) {
+                return;
+            }
+            int rowStart = i * numCols;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long current = matrix.word(i, w);
+                // bit j is set iff both column w*64+j and the column to its left contain 1
+                long hasLeft = current & ((current << 1) | (matrix.word(i, w - 1) >>> 63));
+                while (hasLeft != 0) {
+                    int cell = rowStart + (w << 6) + Long.numberOfTrailingZeros(hasLeft);
+                    unionFind.union(cell, cell - 1);
+                    hasLeft &= hasLeft - 1;
+                }
+            }
+            if (i > fromRow) {
+                mergeWithRowAbove(matrix, unionFind, i);
+            }
+        }
+    }
+
+    // unions each 1-cell in the given row with its upper-left, up and upper-right neighbours.
+    // the row above must already be labeled: horizontally adjacent 1's in it are in the same set, so a cell whose
+    // upper neighbour is 1 only needs to be unioned with that neighbour
+    private static void mergeWithRowAbove(BitMatrix matrix, UnionFind unionFind, int rowIndex) {
+        int numCols = matrix.getNumCols();
+        int wordsPerRow = matrix.getWordsPerRow();
+        int rowStart = rowIndex * numCols;
+
+        for (int w = 0; w < wordsPerRow; w++) {
+            long current = matrix.word(rowIndex, w);
+            if (current == 0) continue;
+
+            long up = matrix.word(rowIndex - 1, w);
+            // bit j is set iff the column to the left / right of w*64+j contains 1 in the row above
+            long upLeft = (up << 1) | (matrix.word(rowIndex - 1, w - 1) >>> 63);
+            long upRight = (up >>> 1) | (matrix.word(rowIndex - 1, w + 1) << 63);
+
+            long bits = current & (up | upLeft | upRight);
+            while (bits != 0) {
+                long bit = bits & -bits;
+                int cell = rowStart + (w << 6) + Long.numberOfTrailingZeros(bit);
+                if ((up & bit) != 0) {
+                    unionFind.union(cell, cell - numCols);
+                } else {
+                    if ((upLeft & bit) != 0) {
+                        unionFind.union(cell, cell - numCols - 1);
+                    }
+                    if ((upRight & bit) != 0) {
+                        unionFind.union(cell, cell - numCols + 1);
+                    }
+                }
+                bits ^= bit;
+            }
+        }
+    }
+
+    // labels rows [fromRow, toRow) of the matrix, splitting the range until it is at most rowsPerBand rows
+    private static class LabelBandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BitMatrix matrix;
+        private final UnionFind unionFind;
+        private final int fromRow, toRow, rowsPerBand;
+        private final CancellationToken token;
+
+        LabelBandTask(BitMatrix matrix, UnionFind unionFind, int fromRow, int toRow, int rowsPerBand,
+                      CancellationToken token) {
+            this.matrix = matrix;
+            this.unionFind = unionFind;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerBand = rowsPerBand;
+            this.token = token;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= rowsPerBand) {
+                labelRows(matrix, unionFind, fromRow, toRow, token);
+                return;
+            }
+
+            int middleRow = (fromRow + toRow) >>> 1;
+            invokeAll(new LabelBandTask(matrix, unionFind, fromRow, middleRow, rowsPerBand, token),
+                    new LabelBandTask(matrix, unionFind, middleRow, toRow, rowsPerBand, token));
+
+            // both halves are labeled - connect them along the border
+            // only elements in [fromRow, toRow) are touched, so sibling tasks can merge concurrently
+            mergeWithRowAbove(matrix, unionFind, middleRow);
+        }
+    }
+}
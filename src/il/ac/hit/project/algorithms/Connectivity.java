@@ -0,0 +1,31 @@
+package il.ac.hit.project.algorithms;
+
+// which cells count as the neighbours of a cell, and the order they are visited in
+// (bit k of a neighbour mask is the k'th neighbour in that order)
+public enum Connectivity {
+    // down, right, up, left
+    FOUR(new int[]{1, 0, -1, 0}, new int[]{0, 1, 0, -1}),
+    // all 8 surrounding cells, in Directions order (row by row, from the upper left to the lower right)
+    EIGHT(Directions.ROW_OFFSETS, Directions.COL_OFFSETS);
+
+    private final int[] rowOffsets, colOffsets;
+
+    Connectivity(int[] rowOffsets, int[] colOffsets) {
+        this.rowOffsets = rowOffsets;
+        this.colOffsets = colOffsets;
+    }
+
+    public int numNeighbours() {
+        return rowOffsets.length;
+    }
+
+    // row offset of the k'th neighbour
+    public int rowOffset(int k) {
+        return rowOffsets[k];
+    }
+
+    // column offset of the k'th neighbour
+    public int colOffset(int k) {
+        return colOffsets[k];
+    }
+}
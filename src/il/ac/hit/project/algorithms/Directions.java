@@ -0,0 +1,11 @@
+package il.ac.hit.project.algorithms;
+
+// the 8 directions a path may move in, in the order the path searches try them
+// (direction 7-k is the opposite of direction k)
+final class Directions {
+    static final int[] ROW_OFFSETS = {-1, -1, -1, 0, 0, 1, 1, 1};
+    static final int[] COL_OFFSETS = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    private Directions() {
+    }
+}
@@ -0,0 +1,291 @@
+package il.ac.hit.project.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static il.ac.hit.project.algorithms.Directions.COL_OFFSETS;
+import static il.ac.hit.project.algorithms.Directions.ROW_OFFSETS;
+
+// keeps the 8-connected components of a matrix containing 0's and 1's up to date while its cells are set one at a
+// time, together with what task 4 needs to know about them (the size and bounding rectangle of every component).
+// every 1-cell is labeled with a component id, and the ids are joined in a disjoint-set forest:
+// - setting a cell to 1 unions the components of its neighbours, in near-constant time
+// - setting a cell to 0 dissolves its component and re-labels the cells of the component by flood filling from the
+//   neighbours of the cell, in time linear in the size of that component only
+// the component and submarine counts are maintained on every change, so they are answered in constant time.
+// ids of dissolved components are not reused - once too many were allocated the whole matrix is labeled again,
+// which amortizes to constant time per change.
+// cells and ids are ints, so matrices of more than MAX_CELLS cells are not supported.
+// not thread safe
+public class DynamicComponents {
+    // the largest number of cells a matrix may have - up to twice as many ids are allocated
+    public static final int MAX_CELLS = (Integer.MAX_VALUE - 8) / 2;
+
+    private final BitMatrix matrix;
+    private final int numRows, numCols;
+    // label[cell] is the id of a component containing the cell (-1 for 0-cells) - the component itself is the root
+    // of the id in the forest (cell (i,j) is element i*numCols+j)
+    private final int[] label;
+    // the disjoint-set forest over the component ids, and the number of cells and bounding rectangle of every
+    // component (valid for roots only)
+    private int[] parent, size, minRow, maxRow, minCol, maxCol;
+    private int nextId;
+    // the whole matrix is labeled again before more ids than this are allocated
+    private final int maxIds;
+    private int componentCount;
+    // number of components that are not valid submarines
+    private int invalidCount;
+    // cells waiting to be flood filled
+    private int[] stack = new int[16];
+
+    // labels a copy of the matrix (the matrix itself is never modified)
+    // throws IllegalArgumentException if the matrix has more than MAX_CELLS cells
+    public DynamicComponents(BitMatrix matrix) {
+        long cells = (long) matrix.getNumRows() * matrix.getNumCols();
+        if (cells > MAX_CELLS) {
+            throw new IllegalArgumentException("a matrix of " + matrix.getNumRows() + "x" + matrix.getNumCols()
+                    + " cells is too large to keep components of");
+        }
+        this.matrix = matrix.copy();
+        this.numRows = matrix.getNumRows();
+        this.numCols = matrix.getNumCols();
+        int numCells = (int) cells;
+        this.label = new int[numCells];
+        this.maxIds = 2 * numCells + 8;
+        allocateIds(16);
+        labelAll();
+    }
+
+    // sets cell (row, col) and updates the components
+    // returns true if the cell changed
+    // throws ArrayIndexOutOfBoundsException if (row, col) is out of the matrix bounds
+    public boolean set(int row, int col, boolean value) {
+        if (matrix.get(row, col) == value) {
+            return false;
+        }
+        // a change allocates at most one id per neighbour
+        if (nextId + ROW_OFFSETS.length > maxIds) {
+            labelAll();
+        }
+        matrix.set(row, col, value);
+        if (value) {
+            add(row, col);
+        } else {
+            remove(row, col);
+        }
+        return true;
+    }
+
+    // sets cell (row, col) to 1 if it contains 0 and to 0 otherwise
+    public void flip(int row, int col) {
+        set(row, col, !matrix.get(row, col));
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    // returns true if every component is a valid submarine (see Algorithms.countSubmarines)
+    public boolean isValidSubmarineMatrix() {
+        return invalidCount == 0;
+    }
+
+    // returns the number of submarines in the matrix, the way Algorithms.countSubmarines would
+    // throws InvalidSubmarineMatrixAlgorithmException if an invalid submarine exists
+    public int getSubmarineCount() throws InvalidSubmarineMatrixAlgorithmException {
+        if (invalidCount != 0) {
+            throw new InvalidSubmarineMatrixAlgorithmException();
+        }
+        return componentCount;
+    }
+
+    // returns the connected components, ordered by their first cell in row-major order (like
+    // Algorithms.findAllConnectedComponents) - takes time linear in the size of the matrix
+    public List<HashSet<Index>> getComponents() {
+        List<HashSet<Index>> components = new ArrayList<>(componentCount);
+        int[] componentOfRoot = new int[nextId];
+        Arrays.fill(componentOfRoot, -1);
+        for (int i = 0; i < numRows; i++) {
+            for (int j = matrix.nextSetBit(i, 0); j < numCols; j = matrix.nextSetBit(i, j + 1)) {
+                int root = find(label[i * numCols + j]);
+                if (componentOfRoot[root] < 0) {
+                    componentOfRoot[root] = components.size();
+                    components.add(new HashSet<>(size[root] + size[root] / 3 + 1));
+                }
+                components.get(componentOfRoot[root]).add(new Index(i, j));
+            }
+        }
+        return components;
+    }
+
+    // returns a copy of the current matrix
+    public BitMatrix copyMatrix() {
+        return matrix.copy();
+    }
+
+    // returns roughly the number of bytes of the copy of the matrix, the labels and the forest - the forest grows
+    // with the edits, up to two ids (of 24 bytes) per cell
+    public long estimatedBytes() {
+        return BitMatrix.encodedSize(numRows, numCols) + 4L * label.length + 24L * parent.length + 4L * stack.length;
+    }
+
+    // labels every cell from scratch, dropping all the ids allocated so far
+    private void labelAll() {
+        Arrays.fill(label, -1);
+        nextId = 0;
+        componentCount = 0;
+        invalidCount = 0;
+        for (int i = 0; i < numRows; i++) {
+            for (int j = matrix.nextSetBit(i, 0); j < numCols; j = matrix.nextSetBit(i, j + 1)) {
+                if (label[i * numCols + j] < 0) {
+                    newComponent(i * numCols + j, 0);
+                }
+            }
+        }
+    }
+
+    // the cell became 1 - it joins (and merges) the components of its neighbours, or starts a new one
+    private void add(int row, int col) {
+        int root = -1;
+        for (int bits = matrix.reachableMask(row, col, Connectivity.EIGHT); bits != 0; bits &= bits - 1) {
+            int k = Integer.numberOfTrailingZeros(bits);
+            int neighbourRoot = find(label[(row + ROW_OFFSETS[k]) * numCols + col + COL_OFFSETS[k]]);
+            if (root < 0) {
+                root = neighbourRoot;
+            } else if (neighbourRoot != root) {
+                root = union(root, neighbourRoot);
+            }
+        }
+        if (root < 0) {
+            root = newId();
+            ++componentCount;
+        } else {
+            invalidCount -= isInvalid(root) ? 1 : 0;
+        }
+        addCell(root, row, col);
+        invalidCount += isInvalid(root) ? 1 : 0;
+        label[row * numCols + col] = root;
+    }
+
+    // the cell became 0 - its component is replaced by the components its remaining cells form, found by flood
+    // filling from each neighbour that was not reached from an earlier one
+    private void remove(int row, int col) {
+        int cell = row * numCols + col;
+        int root = find(label[cell]);
+        invalidCount -= isInvalid(root) ? 1 : 0;
+        --componentCount;
+        label[cell] = -1;
+
+        // cells labeled with an id below firstNewId still belong to the dissolved component
+        int firstNewId = nextId;
+        for (int bits = matrix.reachableMask(row, col, Connectivity.EIGHT); bits != 0; bits &= bits - 1) {
+            int k = Integer.numberOfTrailingZeros(bits);
+            int neighbour = (row + ROW_OFFSETS[k]) * numCols + col + COL_OFFSETS[k];
+            if (label[neighbour] < firstNewId) {
+                newComponent(neighbour, firstNewId);
+            }
+        }
+    }
+
+    // labels the component containing the cell with a new id, flood filling through the 1-cells labeled with an id
+    // below firstNewId (cells are labeled as they are pushed, so each is pushed once)
+    private void newComponent(int cell, int firstNewId) {
+        int id = newId();
+        ++componentCount;
+        int stackSize = 0;
+        stack[stackSize++] = cell;
+        label[cell] = id;
+        while (stackSize > 0) {
+            int current = stack[--stackSize];
+            int row = current / numCols, col = current % numCols;
+            addCell(id, row, col);
+            for (int bits = matrix.reachableMask(row, col, Connectivity.EIGHT); bits != 0; bits &= bits - 1) {
+                int k = Integer.numberOfTrailingZeros(bits);
+                int neighbour = (row + ROW_OFFSETS[k]) * numCols + col + COL_OFFSETS[k];
+                if (label[neighbour] < firstNewId) {
+                    label[neighbour] = id;
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, Math.min(2 * stack.length, label.length));
+                    }
+                    stack[stackSize++] = neighbour;
+                }
+            }
+        }
+        invalidCount += isInvalid(id) ? 1 : 0;
+    }
+
+    // returns a new id - a component of its own with no cells
+    private int newId() {
+        if (nextId == parent.length) {
+            allocateIds(Math.min(2 * parent.length, maxIds));
+        }
+        int id = nextId++;
+        parent[id] = id;
+        size[id] = 0;
+        minRow[id] = minCol[id] = Integer.MAX_VALUE;
+        maxRow[id] = maxCol[id] = Integer.MIN_VALUE;
+        return id;
+    }
+
+    private void allocateIds(int capacity) {
+        parent = parent == null ? new int[capacity] : Arrays.copyOf(parent, capacity);
+        size = size == null ? new int[capacity] : Arrays.copyOf(size, capacity);
+        minRow = minRow == null ? new int[capacity] : Arrays.copyOf(minRow, capacity);
+        maxRow = maxRow == null ? new int[capacity] : Arrays.copyOf(maxRow, capacity);
+        minCol = minCol == null ? new int[capacity] : Arrays.copyOf(minCol, capacity);
+        maxCol = maxCol == null ? new int[capacity] : Arrays.copyOf(maxCol, capacity);
+    }
+
+    private void addCell(int root, int row, int col) {
+        ++size[root];
+        minRow[root] = Math.min(minRow[root], row);
+        maxRow[root] = Math.max(maxRow[root], row);
+        minCol[root] = Math.min(minCol[root], col);
+        maxCol[root] = Math.max(maxCol[root], col);
+    }
+
+    // a component is a valid submarine if it has more than one cell, and fills its bounding rectangle
+    private boolean isInvalid(int root) {
+        return size[root] <= 1
+                || size[root] != (long) (maxRow[root] - minRow[root] + 1) * (maxCol[root] - minCol[root] + 1);
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            // path halving - point every other node on the path to its grandparent
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    // merges two different components, attaching the smaller one under the larger one
+    // returns the root of the merged component
+    private int union(int rootA, int rootB) {
+        invalidCount -= (isInvalid(rootA) ? 1 : 0) + (isInvalid(rootB) ? 1 : 0);
+        --componentCount;
+        if (size[rootA] < size[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parent[rootB] = rootA;
+        size[rootA] += size[rootB];
+        minRow[rootA] = Math.min(minRow[rootA], minRow[rootB]);
+        maxRow[rootA] = Math.max(maxRow[rootA], maxRow[rootB]);
+        minCol[rootA] = Math.min(minCol[rootA], minCol[rootB]);
+        maxCol[rootA] = Math.max(maxCol[rootA], maxCol[rootB]);
+        invalidCount += isInvalid(rootA) ? 1 : 0;
+        return rootA;
+    }
+}
@@ -0,0 +1,98 @@
+package il.ac.hit.project.algorithms;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// finds the length of the shortest path between two cells of a matrix containing 0's and 1's (moving in all 8
+// directions through 1's only) with a BFS over bitsets, for matrices too large for the per-cell arrays of
+// ShortestPathFinder.
+// the frontier (the cells at the current distance) and the visited cells are kept as matrices in memory-mapped
+// scratch files. each step expands the whole frontier a word at a time: the frontier rows above, at and below a row
+// are or-ed together, shifted a column left and right, and masked with the row of the matrix and the unvisited cells.
+// only the rows between the first and last row of the frontier (plus one on each side) are scanned
+class FrontierSearch {
+    // the cancellation token is checked once per this many scanned rows
+    private static final int ROWS_PER_CANCELLATION_CHECK = 64;
+
+    private FrontierSearch() {
+    }
+
+    // returns the number of cells on a shortest path from source to dest (1 if they are the same cell), or -1 if
+    // there is no path (or source or dest is not a valid 1-index)
+    // the scratch files are created in scratchDirectory (the default temporary directory if null)
+    // stops soon after the token is cancelled, and then returns -1
+    static long shortestPathLength(BitRows matrix, Index source, Index dest, Path scratchDirectory,
+                                   CancellationToken token) throws IOException {
+        int numRows = matrix.getNumRows();
+        int numCols = matrix.getNumCols();
+        if (!isOne(matrix, source) || !isOne(matrix, dest)) {
+            return -1;
+        }
+        if (source.equals(dest)) {
+            return 1;
+        }
+
+        try (MappedBitMatrix visited = MappedBitMatrix.createScratch(scratchDirectory, numRows, numCols);
+             MappedBitMatrix first = MappedBitMatrix.createScratch(scratchDirectory, numRows, numCols);
+             MappedBitMatrix second = MappedBitMatrix.createScratch(scratchDirectory, numRows, numCols)) {
+            int wordsPerRow = BitMatrix.wordsForCols(numCols);
+            MappedBitMatrix frontier = first, next = second;
+            frontier.set(source.getRow(), source.getCol(), true);
+            visited.set(source.getRow(), source.getCol(), true);
+            int minRow = source.getRow(), maxRow = source.getRow();
+
+            for (long length = 2; ; length++) {
+                int nextMinRow = Integer.MAX_VALUE, nextMaxRow = -1;
+                int toRow = Math.min(numRows - 1, maxRow + 1);
+                for (int row = Math.max(0, minRow - 1); row <= toRow; row++) {
+                    if (row % ROWS_PER_CANCELLATION_CHECK == 0 && token.isCancelled()) {
+                        return -1;
+                    }
+                    // the frontier cells in or next to the previous, current and following word of the row
+                    long previous = 0;
+                    long current = frontier.word(row - 1, 0) | frontier.word(row, 0) | frontier.word(row + 1, 0);
+                    for (int w = 0; w < wordsPerRow; w++) {
+                        long following = frontier.word(row - 1, w + 1) | frontier.word(row, w + 1)
+                                | frontier.word(row + 1, w + 1);
+                        long neighbours = current | (current << 1) | (previous >>> 63)
+                                | (current >>> 1) | (following << 63);
+                        long visitedWord = visited.word(row, w);
+                        // the padding bits of the matrix are 0, so nothing is reached past the last column
+                        long reached = neighbours & matrix.word(row, w) & ~visitedWord;
+                        if (reached != 0) {
+                            next.setWord(row, w, reached);
+                            visited.setWord(row, w, visitedWord | reached);
+                            nextMinRow = Math.min(nextMinRow, row);
+                            nextMaxRow = row;
+                        }
+                        previous = current;
+                        current = following;
+                    }
+                }
+
+                if (visited.get(dest.getRow(), dest.getCol())) {
+                    return length;
+                }
+                if (nextMaxRow < 0) {
+                    return -1;
+                }
+                // clear the old frontier, so it can hold the frontier after next
+                for (int row = minRow; row <= maxRow; row++) {
+                    for (int w = 0; w < wordsPerRow; w++) {
+                        frontier.setWord(row, w, 0L);
+                    }
+                }
+                MappedBitMatrix swap = frontier;
+                frontier = next;
+                next = swap;
+                minRow = nextMinRow;
+                maxRow = nextMaxRow;
+            }
+        }
+    }
+
+    private static boolean isOne(BitRows matrix, Index index) {
+        return index.isValid(matrix.getNumRows(), matrix.getNumCols())
+                && (matrix.word(index.getRow(), index.getCol() >>> 6) & (1L << index.getCol())) != 0;
+    }
+}
@@ -1,10 +1,12 @@
 package il.ac.hit.project.algorithms;
 
 import java.io.Serializable;
-import java.util.Objects;
 
 // represents a two dimensional index (row, col)
 public class Index implements Serializable {
+    // pinned to the UID computed for the original class, so serialized clients built against it keep working
+    private static final long serialVersionUID = 151076360935148390L;
+
     public final int row, col;
 
     public Index(int row, int col) {
@@ -20,6 +22,17 @@ public class Index implements Serializable {
         return col;
     }
 
+    // returns the index packed into a single int, the way the algorithms store the cells of a matrix with the
+    // specified number of columns internally (row*numCols+col)
+    public int toCell(int matrixNumCols) {
+        return row * matrixNumCols + col;
+    }
+
+    // returns the index of a cell packed by toCell
+    public static Index fromCell(int cell, int matrixNumCols) {
+        return new Index(cell / matrixNumCols, cell % matrixNumCols);
+    }
+
     // returns true if index is valid for matrix with specified number of rows and columns, else false
     public boolean isValid(int matrixNumRows, int matrixNumCols) {
         return row >= 0 && row < matrixNumRows && col >= 0 && col < matrixNumCols;
@@ -40,8 +53,10 @@ public class Index implements Serializable {
                 col == index.col;
     }
 
+    // allocation free (unlike Objects.hash, which boxes both fields into an array)
+    // the row is rotated into the high bits, so indices of any matrix up to 65536x65536 get distinct hashes
     @Override
     public int hashCode() {
-        return Objects.hash(row, col);
+        return Integer.rotateLeft(row, 16) ^ col;
     }
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+package il.ac.hit.project.algorithms;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// a matrix of 0's and 1's kept in a file and memory-mapped, for matrices too large for the heap.
+// the file has the format written by BitMatrix.writeTo: rows (int), cols (int), then the packed words of every row
+// (big-endian longs, each row starting at a word boundary). so a BitMatrix written with writeTo can be opened here, and
+// huge matrices can be built with create and set without ever being on the heap.
+// a single mapping is limited to 2 GiB, so the rows are mapped in segments of whole rows.
+// reading is thread safe; writing is not synchronized with anything, so a matrix must not be read while it is written
+public class MappedBitMatrix implements BitRows, Closeable {
+    // maximal size of a single mapped segment
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean deleteOnClose;
+    private final int numRows, numCols;
+    private final int wordsPerRow;
+    // the rows of segment s are rows s << segmentShift up to (s + 1) << segmentShift
+    private final int segmentShift;
+    private final MappedByteBuffer[] segments;
+    // the valid bits of the last word of each row (the rest is padding)
+    private final long lastWordMask;
+
+    private MappedBitMatrix(Path path, FileChannel channel, FileChannel.MapMode mode, boolean deleteOnClose,
+                            int numRows, int numCols) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.deleteOnClose = deleteOnClose;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.wordsPerRow = BitMatrix.wordsForCols(numCols);
+        this.lastWordMask = (numCols & 63) == 0 ? -1L : ~(-1L << numCols);
+
+        long rowBytes = 8L * wordsPerRow;
+        // a power of two, so the segment of a row is found with a shift (a row takes at most 256 MiB)
+        this.segmentShift = 31 - Integer.numberOfLeadingZeros((int) (MAX_SEGMENT_BYTES / rowBytes));
+        int rowsPerSegment = 1 << segmentShift;
+        this.segments = new MappedByteBuffer[(int) (((long) numRows + rowsPerSegment - 1) >>> segmentShift)];
+        for (int s = 0; s < segments.length; s++) {
+            long firstRow = (long) s << segmentShift;
+            long rows = Math.min(rowsPerSegment, numRows - firstRow);
+            segments[s] = channel.map(mode, 8 + firstRow * rowBytes, rows * rowBytes);
+        }
+    }
+
+    // maps an existing matrix file for reading
+    // throws IOException if the file can't be read, or its header doesn't match its size
+    public static MappedBitMatrix open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("matrix file is too short: " + path);
+                }
+            }
+            int numRows = header.getInt(0);
+            int numCols = header.getInt(4);
+            if (numRows <= 0 || numCols <= 0 || channel.size() != BitMatrix.encodedSize(numRows, numCols)) {
+                throw new IOException("invalid matrix file " + path + " (" + numRows + "x" + numCols + ", "
+                        + channel.size() + " bytes)");
+            }
+            return new MappedBitMatrix(path, channel, FileChannel.MapMode.READ_ONLY, false, numRows, numCols);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // creates (or replaces) a matrix file of the given dimensions, with all cells 0, and maps it for reading and
+    // writing
+    public static MappedBitMatrix create(Path path, int numRows, int numCols) throws IOException {
+        return create(path, numRows, numCols, false);
+    }
+
+    // creates a temporary all-0 matrix file in the given directory (the default temporary directory if null), that
+    // is deleted when the matrix is closed - for algorithm state that is too large for the heap
+    public static MappedBitMatrix createScratch(Path directory, int numRows, int numCols) throws IOException {
+        Path path = directory == null ? Files.createTempFile("bitmatrix", ".scratch")
+                : Files.createTempFile(directory, "bitmatrix", ".scratch");
+        return create(path, numRows, numCols, true);
+    }
+
+    private static MappedBitMatrix create(Path path, int numRows, int numCols, boolean deleteOnClose)
+            throws IOException {
+        if (numRows <= 0 || numCols <= 0) {
+            throw new IllegalArgumentException("matrix dimensions must be positive");
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(numRows).putInt(numCols);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            // writing the last byte extends the file - the cells in between read as 0 (and may stay sparse on disk)
+            channel.write(ByteBuffer.allocate(1), BitMatrix.encodedSize(numRows, numCols) - 1);
+            return new MappedBitMatrix(path, channel, FileChannel.MapMode.READ_WRITE, deleteOnClose, numRows, numCols);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (deleteOnClose) {
+                Files.deleteIfExists(path);
+            }
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    // returns word wordIndex of the given row, or 0 if the row or word is out of the matrix bounds
+    // the padding bits are always read as 0, even if the file has other bits there
+    @Override
+    public long word(int row, int wordIndex) {
+        if (row < 0 || row >= numRows || wordIndex < 0 || wordIndex >= wordsPerRow) {
+            return 0L;
+        }
+        long value = segments[row >>> segmentShift].getLong(offset(row, wordIndex));
+        return wordIndex == wordsPerRow - 1 ? value & lastWordMask : value;
+    }
+
+    // sets word wordIndex of the given row, which must be inside the matrix
+    // the padding bits of value must be 0
+    void setWord(int row, int wordIndex, long value) {
+        segments[row >>> segmentShift].putLong(offset(row, wordIndex), value);
+    }
+
+    // byte offset of a word in the segment of its row
+    private int offset(int row, int wordIndex) {
+        return ((row & ((1 << segmentShift) - 1)) * wordsPerRow + wordIndex) << 3;
+    }
+
+    // returns true if cell (row, col) contains 1
+    // throws ArrayIndexOutOfBoundsException if (row, col) is out of the matrix bounds
+    public boolean get(int row, int col) {
+        checkBounds(row, col);
+        return (word(row, col >>> 6) & (1L << col)) != 0;
+    }
+
+    // throws ReadOnlyBufferException if the matrix was opened for reading only
+    public void set(int row, int col, boolean value) {
+        checkBounds(row, col);
+        long word = word(row, col >>> 6);
+        setWord(row, col >>> 6, value ? word | (1L << col) : word & ~(1L << col));
+    }
+
+    private void checkBounds(int row, int col) {
+        if (row < 0 || row >= numRows || col < 0 || col >= numCols) {
+            throw new ArrayIndexOutOfBoundsException(String.format("(%d,%d)", row, col));
+        }
+    }
+
+    // writes the changes made through set back to the file
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            if (!segment.isReadOnly()) {
+                segment.force();
+            }
+        }
+    }
+
+    // closes the file (and deletes it if it is a scratch file)
+    // the mapping itself is released once the matrix is garbage collected, so the matrix must not be used afterwards
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (deleteOnClose) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // some platforms don't delete files that are still mapped
+                    path.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedBitMatrix{" + path + ", " + numRows + "x" + numCols + '}';
+    }
+}
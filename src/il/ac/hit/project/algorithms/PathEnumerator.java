@@ -0,0 +1,266 @@
+package il.ac.hit.project.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+import static il.ac.hit.project.algorithms.Directions.COL_OFFSETS;
+import static il.ac.hit.project.algorithms.Directions.ROW_OFFSETS;
+
+// enumerates the simple paths between two cells of a matrix containing 0's and 1's (moving in all 8 directions
+// through 1's only), by iterative backtracking. cell (i,j) is bit i*numCols+j of the visited bitmap.
+// the path, the directions left to try at each step and the visited cells are kept in flat arrays that are reused
+// for the whole search, so the only allocation per path is the list handed to the consumer. the path arrays start
+// small and grow with the deepest path tried, and the arrays of a finished search are reused by the next one - the
+// parallel search allocates a visited bitmap per thread working on it rather than per task.
+// paths are found in depth first order, trying the directions in Directions order.
+// the search stops soon after its CancellationToken is cancelled
+class PathEnumerator {
+    // the deadline and the cancellation token are checked once per this many steps
+    private static final int STEPS_PER_DEADLINE_CHECK = 1 << 10;
+    // initial length of the path arrays of a search
+    private static final int INITIAL_PATH_CAPACITY = 64;
+
+    private final BitMatrix matrix;
+    private final int numRows, numCols;
+    private final int source, dest;
+    // arrays of finished searches, waiting to be reused
+    private final Queue<Scratch> freeScratches = new ConcurrentLinkedQueue<>();
+
+    PathEnumerator(BitMatrix matrix, Index source, Index dest) {
+        this.matrix = matrix;
+        this.numRows = matrix.getNumRows();
+        this.numCols = matrix.getNumCols();
+        this.source = cell(source);
+        this.dest = cell(dest);
+    }
+
+    // returns the flat cell of a valid 1-index, or -1
+    private int cell(Index index) {
+        if (!index.isValid(numRows, numCols) || !matrix.get(index)) {
+            return -1;
+        }
+        return index.toCell(numCols);
+    }
+
+    // passes every path to the consumer as soon as it is found, until the search is complete or a limit is reached
+    PathSearchStatus enumerate(PathLimits limits, CancellationToken token, Consumer<List<Index>> consumer) {
+        if (source < 0 || dest < 0) {
+            return PathSearchStatus.COMPLETE;
+        }
+        if (source == dest) {
+            consumer.accept(toIndices(new int[]{source}, 1));
+            return limits.getMaxPaths() == 1 ? PathSearchStatus.MAX_PATHS_REACHED : PathSearchStatus.COMPLETE;
+        }
+        int numCells = Math.multiplyExact(numRows, numCols);
+        int maxLength = limits.getMaxLength() == 0 ? numCells : Math.min(limits.getMaxLength(), numCells);
+        long maxPaths = limits.getMaxPaths() == 0 ? Long.MAX_VALUE : limits.getMaxPaths();
+        long deadline = limits.getTimeoutMillis() == 0 ? 0 : System.nanoTime() + limits.getTimeoutMillis() * 1_000_000L;
+        return search(new int[]{source}, maxLength, maxPaths, deadline, token, consumer);
+    }
+
+    // continues the search from a path prefix that starts at the source, does not reach the destination and has at
+    // most maxLength cells, passing the paths that extend it to the consumer (deadline is a System.nanoTime value,
+    // or 0 for none), until the token is cancelled
+    private PathSearchStatus search(int[] prefix, int maxLength, long maxPaths, long deadline, CancellationToken token,
+                                    Consumer<List<Index>> consumer) {
+        Scratch scratch = freeScratches.poll();
+        if (scratch == null) {
+            scratch = new Scratch();
+        }
+        scratch.ensureCapacity(prefix.length, maxLength);
+        long[] visited = scratch.visited;
+        int[] path = scratch.path;
+        // directions to neighbours containing 1 still to be tried at each depth of the path, one bit per direction
+        int[] remainingDirections = scratch.remainingDirections;
+        long pathsFound = 0;
+        int steps = 0;
+
+        System.arraycopy(prefix, 0, path, 0, prefix.length);
+        for (int cell : prefix) {
+            visited[cell >>> 6] |= 1L << cell;
+        }
+        int baseDepth = prefix.length - 1;
+        int depth = baseDepth;
+        remainingDirections[depth] = reachableDirections(path[depth]);
+
+        try {
+            while (depth >= baseDepth) {
+                if (++steps == STEPS_PER_DEADLINE_CHECK) {
+                    steps = 0;
+                    if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                        return PathSearchStatus.TIMED_OUT;
+                    }
+                    if (token.isCancelled()) {
+                        return token.isDeadlinePassed() ? PathSearchStatus.TIMED_OUT : PathSearchStatus.CANCELLED;
+                    }
+                }
+
+                int current = path[depth];
+                if (remainingDirections[depth] == 0 || depth + 1 >= maxLength) {
+                    // backtrack
+                    visited[current >>> 6] &= ~(1L << current);
+                    --depth;
+                    continue;
+                }
+
+                int k = Integer.numberOfTrailingZeros(remainingDirections[depth]);
+                remainingDirections[depth] &= remainingDirections[depth] - 1;
+                int next = (current / numCols + ROW_OFFSETS[k]) * numCols + current % numCols + COL_OFFSETS[k];
+                if ((visited[next >>> 6] & (1L << next)) != 0) continue;
+
+                if (depth + 1 == path.length) {
+                    scratch.ensureCapacity(depth + 2, maxLength);
+                    path = scratch.path;
+                    remainingDirections = scratch.remainingDirections;
+                }
+                path[depth + 1] = next;
+                if (next == dest) {
+                    consumer.accept(toIndices(path, depth + 2));
+                    if (++pathsFound >= maxPaths) {
+                        return PathSearchStatus.MAX_PATHS_REACHED;
+                    }
+                    continue;
+                }
+                ++depth;
+                visited[next >>> 6] |= 1L << next;
+                remainingDirections[depth] = reachableDirections(next);
+            }
+            return PathSearchStatus.COMPLETE;
+        } finally {
+            // the cells still on the path are the only ones left visited
+            for (int i = Math.max(depth, baseDepth - 1); i >= 0; i--) {
+                visited[path[i] >>> 6] &= ~(1L << path[i]);
+            }
+            freeScratches.add(scratch);
+        }
+    }
+
+    // finds all paths on the given pool, in the same order as enumerate
+    // the first splitDepth steps of the search are forked into a task per direction, and each task deeper than that
+    // runs the sequential search, on the arrays of a search that is done if there is one. at most maxTasks of those
+    // tasks are created, so at most maxTasks threads of the pool work on the search at once
+    // once the token is cancelled the tasks stop, and only some of the paths are returned
+    List<List<Index>> findAll(ForkJoinPool pool, int splitDepth, int maxTasks, CancellationToken token) {
+        if (source < 0 || dest < 0) {
+            return new ArrayList<>();
+        }
+        if (source == dest) {
+            List<List<Index>> paths = new ArrayList<>();
+            paths.add(toIndices(new int[]{source}, 1));
+            return paths;
+        }
+        return pool.invoke(new PathSearchTask(new int[][]{{source}}, splitDepth, maxTasks, token));
+    }
+
+    // finds the paths extending sibling prefixes of the search, in order (a prefix reaching the destination is a path
+    // of its own). a single prefix that is at most splitDepth cells long is split: the directions it can be extended
+    // in are divided into at most maxTasks contiguous groups, each extended by a subtask with an equal share of the
+    // task budget. several prefixes, or a prefix that is too long, are searched sequentially.
+    // the results of the subtasks are concatenated in direction order, so paths come out in depth first order
+    private class PathSearchTask extends RecursiveTask<List<List<Index>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] prefixes;
+        private final int splitDepth;
+        private final int maxTasks;
+        private final CancellationToken token;
+
+        PathSearchTask(int[][] prefixes, int splitDepth, int maxTasks, CancellationToken token) {
+            this.prefixes = prefixes;
+            this.splitDepth = splitDepth;
+            this.maxTasks = maxTasks;
+            this.token = token;
+        }
+
+        @Override
+        protected List<List<Index>> compute() {
+            List<List<Index>> paths = new ArrayList<>();
+            int numCells = Math.multiplyExact(numRows, numCols);
+            if (token.isCancelled()) {
+                return paths;
+            }
+            int[] prefix = prefixes[0];
+            int current = prefix[prefix.length - 1];
+            if (prefixes.length > 1 || prefix.length > splitDepth || maxTasks <= 1 || current == dest) {
+                for (int[] sibling : prefixes) {
+                    if (sibling[sibling.length - 1] == dest) {
+                        paths.add(toIndices(sibling, sibling.length));
+                    } else {
+                        search(sibling, numCells, Long.MAX_VALUE, 0, token, paths::add);
+                    }
+                }
+                return paths;
+            }
+
+            List<int[]> extensions = new ArrayList<>();
+            for (int bits = reachableDirections(current); bits != 0; bits &= bits - 1) {
+                int k = Integer.numberOfTrailingZeros(bits);
+                int next = (current / numCols + ROW_OFFSETS[k]) * numCols + current % numCols + COL_OFFSETS[k];
+                if (contains(prefix, next)) continue;
+
+                int[] extended = Arrays.copyOf(prefix, prefix.length + 1);
+                extended[prefix.length] = next;
+                extensions.add(extended);
+            }
+
+            int numTasks = Math.min(extensions.size(), maxTasks);
+            List<PathSearchTask> subtasks = new ArrayList<>(numTasks);
+            for (int t = 0; t < numTasks; t++) {
+                List<int[]> group = extensions.subList(extensions.size() * t / numTasks,
+                        extensions.size() * (t + 1) / numTasks);
+                subtasks.add(new PathSearchTask(group.toArray(new int[0][]), splitDepth, maxTasks / numTasks, token));
+            }
+            invokeAll(subtasks);
+            for (PathSearchTask subtask : subtasks) {
+                paths.addAll(subtask.join());
+            }
+            return paths;
+        }
+    }
+
+    // the arrays a sequential search works in. a search clears the visited bitmap when it returns, so the next search
+    // can reuse them as they are
+    private class Scratch {
+        private final long[] visited = new long[(int) (((long) numRows * numCols + 63) >>> 6)];
+        private int[] path = new int[0];
+        private int[] remainingDirections = new int[0];
+
+        // makes the path arrays hold at least length cells (and at most maxLength, unless that is less than length)
+        void ensureCapacity(int length, int maxLength) {
+            if (path.length >= length) {
+                return;
+            }
+            int capacity = Math.max(length, Math.min(Math.max(2 * path.length, INITIAL_PATH_CAPACITY), maxLength));
+            path = Arrays.copyOf(path, capacity);
+            remainingDirections = Arrays.copyOf(remainingDirections, capacity);
+        }
+    }
+
+    // returns the directions from the cell to its neighbours containing 1, one bit per direction
+    private int reachableDirections(int cell) {
+        return matrix.reachableMask(cell / numCols, cell % numCols, Connectivity.EIGHT);
+    }
+
+    private static boolean contains(int[] path, int cell) {
+        for (int pathCell : path) {
+            if (pathCell == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Index> toIndices(int[] path, int length) {
+        List<Index> indices = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            indices.add(Index.fromCell(path[i], numCols));
+        }
+        return indices;
+    }
+}
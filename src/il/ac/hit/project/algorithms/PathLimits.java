@@ -0,0 +1,48 @@
+package il.ac.hit.project.algorithms;
+
+import java.io.Serializable;
+
+// limits on a search for all paths (see Algorithms.findAllPathsFromSourceToDest)
+// a limit of 0 means unlimited
+public class PathLimits implements Serializable {
+    private static final long serialVersionUID = 825235213136698875L;
+
+    public static final PathLimits UNLIMITED = new PathLimits(0, 0, 0);
+
+    // maximal number of paths to find
+    private final int maxPaths;
+    // maximal number of indices in a path (longer paths are not searched)
+    private final int maxLength;
+    // maximal time to search for, in milliseconds
+    private final long timeoutMillis;
+
+    public PathLimits(int maxPaths, int maxLength, long timeoutMillis) {
+        if (maxPaths < 0 || maxLength < 0 || timeoutMillis < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+        this.maxPaths = maxPaths;
+        this.maxLength = maxLength;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getMaxPaths() {
+        return maxPaths;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PathLimits{" +
+                "maxPaths=" + maxPaths +
+                ", maxLength=" + maxLength +
+                ", timeoutMillis=" + timeoutMillis +
+                '}';
+    }
+}
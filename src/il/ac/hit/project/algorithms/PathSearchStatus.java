@@ -0,0 +1,13 @@
+package il.ac.hit.project.algorithms;
+
+// how a search for all paths ended
+public enum PathSearchStatus {
+    // every path (within the length limit) was found
+    COMPLETE,
+    // the search stopped after finding the maximal number of paths
+    MAX_PATHS_REACHED,
+    // the search stopped because it ran out of time (its timeout, or the deadline of its CancellationToken)
+    TIMED_OUT,
+    // the search stopped because its CancellationToken was cancelled
+    CANCELLED
+}
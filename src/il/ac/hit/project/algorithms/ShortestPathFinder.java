@@ -0,0 +1,195 @@
+package il.ac.hit.project.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static il.ac.hit.project.algorithms.Directions.COL_OFFSETS;
+import static il.ac.hit.project.algorithms.Directions.ROW_OFFSETS;
+
+// finds the shortest paths between two cells of a matrix containing 0's and 1's (moving in all 8 directions through
+// 1's only). cell (i,j) is element i*numCols+j of the flat arrays.
+// a BFS from the source records the distance of every cell and, as a bit per direction, which of its neighbours lie
+// one step closer to the source (the predecessor DAG). walking that DAG back from the destination marks the cells
+// lying on some shortest path together with their next steps, so paths can then be enumerated from the source
+// without ever running into a dead end. the directions are tried in Directions order.
+// the search stops soon after its CancellationToken is cancelled, and then finds no (or only some) paths
+class ShortestPathFinder {
+    // the cancellation token is checked once per this many cells or steps
+    private static final int STEPS_PER_CANCELLATION_CHECK = 1 << 10;
+
+    private final BitMatrix matrix;
+    private final int numRows, numCols;
+    private final int source, dest;
+    private final CancellationToken token;
+    // BFS distance from the source, -1 if unreached
+    private final int[] distance;
+    // the cells reached by the BFS, in the order they were reached (so by non-decreasing distance)
+    private final int[] order;
+    private int orderLength = 0;
+    // bit k is set if the neighbour in direction k is the next cell of a shortest path to the destination
+    private final byte[] nextSteps;
+    // false if there is no path at all
+    private final boolean found;
+
+    // runs the BFS and marks the shortest paths
+    ShortestPathFinder(BitMatrix matrix, Index source, Index dest, CancellationToken token) {
+        this.matrix = matrix;
+        this.token = token;
+        this.numRows = matrix.getNumRows();
+        this.numCols = matrix.getNumCols();
+        this.source = cell(source);
+        this.dest = cell(dest);
+        int numCells = Math.multiplyExact(numRows, numCols);
+        this.distance = new int[numCells];
+        this.nextSteps = new byte[numCells];
+        this.order = new int[numCells];
+        this.found = this.source >= 0 && this.dest >= 0 && search(new byte[numCells]);
+    }
+
+    // returns the flat cell of a valid 1-index, or -1
+    private int cell(Index index) {
+        if (!index.isValid(numRows, numCols) || !matrix.get(index)) {
+            return -1;
+        }
+        return index.toCell(numCols);
+    }
+
+    // BFS from the source, stopping once the layer of the destination is complete
+    // returns true if the destination was reached
+    private boolean search(byte[] predecessors) {
+        Arrays.fill(distance, -1);
+        int head = 0;
+        order[orderLength++] = source;
+        distance[source] = 0;
+
+        while (head < orderLength) {
+            if ((head & (STEPS_PER_CANCELLATION_CHECK - 1)) == 0 && token.isCancelled()) {
+                return false;
+            }
+            int current = order[head++];
+            int nextDistance = distance[current] + 1;
+            if (distance[dest] >= 0 && nextDistance > distance[dest]) {
+                break;
+            }
+            int row = current / numCols, col = current % numCols;
+            for (int bits = matrix.reachableMask(row, col, Connectivity.EIGHT); bits != 0; bits &= bits - 1) {
+                int k = Integer.numberOfTrailingZeros(bits);
+                int neighbour = (row + ROW_OFFSETS[k]) * numCols + col + COL_OFFSETS[k];
+                if (distance[neighbour] == -1) {
+                    distance[neighbour] = nextDistance;
+                    order[orderLength++] = neighbour;
+                }
+                if (distance[neighbour] == nextDistance) {
+                    // current is one step closer to the source, in direction 7-k from the neighbour
+                    predecessors[neighbour] |= 1 << (7 - k);
+                }
+            }
+        }
+        if (distance[dest] < 0) {
+            return false;
+        }
+
+        // walk the predecessor DAG back from the destination, in reverse BFS order (predecessors come first in it)
+        // every cell reached lies on a shortest path, and the step back to it is a next step of its predecessor
+        boolean[] onPath = new boolean[distance.length];
+        onPath[dest] = true;
+        for (int i = orderLength - 1; i >= 0; i--) {
+            int current = order[i];
+            if (!onPath[current]) continue;
+            int row = current / numCols, col = current % numCols;
+            for (int bits = predecessors[current] & 0xFF; bits != 0; bits &= bits - 1) {
+                int k = Integer.numberOfTrailingZeros(bits);
+                int predecessor = (row + ROW_OFFSETS[k]) * numCols + col + COL_OFFSETS[k];
+                nextSteps[predecessor] |= 1 << (7 - k);
+                onPath[predecessor] = true;
+            }
+        }
+        return true;
+    }
+
+    // returns the number of shortest paths, or Long.MAX_VALUE if there are more than that
+    long countPaths() {
+        if (!found) {
+            return 0;
+        }
+        // in reverse BFS order the next steps of a cell are always counted before the cell itself
+        long[] pathsToDest = new long[distance.length];
+        pathsToDest[dest] = 1;
+        for (int i = orderLength - 1; i >= 0; i--) {
+            if ((i & (STEPS_PER_CANCELLATION_CHECK - 1)) == 0 && token.isCancelled()) {
+                return 0;
+            }
+            int current = order[i];
+            if (nextSteps[current] == 0) continue;
+            long count = 0;
+            int row = current / numCols, col = current % numCols;
+            for (int bits = nextSteps[current] & 0xFF; bits != 0; bits &= bits - 1) {
+                int k = Integer.numberOfTrailingZeros(bits);
+                int next = (row + ROW_OFFSETS[k]) * numCols + col + COL_OFFSETS[k];
+                count = saturatedAdd(count, pathsToDest[next]);
+            }
+            pathsToDest[current] = count;
+        }
+        return pathsToDest[source];
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    // returns at most maxPaths shortest paths, in the order a depth first search trying the directions in order would
+    // find them (each path is a list of indices from the source to the destination)
+    List<List<Index>> findPaths(int maxPaths) {
+        List<List<Index>> paths = new ArrayList<>();
+        if (!found || maxPaths <= 0) {
+            return paths;
+        }
+
+        int pathLength = distance[dest] + 1;
+        int[] path = new int[pathLength];
+        // remaining next steps still to be tried at each depth of the path
+        int[] remainingSteps = new int[pathLength];
+        int depth = 0;
+        path[0] = source;
+        remainingSteps[0] = nextSteps[source] & 0xFF;
+        int steps = 0;
+
+        while (depth >= 0) {
+            if (++steps == STEPS_PER_CANCELLATION_CHECK) {
+                steps = 0;
+                if (token.isCancelled()) {
+                    break;
+                }
+            }
+            int current = path[depth];
+            if (current == dest) {
+                paths.add(toIndices(path));
+                if (paths.size() >= maxPaths) {
+                    break;
+                }
+                --depth;
+                continue;
+            }
+            if (remainingSteps[depth] == 0) {
+                --depth;
+                continue;
+            }
+            int k = Integer.numberOfTrailingZeros(remainingSteps[depth]);
+            remainingSteps[depth] &= remainingSteps[depth] - 1;
+            int next = (current / numCols + ROW_OFFSETS[k]) * numCols + current % numCols + COL_OFFSETS[k];
+            path[++depth] = next;
+            remainingSteps[depth] = nextSteps[next] & 0xFF;
+        }
+        return paths;
+    }
+
+    private List<Index> toIndices(int[] path) {
+        List<Index> indices = new ArrayList<>(path.length);
+        for (int cell : path) {
+            indices.add(Index.fromCell(cell, numCols));
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,75 @@
+package il.ac.hit.project.algorithms;
+
+import java.util.Arrays;
+
+// counts the submarines of a submarine game matrix in a single pass over its rows.
+// a matrix is valid if every 8-connected block of 1's is a filled rectangle of at least 2 cells. row by row, that is
+// the case if every run of 1's in a row either has no 1's above it (including diagonally) and starts a submarine, or
+// continues a run with exactly the same columns in the row above. a run of the row above with no 1's below it ends
+// its submarine. anything else - a run touching the row above in any other way - is an invalid shape, or two
+// submarines touching.
+// the only state is the row each open submarine started at, indexed by its left column, and runs are found a word
+// at a time, so nothing is allocated per cell. the matrix is only read through BitRows, so it can be memory-mapped
+class SubmarineCounter {
+    // the cancellation token is checked once per this many rows
+    private static final int ROWS_PER_CANCELLATION_CHECK = 64;
+
+    private SubmarineCounter() {
+    }
+
+    // returns the number of submarines in the matrix
+    // stops soon after the token is cancelled, and then returns the number of submarines counted so far
+    // throws InvalidSubmarineMatrixAlgorithmException as soon as an invalid submarine is found
+    static long count(BitRows matrix, CancellationToken token) throws InvalidSubmarineMatrixAlgorithmException {
+        int numRows = matrix.getNumRows();
+        int numCols = matrix.getNumCols();
+        // startRow[left] is the first row of the open submarine whose left column is left
+        int[] startRow = new int[numCols];
+        Arrays.fill(startRow, -1);
+        long count = 0;
+
+        for (int i = 0; i <= numRows; i++) {
+            if (i % ROWS_PER_CANCELLATION_CHECK == 0 && token.isCancelled()) {
+                return count;
+            }
+            if (i < numRows) {
+                // every run of the row must either be new or continue the same run of the row above
+                for (int left = matrix.nextSetBit(i, 0); left < numCols; ) {
+                    int end = matrix.nextClearBit(i, left); // one past the run
+                    int firstAbove = i > 0 ? firstTouching(matrix, i - 1, left, end) : -1;
+                    if (firstAbove >= 0) {
+                        if (firstAbove != left || matrix.nextClearBit(i - 1, left) != end) {
+                            throw new InvalidSubmarineMatrixAlgorithmException();
+                        }
+                    } else {
+                        startRow[left] = i;
+                    }
+                    left = matrix.nextSetBit(i, end);
+                }
+            }
+            if (i == 0) continue;
+
+            // runs of the row above with nothing below them end their submarine
+            for (int left = matrix.nextSetBit(i - 1, 0); left < numCols; ) {
+                int end = matrix.nextClearBit(i - 1, left);
+                if (i == numRows || firstTouching(matrix, i, left, end) < 0) {
+                    if (end - left == 1 && startRow[left] == i - 1) {
+                        // a single cell
+                        throw new InvalidSubmarineMatrixAlgorithmException();
+                    }
+                    startRow[left] = -1;
+                    ++count;
+                }
+                left = matrix.nextSetBit(i - 1, end);
+            }
+        }
+        return count;
+    }
+
+    // returns the first column of the given row that touches the run [left, end) of a neighbouring row (that is, the
+    // first 1 in columns left-1 to end), or -1 if there is none
+    private static int firstTouching(BitRows matrix, int row, int left, int end) {
+        int col = matrix.nextSetBit(row, Math.max(left - 1, 0));
+        return col <= end && col < matrix.getNumCols() ? col : -1;
+    }
+}
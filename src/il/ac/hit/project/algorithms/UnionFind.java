@@ -0,0 +1,57 @@
+package il.ac.hit.project.algorithms;
+
+// disjoint-set forest over the elements 0..size-1, stored in flat int arrays
+// uses path compression (path halving) and union by rank, so every operation runs in near-constant amortized time
+class UnionFind {
+    private final int[] parent;
+    private final byte[] rank;
+
+    UnionFind(int size) {
+        parent = new int[size];
+        rank = new byte[size];
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+        }
+    }
+
+    // returns the representative of the set containing element
+    int find(int element) {
+        while (parent[element] != element) {
+            // path halving - point every other node on the path to its grandparent
+            parent[element] = parent[parent[element]];
+            element = parent[element];
+        }
+        return element;
+    }
+
+    // merges the sets containing a and b
+    // returns the representative of the merged set
+    int union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return rootA;
+        }
+
+        // attach the shallower tree under the deeper one
+        if (rank[rootA] < rank[rootB]) {
+            parent[rootA] = rootB;
+            return rootB;
+        }
+        parent[rootB] = rootA;
+        if (rank[rootA] == rank[rootB]) {
+            ++rank[rootA];
+        }
+        return rootA;
+    }
+
+    // makes element a set of its own again (the elements pointing at it must be reset as well)
+    void reset(int element) {
+        parent[element] = element;
+        rank[element] = 0;
+    }
+
+    int size() {
+        return parent.length;
+    }
+}
@@ -2,6 +2,7 @@ package il.ac.hit.project.algorithms;
 
 import org.w3c.dom.ls.LSOutput;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 
@@ -17,7 +18,7 @@ public class tester {
             List<HashSet<Index>> res1 = Algorithms.findAllConnectedComponents(matrix1);
             System.out.println(res1);
             System.out.println(res1.size());
-        } catch(AlgorithmThreadingException e) {
+        } catch(AlgorithmException e) {
             System.err.println(e.getMessage());
         }
 
@@ -70,7 +71,12 @@ public class tester {
         int res5 =
                 Algorithms.countSubmarines(matrix5);
         System.out.println(res5);
-       // int[][] matrixTest=Algorithms.matrixGenerator(50);
+        System.out.println("***");
+        int[][] matrixTest = Algorithms.matrixGenerator(5);
+        System.out.println("matrix 5 x 5");
+        for (int[] row : matrixTest) {
+            System.out.println(Arrays.toString(row));
+        }
     }
 
 
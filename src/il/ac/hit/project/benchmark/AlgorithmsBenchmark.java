@@ -0,0 +1,123 @@
+package il.ac.hit.project.benchmark;
+
+import il.ac.hit.project.algorithms.Algorithms;
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.Index;
+import il.ac.hit.project.algorithms.InvalidSubmarineMatrixAlgorithmException;
+import il.ac.hit.project.algorithms.PathLimits;
+import il.ac.hit.project.algorithms.PathSearchStatus;
+import il.ac.hit.project.tcpserver.Matrix;
+
+import java.util.Random;
+
+// benchmarks of the four tasks and of the neighbour methods of Matrix, on square matrices of every shape, size and
+// density given. options (name=value, see Benchmark.Options):
+//   shapes       GridShape names                          RANDOM,MAZE,SUBMARINES,GIANT
+//   sizes        number of rows (and columns)             64,512,2048
+//   pathSizes    sizes for task 2, whose cost grows       4,5,8,16
+//                exponentially with the size
+//   densities    see GridShape                            0.3,0.6
+//   maxPaths     task 2 is skipped on matrices with more  100000
+//                paths than this (or taking more than 10 s
+//                to enumerate)
+//   maxShortest  number of paths task 3 returns at most   1000
+//                (there may be exponentially many)
+//   seed, filter, warmup, iterations, millis
+// the paths of task 2 and task 3 go from the first 1 of the matrix to the last 1 connected to it.
+// for example: java il.ac.hit.project.benchmark.AlgorithmsBenchmark filter=task1 shapes=MAZE sizes=1024
+public class AlgorithmsBenchmark {
+    // the number of indices the neighbour benchmarks cycle through
+    private static final int NUM_NEIGHBOUR_INDICES = 1024;
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(Benchmark.Options.parse(args));
+        Benchmark.Options options = benchmark.getOptions();
+        long seed = options.getInt("seed", 42);
+        int maxPaths = options.getInt("maxPaths", 100_000);
+        int maxShortestPaths = options.getInt("maxShortest", 1000);
+
+        for (String shapeName : options.getList("shapes", "RANDOM,MAZE,SUBMARINES,GIANT")) {
+            GridShape shape = GridShape.valueOf(shapeName);
+            for (String densityValue : options.getList("densities", "0.3,0.6")) {
+                double density = Double.parseDouble(densityValue);
+                for (String sizeValue : options.getList("sizes", "64,512,2048")) {
+                    int size = Integer.parseInt(sizeValue);
+                    BitMatrix matrix = shape.generate(size, size, density, seed);
+                    String params = params(shape, size, density);
+                    runTasks(benchmark, matrix, params, maxShortestPaths);
+                }
+                for (String sizeValue : options.getList("pathSizes", "4,5,8,16")) {
+                    int size = Integer.parseInt(sizeValue);
+                    BitMatrix matrix = shape.generate(size, size, density, seed);
+                    runAllPaths(benchmark, matrix, params(shape, size, density), maxPaths);
+                }
+                if (shape == GridShape.MAZE) {
+                    // the density of a maze is ignored
+                    break;
+                }
+            }
+        }
+    }
+
+    private static String params(GridShape shape, int size, double density) {
+        return "shape=" + shape + " size=" + size + (shape == GridShape.MAZE ? "" : " density=" + density);
+    }
+
+    // task 1, task 3, task 4 and the neighbour methods
+    private static void runTasks(Benchmark benchmark, BitMatrix matrix, String params, int maxShortestPaths)
+            throws Exception {
+        Index source = GridShape.firstOne(matrix);
+        Index dest = GridShape.lastConnectedOne(matrix, source);
+
+        benchmark.run("task1.findAllConnectedComponents", params,
+                () -> Algorithms.findAllConnectedComponents(matrix));
+        benchmark.run("task3.findShortestPathsFromSourceToDest", params,
+                () -> Algorithms.findShortestPathsFromSourceToDest(matrix, source, dest, maxShortestPaths));
+        benchmark.run("task4.countSubmarines", params, () -> {
+            try {
+                return Algorithms.countSubmarines(matrix);
+            } catch (InvalidSubmarineMatrixAlgorithmException e) {
+                // only SUBMARINES matrices are valid - on the others this measures finding the first invalid one
+                return e;
+            }
+        });
+
+        Matrix neighbours = new Matrix(matrix);
+        Index[] indices = sampleIndices(matrix, NUM_NEIGHBOUR_INDICES);
+        int[] next = {0};
+        benchmark.run("matrix.getAdjacentIndices", params,
+                () -> neighbours.getAdjacentIndices(indices[next[0]++ & (indices.length - 1)]));
+        benchmark.run("matrix.getReachables", params,
+                () -> neighbours.getReachables(indices[next[0]++ & (indices.length - 1)]));
+    }
+
+    // task 2, unless the matrix has too many paths to hold them in memory
+    private static void runAllPaths(Benchmark benchmark, BitMatrix matrix, String params, int maxPaths)
+            throws Exception {
+        String name = "task2.findAllPathsFromSourceToDest";
+        if (!benchmark.getOptions().includes(name)) {
+            return;
+        }
+        Index source = GridShape.firstOne(matrix);
+        Index dest = GridShape.lastConnectedOne(matrix, source);
+        long[] numPaths = {0};
+        PathSearchStatus status = Algorithms.findAllPathsFromSourceToDest(matrix, source, dest,
+                new PathLimits(maxPaths, 0, 10_000), path -> numPaths[0]++);
+        if (status != PathSearchStatus.COMPLETE) {
+            benchmark.skip(name, params, "more than " + maxPaths + " paths or 10 s of search (" + status + ")");
+            return;
+        }
+        benchmark.run(name, params + " paths=" + numPaths[0],
+                () -> Algorithms.findAllPathsFromSourceToDest(matrix, source, dest));
+    }
+
+    // numIndices random indices of the matrix (numIndices must be a power of two)
+    private static Index[] sampleIndices(BitMatrix matrix, int numIndices) {
+        Random random = new Random(numIndices);
+        Index[] indices = new Index[numIndices];
+        for (int i = 0; i < numIndices; i++) {
+            indices[i] = new Index(random.nextInt(matrix.getNumRows()), random.nextInt(matrix.getNumCols()));
+        }
+        return indices;
+    }
+}
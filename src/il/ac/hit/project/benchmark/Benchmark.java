@@ -0,0 +1,238 @@
+package il.ac.hit.project.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// a small benchmark harness measuring the average time of an operation, the way JMH does in its AverageTime mode.
+// an operation is run for a number of warmup iterations (letting the JIT compile it), then for a number of measured
+// iterations of a fixed duration each. the score is the mean time per operation over the measured iterations, and
+// the error is the half width of its 99.9% confidence interval.
+// every result of the operation is consumed, so the JIT can't drop the work that produced it.
+// the operation is timed in batches, whose size is calibrated before the warmup so a batch takes at least
+// MIN_BATCH_NANOS - reading the clock after every operation would add its own cost to operations of a few ns.
+// the JVM is not forked per benchmark - for stable numbers run a single benchmark per JVM (see the filter option),
+// with a fixed heap (-Xms = -Xmx)
+public class Benchmark {
+    // an operation to measure. returns its result, so it is not optimized away
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    // how the operations are measured
+    // options are given on the command line as name=value pairs, and lists as comma separated values
+    public static class Options {
+        private final Map<String, String> values;
+
+        private Options(Map<String, String> values) {
+            this.values = values;
+        }
+
+        public static Options parse(String[] args) {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("expected name=value but got " + arg);
+                }
+                values.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+            return new Options(values);
+        }
+
+        public String getString(String name, String defaultValue) {
+            return values.getOrDefault(name, defaultValue);
+        }
+
+        public int getInt(String name, int defaultValue) {
+            return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+        }
+
+        public List<String> getList(String name, String defaultValue) {
+            return Arrays.asList(getString(name, defaultValue).split(","));
+        }
+
+        public int getWarmupIterations() {
+            return getInt("warmup", 3);
+        }
+
+        public int getIterations() {
+            return getInt("iterations", 5);
+        }
+
+        public int getIterationMillis() {
+            return getInt("millis", 1000);
+        }
+
+        // only benchmarks whose name contains the filter are run
+        public boolean includes(String benchmarkName) {
+            return benchmarkName.contains(getString("filter", ""));
+        }
+    }
+
+    // the score of a benchmark
+    public static class Result {
+        private final String name;
+        private final String params;
+        private final int iterations;
+        private final double meanNanos;
+        private final double errorNanos;
+
+        Result(String name, String params, double[] nanosPerOp) {
+            this.name = name;
+            this.params = params;
+            this.iterations = nanosPerOp.length;
+            double sum = 0;
+            for (double nanos : nanosPerOp) {
+                sum += nanos;
+            }
+            meanNanos = sum / iterations;
+            if (iterations > 1) {
+                double squares = 0;
+                for (double nanos : nanosPerOp) {
+                    squares += (nanos - meanNanos) * (nanos - meanNanos);
+                }
+                double standardError = Math.sqrt(squares / (iterations - 1) / iterations);
+                errorNanos = studentT999(iterations - 1) * standardError;
+            } else {
+                errorNanos = Double.NaN;
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getParams() {
+            return params;
+        }
+
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        public double getErrorNanos() {
+            return errorNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-45s %-48s %3d %14.1f +- %12.1f ns/op", name, params, iterations, meanNanos,
+                    errorNanos);
+        }
+    }
+
+    // the two sided 99.9% quantiles of Student's t distribution for 1 to 30 degrees of freedom, then for
+    // T999_DEGREES, and the normal quantile for infinitely many
+    private static final double[] T999_QUANTILES = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041,
+            4.781, 4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768,
+            3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+    private static final int[] T999_DEGREES = {30, 40, 60, 80, 100, 120};
+    private static final double[] T999_LARGE_QUANTILES = {3.646, 3.551, 3.460, 3.416, 3.390, 3.373};
+    private static final double T999_NORMAL = 3.291;
+
+    // the two sided 99.9% quantile of Student's t distribution with the given degrees of freedom - between the
+    // tabulated ones it is interpolated linearly in 1 / degreesOfFreedom, which is off by less than 0.001
+    private static double studentT999(int degreesOfFreedom) {
+        if (degreesOfFreedom <= T999_QUANTILES.length) {
+            return T999_QUANTILES[degreesOfFreedom - 1];
+        }
+        double x = 1.0 / degreesOfFreedom;
+        for (int i = 1; i <= T999_DEGREES.length; i++) {
+            double upperX = i < T999_DEGREES.length ? 1.0 / T999_DEGREES[i] : 0;
+            double upper = i < T999_DEGREES.length ? T999_LARGE_QUANTILES[i] : T999_NORMAL;
+            if (x >= upperX) {
+                double lowerX = 1.0 / T999_DEGREES[i - 1];
+                double lower = T999_LARGE_QUANTILES[i - 1];
+                return upper + (lower - upper) * (x - upperX) / (lowerX - upperX);
+            }
+        }
+        return T999_NORMAL;
+    }
+
+    // a batch of operations is timed at once, and takes at least this long once calibrated
+    private static final long MIN_BATCH_NANOS = 100_000;
+
+    private final Options options;
+    private final List<Result> results = new ArrayList<>();
+    // every result of an operation is written here
+    private volatile Object sink;
+
+    public Benchmark(Options options) {
+        this.options = options;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    // measures the operation, unless the filter excludes it
+    // params describe the parameters of this run, such as "shape=MAZE size=64"
+    public void run(String name, String params, Operation operation) throws Exception {
+        if (!options.includes(name)) {
+            return;
+        }
+        long batchSize = calibrateBatchSize(operation);
+        for (int i = 0; i < options.getWarmupIterations(); i++) {
+            iteration(operation, batchSize);
+        }
+        double[] nanosPerOp = new double[options.getIterations()];
+        for (int i = 0; i < nanosPerOp.length; i++) {
+            nanosPerOp[i] = iteration(operation, batchSize);
+        }
+        Result result = new Result(name, params, nanosPerOp);
+        results.add(result);
+        System.out.println(result);
+    }
+
+    // prints a benchmark that was not run, and why
+    public void skip(String name, String params, String reason) {
+        if (options.includes(name)) {
+            System.out.println(String.format("%-45s %-48s skipped: %s", name, params, reason));
+        }
+    }
+
+    // returns the number of operations a batch runs - doubled from 1 until a batch takes MIN_BATCH_NANOS (or an
+    // iteration)
+    private long calibrateBatchSize(Operation operation) throws Exception {
+        long maxNanos = Math.min(MIN_BATCH_NANOS, options.getIterationMillis() * 1_000_000L);
+        long batchSize = 1;
+        while (batchSize < Integer.MAX_VALUE) {
+            long start = System.nanoTime();
+            batch(operation, batchSize);
+            if (System.nanoTime() - start >= maxNanos) {
+                break;
+            }
+            batchSize *= 2;
+        }
+        return batchSize;
+    }
+
+    // runs batches of the operation for the duration of an iteration (at least one batch)
+    // returns the mean time per operation in nanoseconds
+    private double iteration(Operation operation, long batchSize) throws Exception {
+        long iterationNanos = options.getIterationMillis() * 1_000_000L;
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            batch(operation, batchSize);
+            operations += batchSize;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return (double) elapsed / operations;
+    }
+
+    private void batch(Operation operation, long batchSize) throws Exception {
+        for (long i = 0; i < batchSize; i++) {
+            sink = operation.run();
+        }
+    }
+
+    public List<Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+}
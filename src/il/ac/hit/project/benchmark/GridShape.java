@@ -0,0 +1,142 @@
+package il.ac.hit.project.benchmark;
+
+import il.ac.hit.project.algorithms.AlgorithmException;
+import il.ac.hit.project.algorithms.Algorithms;
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.Index;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Random;
+
+// the kinds of matrices the benchmarks run on. every matrix is generated from a seed, so runs are repeatable
+public enum GridShape {
+    // every cell is 1 with probability density (see Algorithms.matrixGenerator)
+    RANDOM {
+        @Override
+        void fill(BitMatrix matrix, double density, Random random) {
+            int[][] cells = Algorithms.matrixGenerator(matrix.getNumRows(), matrix.getNumCols(), density,
+                    random.nextLong());
+            for (int i = 0; i < matrix.getNumRows(); i++) {
+                for (int j = 0; j < matrix.getNumCols(); j++) {
+                    matrix.set(i, j, cells[i][j] == 1);
+                }
+            }
+        }
+    },
+    // a maze of corridors one cell wide, carved by a randomized depth first search from the upper left corner - the
+    // corridors form a tree (up to the diagonal steps at its corners). the density is ignored
+    MAZE {
+        @Override
+        void fill(BitMatrix matrix, double density, Random random) {
+            // the rooms are the cells at even rows and columns, and a corridor between two rooms opens the cell
+            // between them
+            int roomRows = (matrix.getNumRows() + 1) / 2;
+            int roomCols = (matrix.getNumCols() + 1) / 2;
+            boolean[][] visited = new boolean[roomRows][roomCols];
+            Deque<int[]> stack = new ArrayDeque<>();
+            visited[0][0] = true;
+            matrix.set(0, 0, true);
+            stack.push(new int[]{0, 0});
+            int[][] steps = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+            while (!stack.isEmpty()) {
+                int[] room = stack.peek();
+                int[] next = null;
+                int numCandidates = 0;
+                for (int[] step : steps) {
+                    int row = room[0] + step[0];
+                    int col = room[1] + step[1];
+                    // reservoir sampling picks a random unvisited neighbour
+                    if (row >= 0 && row < roomRows && col >= 0 && col < roomCols && !visited[row][col]
+                            && random.nextInt(++numCandidates) == 0) {
+                        next = new int[]{row, col};
+                    }
+                }
+                if (next == null) {
+                    stack.pop();
+                    continue;
+                }
+                visited[next[0]][next[1]] = true;
+                matrix.set(room[0] + next[0], room[1] + next[1], true);
+                matrix.set(2 * next[0], 2 * next[1], true);
+                stack.push(next);
+            }
+        }
+    },
+    // many small submarines (filled rectangles of 2 to 12 cells) that never touch, so the matrix is a valid
+    // submarine game. each 5x4 block of the matrix holds a submarine with probability density
+    SUBMARINES {
+        @Override
+        void fill(BitMatrix matrix, double density, Random random) {
+            for (int top = 0; top < matrix.getNumRows(); top += 4) {
+                for (int left = 0; left < matrix.getNumCols(); left += 5) {
+                    if (random.nextDouble() >= density) {
+                        continue;
+                    }
+                    // at most 3 rows and 4 columns, leaving the last row and column of the block empty
+                    int height = Math.min(1 + random.nextInt(3), matrix.getNumRows() - top);
+                    int width = Math.min(1 + random.nextInt(4), matrix.getNumCols() - left);
+                    if (height * width < 2) {
+                        continue;
+                    }
+                    for (int i = top; i < top + height; i++) {
+                        for (int j = left; j < left + width; j++) {
+                            matrix.set(i, j, true);
+                        }
+                    }
+                }
+            }
+        }
+    },
+    // a single component covering most of the matrix: every even row and the first column are all 1's, and every
+    // other cell is 1 with probability density (each of them touches a full row)
+    GIANT {
+        @Override
+        void fill(BitMatrix matrix, double density, Random random) {
+            for (int i = 0; i < matrix.getNumRows(); i++) {
+                for (int j = 0; j < matrix.getNumCols(); j++) {
+                    matrix.set(i, j, i % 2 == 0 || j == 0 || random.nextDouble() < density);
+                }
+            }
+        }
+    };
+
+    abstract void fill(BitMatrix matrix, double density, Random random);
+
+    public BitMatrix generate(int numRows, int numCols, double density, long seed) {
+        BitMatrix matrix = new BitMatrix(numRows, numCols);
+        fill(matrix, density, new Random(seed));
+        return matrix;
+    }
+
+    // the first 1 of the matrix in row major order, or (0,0) if there is none
+    // the path benchmarks search from it to the last 1 connected to it
+    public static Index firstOne(BitMatrix matrix) {
+        for (int i = 0; i < matrix.getNumRows(); i++) {
+            int col = matrix.nextSetBit(i, 0);
+            if (col < matrix.getNumCols()) {
+                return new Index(i, col);
+            }
+        }
+        return new Index(0, 0);
+    }
+
+    // the last 1 of the matrix in row major order that is connected to source, so there is a path between them
+    // (source itself if it is not connected to any other 1)
+    public static Index lastConnectedOne(BitMatrix matrix, Index source) throws AlgorithmException {
+        Index last = source;
+        for (HashSet<Index> component : Algorithms.findAllConnectedComponents(matrix)) {
+            if (!component.contains(source)) {
+                continue;
+            }
+            for (Index index : component) {
+                if (index.getRow() > last.getRow()
+                        || index.getRow() == last.getRow() && index.getCol() > last.getCol()) {
+                    last = index;
+                }
+            }
+        }
+        return last;
+    }
+}
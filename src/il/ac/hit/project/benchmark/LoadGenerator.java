@@ -0,0 +1,325 @@
+package il.ac.hit.project.benchmark;
+
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.Index;
+import il.ac.hit.project.algorithms.PathLimits;
+import il.ac.hit.project.tcpserver.Client;
+import il.ac.hit.project.tcpserver.MatrixIHandler;
+import il.ac.hit.project.tcpserver.ServerBusyException;
+import il.ac.hit.project.tcpserver.ServerLog;
+import il.ac.hit.project.tcpserver.StripedHistogram;
+import il.ac.hit.project.tcpserver.TcpServer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// a load generator for a MatrixIHandler server: drives a number of Client connections at a fixed total request rate,
+// with a weighted mix of commands on generated matrices, and reports the latency percentiles of every command.
+// the load is open: each connection sends its requests on a fixed schedule, whether or not the earlier ones were
+// answered (requests are pipelined). a request's latency is measured from the time it was scheduled to be sent, not
+// from the time it was sent, so a server that falls behind is charged for the whole delay it caused - measuring from
+// the send time would hide it (coordinated omission). both are reported: "latency" from the schedule, and "service"
+// from the send.
+// options (name=value, see Benchmark.Options):
+//   host, port     the server to load                       localhost, 8010
+//   local          true to start a server in this JVM       false
+//   connections    number of connections                    8
+//   rate           total requests per second                1000
+//   duration       seconds to measure for                   30
+//   warmup         seconds to run before measuring          5
+//   mix            command:weight pairs, the commands being  adjacent:1,task1:2,task2:1,task3:2,task4:2
+//                  adjacent, task1, task2, task3, task4
+//   shape          GridShape of the matrices                 RANDOM
+//   size           number of rows (and columns)              64
+//   density        see GridShape                             0.3
+//   matrices       number of matrices to choose from         16
+//   maxPaths       paths task2 streams at most               1000
+//   maxPending     requests a connection may wait for -      1000
+//                  past it the connection stops sending
+//                  (its latencies keep counting)
+//   seed
+// task2 and task3 search from the first 1 of the matrix to the last 1 connected to it (see GridShape). task4 fails on
+// matrices that are not valid submarine games (any shape but SUBMARINES). the latencies include the requests that
+// failed, and are counted in "failed" too, but not those the server was too busy for ("busy"). requests still
+// unanswered 10 seconds after the last one was sent are counted in "timeout", with the latency they had by then -
+// they are the slowest requests of all, and leaving them out would report better percentiles than the server
+// delivered.
+// for example: java il.ac.hit.project.benchmark.LoadGenerator local=true connections=32 rate=20000 mix=task1:1
+public class LoadGenerator {
+    private static final String[] COMMANDS = {"adjacent", "task1", "task2", "task3", "task4"};
+    // bits of precision of the latency histograms
+    private static final int LATENCY_PRECISION = 7;
+
+    // the statistics of a command
+    private static class Stats {
+        // latencies in nanoseconds, off by less than 1.6%
+        final StripedHistogram latency = new StripedHistogram(LATENCY_PRECISION);
+        final StripedHistogram service = new StripedHistogram(LATENCY_PRECISION);
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong busy = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+    }
+
+    // a request that was sent, recorded once - when it is answered, or when the run ends before that
+    private static class SentRequest {
+        final String command;
+        final long scheduledNanos;
+        final long sentNanos;
+        final AtomicBoolean recorded = new AtomicBoolean();
+
+        SentRequest(String command, long scheduledNanos, long sentNanos) {
+            this.command = command;
+            this.scheduledNanos = scheduledNanos;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    // a matrix the requests run on, with the ends of its paths
+    private static class TaskMatrix {
+        final BitMatrix bitMatrix;
+        final int[][] array;
+        final Index start;
+        final Index end;
+
+        TaskMatrix(BitMatrix bitMatrix) throws Exception {
+            this.bitMatrix = bitMatrix;
+            this.array = bitMatrix.toArray();
+            this.start = GridShape.firstOne(bitMatrix);
+            this.end = GridShape.lastConnectedOne(bitMatrix, start);
+        }
+    }
+
+    private final Benchmark.Options options;
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    // the commands to send, each one as many times as its weight
+    private final List<String> weightedCommands = new ArrayList<>();
+    private final List<TaskMatrix> matrices = new ArrayList<>();
+    private final PathLimits pathLimits;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    // the requests sent and not recorded yet
+    private final Set<SentRequest> unanswered = ConcurrentHashMap.newKeySet();
+    // requests scheduled before this time are not measured
+    private volatile long measureStartNanos;
+
+    private LoadGenerator(Benchmark.Options options) throws Exception {
+        this.options = options;
+        for (String command : COMMANDS) {
+            stats.put(command, new Stats());
+        }
+        for (String entry : options.getList("mix", "adjacent:1,task1:2,task2:1,task3:2,task4:2")) {
+            String[] commandAndWeight = entry.split(":");
+            if (!stats.containsKey(commandAndWeight[0])) {
+                throw new IllegalArgumentException("unknown command " + commandAndWeight[0]);
+            }
+            int weight = commandAndWeight.length > 1 ? Integer.parseInt(commandAndWeight[1]) : 1;
+            for (int i = 0; i < weight; i++) {
+                weightedCommands.add(commandAndWeight[0]);
+            }
+        }
+        if (weightedCommands.isEmpty()) {
+            throw new IllegalArgumentException("the mix must have a command of positive weight");
+        }
+        GridShape shape = GridShape.valueOf(options.getString("shape", "RANDOM"));
+        int size = options.getInt("size", 64);
+        double density = Double.parseDouble(options.getString("density", "0.3"));
+        long seed = options.getInt("seed", 42);
+        for (int i = 0; i < options.getInt("matrices", 16); i++) {
+            matrices.add(new TaskMatrix(shape.generate(size, size, density, seed + i)));
+        }
+        pathLimits = new PathLimits(options.getInt("maxPaths", 1000), 0, 0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Benchmark.Options options = Benchmark.Options.parse(args);
+        String host = options.getString("host", "localhost");
+        int port = options.getInt("port", 8010);
+        TcpServer server = null;
+        if (Boolean.parseBoolean(options.getString("local", "false"))) {
+            ServerLog.setLevel(ServerLog.Level.WARN);
+            server = new TcpServer(port);
+            server.run(new MatrixIHandler());
+        }
+        try {
+            new LoadGenerator(options).run(host, port);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    private void run(String host, int port) throws Exception {
+        int numConnections = options.getInt("connections", 8);
+        double rate = Double.parseDouble(options.getString("rate", "1000"));
+        long warmupNanos = TimeUnit.SECONDS.toNanos(options.getInt("warmup", 5));
+        long durationNanos = TimeUnit.SECONDS.toNanos(options.getInt("duration", 30));
+        int maxPending = options.getInt("maxPending", 1000);
+        if (numConnections <= 0 || rate <= 0 || maxPending <= 0) {
+            throw new IllegalArgumentException("connections, rate and maxPending must be positive");
+        }
+        // every connection sends at an equal share of the rate, the connections offset from each other
+        long intervalNanos = (long) (1e9 * numConnections / rate);
+
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < numConnections; i++) {
+            clients.add(ServerBenchmark.connect(host, port));
+        }
+        long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        measureStartNanos = startNanos + warmupNanos;
+        long endNanos = measureStartNanos + durationNanos;
+        List<Thread> senders = new ArrayList<>();
+        for (int i = 0; i < numConnections; i++) {
+            Client client = clients.get(i);
+            long firstNanos = startNanos + intervalNanos * i / numConnections;
+            Random random = new Random(options.getInt("seed", 42) + i);
+            Thread sender = new Thread(() -> send(client, firstNanos, intervalNanos, endNanos, maxPending, random),
+                    "load-" + i);
+            sender.start();
+            senders.add(sender);
+        }
+
+        // progress, once a second
+        long previousCompleted = 0;
+        while (senders.stream().anyMatch(Thread::isAlive)) {
+            Thread.sleep(1000);
+            long completedNow = completed.get();
+            System.out.println(String.format("load:: %s sent=%d completed=%d (%d/s) pending=%d",
+                    System.nanoTime() < measureStartNanos ? "warmup" : "measure", sent.get(), completedNow,
+                    completedNow - previousCompleted, sent.get() - completedNow));
+            previousCompleted = completedNow;
+        }
+        // the answers to the last requests
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (completed.get() < sent.get() && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        // the requests still unanswered, with the latency they have by now
+        long now = System.nanoTime();
+        for (SentRequest request : unanswered) {
+            if (request.recorded.compareAndSet(false, true)) {
+                record(request, now, null, true);
+            }
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+        report(durationNanos);
+    }
+
+    // sends the requests of a connection on its schedule, until endNanos
+    private void send(Client client, long firstNanos, long intervalNanos, long endNanos, int maxPending,
+                      Random random) {
+        Semaphore pending = new Semaphore(maxPending);
+        try {
+            for (long scheduledNanos = firstNanos; scheduledNanos < endNanos; scheduledNanos += intervalNanos) {
+                long delay = scheduledNanos - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                String command = weightedCommands.get(random.nextInt(weightedCommands.size()));
+                TaskMatrix matrix = matrices.get(random.nextInt(matrices.size()));
+                pending.acquire();
+                SentRequest request = new SentRequest(command, scheduledNanos, System.nanoTime());
+                unanswered.add(request);
+                sent.incrementAndGet();
+                request(client, command, matrix).whenComplete((result, failure) -> {
+                    pending.release();
+                    if (request.recorded.compareAndSet(false, true)) {
+                        unanswered.remove(request);
+                        record(request, System.nanoTime(), failure, false);
+                    }
+                    completed.incrementAndGet();
+                });
+            }
+        } catch (Exception e) {
+            // the connection failed - the requests still pending are counted as failed by the client
+            System.err.println("load:: " + Thread.currentThread().getName() + " stopped: " + e);
+        }
+    }
+
+    private CompletableFuture<?> request(Client client, String command, TaskMatrix matrix) throws Exception {
+        switch (command) {
+            case "adjacent":
+                client.sendMatrix(matrix.bitMatrix);
+                return client.getAdjacentIndices(matrix.start);
+            case "task1":
+                client.sendMatrix(matrix.bitMatrix);
+                return client.task1();
+            case "task2":
+                client.sendStartIndex(matrix.start);
+                client.sendEndIndex(matrix.end);
+                return client.task2(matrix.array, pathLimits, path -> {
+                });
+            case "task3":
+                client.sendStartIndex(matrix.start);
+                client.sendEndIndex(matrix.end);
+                return client.task3(matrix.array);
+            case "task4":
+                return client.task4(matrix.array);
+            default:
+                throw new IllegalArgumentException("unknown command " + command);
+        }
+    }
+
+    // records a request answered (or, if timedOut, still unanswered) at nowNanos
+    private void record(SentRequest request, long nowNanos, Throwable failure, boolean timedOut) {
+        if (request.scheduledNanos < measureStartNanos) {
+            return;
+        }
+        Stats commandStats = stats.get(request.command);
+        Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+        if (cause instanceof ServerBusyException) {
+            // rejected right away, its latency says nothing of the server's
+            commandStats.busy.incrementAndGet();
+            return;
+        }
+        if (cause != null) {
+            commandStats.failures.incrementAndGet();
+        }
+        if (timedOut) {
+            commandStats.timeouts.incrementAndGet();
+        }
+        commandStats.latency.record(nowNanos - request.scheduledNanos);
+        commandStats.service.record(nowNanos - request.sentNanos);
+    }
+
+    private void report(long durationNanos) {
+        System.out.println(String.format("%-9s %-8s %9s %9s %7s %7s %7s %10s %10s %10s %10s %10s", "command", "",
+                "count", "rate/s", "failed", "busy", "timeout", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        double seconds = durationNanos / 1e9;
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats commandStats = entry.getValue();
+            if (commandStats.latency.getCount() + commandStats.busy.get() == 0) {
+                continue;
+            }
+            printRow(entry.getKey(), "latency", commandStats.latency, seconds, commandStats);
+            printRow("", "service", commandStats.service, seconds, null);
+        }
+    }
+
+    private static void printRow(String command, String kind, StripedHistogram histogram, double seconds,
+                                 Stats commandStats) {
+        System.out.println(String.format("%-9s %-8s %9d %9.1f %7s %7s %7s %10.3f %10.3f %10.3f %10.3f %10.3f",
+                command, kind, histogram.getCount(), histogram.getCount() / seconds,
+                commandStats == null ? "" : String.valueOf(commandStats.failures.get()),
+                commandStats == null ? "" : String.valueOf(commandStats.busy.get()),
+                commandStats == null ? "" : String.valueOf(commandStats.timeouts.get()),
+                histogram.getMean() / 1e6, histogram.getPercentile(50) / 1e6,
+                histogram.getPercentile(99) / 1e6, histogram.getPercentile(99.9) / 1e6,
+                histogram.getMax() / 1e6));
+    }
+}
@@ -0,0 +1,95 @@
+package il.ac.hit.project.benchmark;
+
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.Index;
+import il.ac.hit.project.tcpserver.Client;
+import il.ac.hit.project.tcpserver.MatrixIHandler;
+import il.ac.hit.project.tcpserver.ServerLog;
+import il.ac.hit.project.tcpserver.TcpServer;
+
+import java.net.ConnectException;
+
+// round trip benchmarks of a TcpServer running a MatrixIHandler in this JVM, through a Client on the loopback
+// interface. each operation sends a request and waits for its response, so the score is the latency of a single
+// request on an otherwise idle server. options (name=value, see Benchmark.Options):
+//   port         port the server listens on               8011
+//   shapes       GridShape names (the server returns all  RANDOM,SUBMARINES
+//                shortest paths, which are exponentially
+//                many in mazes and in dense matrices)
+//   sizes        number of rows (and columns)             16,256
+//   density      see GridShape                            0.3
+//   cache        false to run the server without a        true
+//                result cache, so every task is computed
+//   encodings    BinaryProtocol.ENCODING_* bits the       11 (Client.DEFAULT_ENCODINGS)
+//                client asks for (0 for the plain formats,
+//                15 to deflate too)
+//   seed, filter, warmup, iterations, millis
+// the server logs at WARN, so the benchmark does not measure the console
+public class ServerBenchmark {
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark(Benchmark.Options.parse(args));
+        Benchmark.Options options = benchmark.getOptions();
+        int port = options.getInt("port", 8011);
+        long seed = options.getInt("seed", 42);
+        double density = Double.parseDouble(options.getString("density", "0.3"));
+        boolean cache = Boolean.parseBoolean(options.getString("cache", "true"));
+        int encodings = options.getInt("encodings", Client.DEFAULT_ENCODINGS);
+
+        ServerLog.setLevel(ServerLog.Level.WARN);
+        TcpServer server = new TcpServer(port);
+        server.run(new MatrixIHandler(cache ? MatrixIHandler.DEFAULT_RESULT_CACHE_WEIGHT : 0,
+                MatrixIHandler.DEFAULT_MATRIX_STORE_BYTES));
+        try (Client client = connect("localhost", port, encodings)) {
+            for (String shapeName : options.getList("shapes", "RANDOM,SUBMARINES")) {
+                GridShape shape = GridShape.valueOf(shapeName);
+                for (String sizeValue : options.getList("sizes", "16,256")) {
+                    int size = Integer.parseInt(sizeValue);
+                    BitMatrix matrix = shape.generate(size, size, density, seed);
+                    int[][] array = matrix.toArray();
+                    String params = "shape=" + shape + " size=" + size + " cache=" + cache + " encodings=" + encodings;
+                    Index index = GridShape.firstOne(matrix);
+
+                    client.sendMatrix(matrix);
+                    // the smallest request and response - the latency of the protocol itself
+                    benchmark.run("server.getAdjacentIndices", params, () -> client.getAdjacentIndices(index).join());
+                    benchmark.run("server.sendMatrix+task1", params, () -> {
+                        client.sendMatrix(matrix);
+                        return client.task1().join();
+                    });
+                    client.sendStartIndex(index);
+                    client.sendEndIndex(GridShape.lastConnectedOne(matrix, index));
+                    benchmark.run("server.task3", params, () -> client.task3(array).join());
+                    benchmark.run("server.task4", params, () -> {
+                        try {
+                            return client.task4(array).join();
+                        } catch (RuntimeException e) {
+                            // only SUBMARINES matrices are valid, the others are answered with an error
+                            return e;
+                        }
+                    });
+                }
+            }
+        } finally {
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    // retries for a few seconds, as a server started in this JVM listens on its own thread
+    static Client connect(String host, int port) throws Exception {
+        return connect(host, port, Client.DEFAULT_ENCODINGS);
+    }
+
+    static Client connect(String host, int port, int encodings) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Client(host, port, encodings);
+            } catch (ConnectException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+}
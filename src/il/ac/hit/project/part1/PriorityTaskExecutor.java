@@ -0,0 +1,72 @@
+package il.ac.hit.project.part1;
+
+import java.util.Comparator;
+import java.util.concurrent.*;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+// a fixed-size thread pool that runs the queued tasks by the priority of their TaskType (a lower number runs first),
+// and tasks of the same priority in the order they were queued.
+// to keep a stream of high priority tasks from starving the others, a queued task ages: it is ordered as if it was
+// queued agingMillis later for every priority level below the highest. e.g. with IO at 1 and COMPUTATIONAL at 2, an IO
+// task goes ahead of every COMPUTATIONAL task queued less than agingMillis before it, but not of older ones.
+// the order is fixed when a task is queued, so the queue is a plain PriorityBlockingQueue.
+// tasks submitted without a type (through execute, submit or invokeAll) run as TaskType.UNKNOWN
+public class PriorityTaskExecutor extends ThreadPoolExecutor {
+    public static final long DEFAULT_AGING_MILLIS = 1000;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    public PriorityTaskExecutor(int threads, ThreadFactory threadFactory) {
+        this(threads, DEFAULT_AGING_MILLIS, threadFactory);
+    }
+
+    public PriorityTaskExecutor(int threads, long agingMillis, ThreadFactory threadFactory) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(16, order(TimeUnit.MILLISECONDS.toNanos(agingMillis))), threadFactory);
+    }
+
+    // orders the queued tasks by their aged queuing time, then by the order they were queued in
+    // (every task in the queue is a TaskWrapper, see execute)
+    private static Comparator<Runnable> order(long agingNanos) {
+        return (a, b) -> {
+            TaskWrapper<?> first = (TaskWrapper<?>) a, second = (TaskWrapper<?>) b;
+            // compared by difference, since nanoTime may wrap around
+            long difference = (first.getQueuedNanos() + (first.getPriority() - 1) * agingNanos)
+                    - (second.getQueuedNanos() + (second.getPriority() - 1) * agingNanos);
+            if (difference != 0) {
+                return difference < 0 ? -1 : 1;
+            }
+            return Long.compare(first.getSequence(), second.getSequence());
+        };
+    }
+
+    // runs the command with the given type
+    public void execute(Runnable command, TaskType taskType) {
+        execute(new TaskWrapper<>(command, null, taskType));
+    }
+
+    public <T> Future<T> submit(Callable<T> callable, TaskType taskType) {
+        TaskWrapper<T> task = new TaskWrapper<>(callable, taskType);
+        execute(task);
+        return task;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        TaskWrapper<?> task = command instanceof TaskWrapper ? (TaskWrapper<?>) command
+                : new TaskWrapper<>(command, null, TaskType.UNKNOWN);
+        task.markQueued(System.nanoTime(), nextSequence.getAndIncrement());
+        super.execute(task);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new TaskWrapper<>(runnable, value, TaskType.UNKNOWN);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new TaskWrapper<>(callable, TaskType.UNKNOWN);
+    }
+}
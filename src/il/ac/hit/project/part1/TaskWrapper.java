@@ -3,24 +3,54 @@ package il.ac.hit.project.part1;
 import java.util.concurrent.*;
 import java.util.concurrent.RunnableFuture;
 
+// a task together with its TaskType, as run by PriorityTaskExecutor
+// the priority of the type is taken when the task is created, and tasks are equal only to themselves (so removing a
+// task from a queue never removes another task of the same priority)
 public class TaskWrapper<V> implements RunnableFuture<V> {
 
-    private FutureTask<V> task;
-    private TaskType taskType;
+    private final FutureTask<V> task;
+    private final TaskType taskType;
+    private final int priority;
+    // set by PriorityTaskExecutor when the task is queued
+    private long queuedNanos;
+    private long sequence;
 
     public TaskWrapper(Runnable runnable, V result, TaskType taskType) {
-        this.task = new FutureTask(runnable, result);
+        this.task = new FutureTask<>(runnable, result);
         this.taskType = taskType;
+        this.priority = taskType.getPriority();
     }
 
     public TaskWrapper(Callable<V> callable, TaskType taskType) {
-        this.task = new FutureTask(callable);
+        this.task = new FutureTask<>(callable);
         this.taskType = taskType;
+        this.priority = taskType.getPriority();
+    }
+
+    public TaskType getTaskType() {
+        return taskType;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    void markQueued(long queuedNanos, long sequence) {
+        this.queuedNanos = queuedNanos;
+        this.sequence = sequence;
+    }
+
+    long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    long getSequence() {
+        return sequence;
     }
 
     @Override
     public void run() {
-        
+        task.run();
     }
 
     @Override
@@ -52,15 +82,7 @@ public class TaskWrapper<V> implements RunnableFuture<V> {
     public String toString() {
         return "TaskWrapper{" +
                 "taskType=" + taskType +
-                "taskPriority=" + taskType.getPriority() +
+                ", taskPriority=" + priority +
                 '}';
     }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        TaskWrapper<?> that = (TaskWrapper<?>) o;
-        return taskType.getPriority() == that.taskType.getPriority();
-    }
 }
@@ -0,0 +1,460 @@
+package il.ac.hit.project.tcpserver;
+
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.Index;
+import il.ac.hit.project.algorithms.PathLimits;
+import il.ac.hit.project.algorithms.PathSearchStatus;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+// compact binary protocol spoken between Client and MatrixIHandler.
+//
+// a connection starts with the client sending MAGIC (int) and VERSION (byte), which the server echoes back.
+// after that every message in both directions is a frame: opcode (byte), request ID (int), payload length (int),
+// payload bytes. a payload is at most MAX_PAYLOAD_LENGTH bytes.
+// the client picks the request IDs, and every response frame carries the ID of the request it answers. requests may
+// be pipelined: frames that set state (MATRIX, START_INDEX, END_INDEX) apply to the requests sent after them, but the
+// server may run the requests of a connection concurrently and send their responses in any order.
+//
+// request payloads:
+//   MATRIX                   - matrix
+//   START_INDEX, END_INDEX   - index
+//   ADJACENT_INDICES,
+//   REACHABLES               - index
+//   TASK1                    - empty
+//   TASK2, TASK3, TASK4      - empty (use the last MATRIX) or a matrix
+//   TASK2_STREAM             - path limits, optionally followed by a matrix (else the last MATRIX is used)
+//   STORE_MATRIX             - matrix
+//   USE_MATRIX,
+//   RELEASE_MATRIX           - handle (long)
+//   MAPPED_TASK              - task (byte, TASK1, TASK3 or TASK4), file name (modified UTF-8), and for TASK3 the
+//                              start and end indices
+//   SET_CELLS                - handle (long), count (int), then count cells: row (int), col (int), value (byte 0/1)
+//   CANCEL                   - empty (the request ID is the ID of the request to cancel)
+//   DEADLINE                 - deadline in milliseconds (int, 0 for none)
+//   ENCODINGS                - encodings the client supports (int, ENCODING_* bits)
+//   STOP                     - empty
+// response payloads:
+//   INDICES                  - index list
+//   INDEX_LISTS              - count (int), then count index lists
+//   COUNT                    - int (for ENCODINGS, the encodings both sides support)
+//   PATH                     - index list
+//   PATHS_END                - number of paths sent (int), search status (byte, PathSearchStatus ordinal)
+//   HANDLE                   - handle (long)
+//   OK                       - empty
+//   LONG_COUNT               - long
+//   COMPONENT_COUNTS         - number of connected components (int), number of submarines (int, -1 if the matrix is
+//                              not a valid submarine game matrix)
+//   BUSY                     - retry after milliseconds (int), number of queued requests (int)
+//   ERROR                    - message (modified UTF-8)
+//
+// STORE_MATRIX keeps the matrix in the server's MatrixStore and is answered with its HANDLE, which any connection can
+// then pass to USE_MATRIX to make it the current matrix (as if it was sent with MATRIX). USE_MATRIX is answered with OK,
+// or with an ERROR if the handle is unknown (then there is no current matrix), and RELEASE_MATRIX with a COUNT of 1
+// if the handle was released and 0 if it was unknown.
+// SET_CELLS edits a stored matrix in place (all cells, or none if one is out of bounds) and is answered with the
+// COMPONENT_COUNTS of the edited matrix, which the server keeps up to date incrementally (see DynamicComponents).
+// the edits apply to the USE_MATRIX requests that follow - a connection already using the matrix keeps the matrix as
+// it was until it sends USE_MATRIX again.
+//
+// MAPPED_TASK runs a task directly over a matrix file in the server's mapped matrix directory (see MappedBitMatrix),
+// for matrices too large to send or to hold on the heap. the file name is resolved against that directory, and the
+// request fails if the server has none. it is answered with a LONG_COUNT: the number of connected components for
+// TASK1, the number of indices on a shortest path from start to end (-1 if there is none) for TASK3, and the number
+// of submarines for TASK4
+//
+// any request may be answered with BUSY instead when the server is overloaded (see ServerLimits), and can be sent again
+// after the suggested delay - so may MATRIX, which then leaves the connection with no matrix. a connection over the
+// connection limit gets the handshake followed by a BUSY frame with request ID 0, and is closed. a matrix with more
+// cells than the server's limit fails its request, or closes the connection if it was sent with MATRIX or STORE_MATRIX.
+// a request frame longer than the server's frame limit is answered with an ERROR, and the connection is closed.
+//
+// CANCEL stops the request with its request ID, if it was not answered yet, and DEADLINE sets the time each of the
+// requests sent after it may take, counted from its arrival (including the time it waits in the server's queue).
+// neither is answered. the server handles CANCEL as soon as it arrives, ahead of the frames sent before it. a task
+// that is cancelled or runs past its deadline stops soon after (see CancellationToken) and is answered with an ERROR,
+// except for TASK2_STREAM, which ends with PATHS_END and the status CANCELLED or TIMED_OUT after the paths found so
+// far
+//
+// TASK2_STREAM is answered with a PATH frame for every path as soon as it is found, and then a single PATHS_END frame
+// (or an ERROR frame, which also ends the response)
+//
+// a matrix is rows (int), cols (int) and the bit-packed rows (see BitMatrix.writeTo),
+// an index is row (int), col (int), and an index list is count (int) followed by count packed (row, col) pairs.
+// path limits are max paths (int), max path length (int) and timeout in milliseconds (int), each 0 for unlimited
+//
+// ENCODINGS is answered with a COUNT of the encodings both sides support, which then apply to the request frames after
+// it and their responses, so a client waits for the answer before sending more. until then, and if the answer is 0,
+// the plain formats above are used:
+//   ENCODING_RUNS, ENCODING_SPARSE, ENCODING_DEFLATE - every matrix is written as format (byte), rows (int), cols
+//                              (int), then a body (see PayloadEncoding): the packed words of the rows (format 0), the
+//                              number of runs of 1's (var long) and for each run the 0's before it and its length (var
+//                              longs, row-major order, format 1), or the number of 1's (var long) and for each 1 the
+//                              0's before it (var long, row-major order, format 2).
+//                              if bit 0x80 of the format is set, the body is deflated and preceded by its length (int).
+//                              the writer may only use the formats that were negotiated (format 0 is always allowed),
+//                              and picks the smallest one for each matrix
+//   ENCODING_INDEX_DELTAS    - an index list is count (int), the first index, and then the difference of every other
+//                              index from the index before it: row and col zigzag var longs
+// var longs are unsigned LEB128, 7 bits per byte with the low bits first
+public final class BinaryProtocol {
+    // "MTXP" - cannot be confused with the 0xACED magic that starts a Java serialization stream
+    public static final int MAGIC = 0x4D545850;
+    public static final byte VERSION = 2;
+
+    // first two bytes of every ObjectOutputStream
+    static final int SERIALIZATION_MAGIC = 0xACED;
+
+    // opcode (byte) + request ID (int) + payload length (int)
+    static final int HEADER_LENGTH = 9;
+
+    // frames with a larger payload are rejected by the reader, and refused by the writer
+    public static final int MAX_PAYLOAD_LENGTH = 1 << 28;
+    // the first chunk a payload is read into - it doubles as more bytes arrive, so a frame only takes about as much
+    // memory as actually arrived of it, whatever length its header declares
+    private static final int PAYLOAD_CHUNK_LENGTH = 64 * 1024;
+
+    // request opcodes
+    public static final byte MATRIX = 1;
+    public static final byte START_INDEX = 2;
+    public static final byte END_INDEX = 3;
+    public static final byte ADJACENT_INDICES = 4;
+    public static final byte REACHABLES = 5;
+    public static final byte TASK1 = 6;
+    public static final byte TASK2 = 7;
+    public static final byte TASK3 = 8;
+    public static final byte TASK4 = 9;
+    public static final byte STOP = 10;
+    public static final byte TASK2_STREAM = 11;
+    public static final byte STORE_MATRIX = 12;
+    public static final byte USE_MATRIX = 13;
+    public static final byte RELEASE_MATRIX = 14;
+    public static final byte MAPPED_TASK = 15;
+    public static final byte SET_CELLS = 16;
+    public static final byte CANCEL = 17;
+    public static final byte DEADLINE = 18;
+    public static final byte ENCODINGS = 19;
+
+    // response opcodes
+    public static final byte INDICES = 64;
+    public static final byte INDEX_LISTS = 65;
+    public static final byte COUNT = 66;
+    public static final byte PATH = 67;
+    public static final byte PATHS_END = 68;
+    public static final byte HANDLE = 69;
+    public static final byte OK = 70;
+    public static final byte LONG_COUNT = 71;
+    public static final byte COMPONENT_COUNTS = 72;
+    public static final byte BUSY = 73;
+    public static final byte ERROR = 127;
+
+    // payload encodings, negotiated with ENCODINGS
+    public static final int ENCODING_RUNS = 1;
+    public static final int ENCODING_SPARSE = 2;
+    public static final int ENCODING_DEFLATE = 4;
+    public static final int ENCODING_INDEX_DELTAS = 8;
+    public static final int ENCODINGS_ALL = ENCODING_RUNS | ENCODING_SPARSE | ENCODING_DEFLATE | ENCODING_INDEX_DELTAS;
+
+    private BinaryProtocol() {
+    }
+
+    // the names of the request opcodes, indexed by opcode (as used in the server's metrics)
+    private static final String[] REQUEST_NAMES = {null, "matrix", "start_index", "end_index", "adjacent_indices",
+            "reachables", "task1", "task2", "task3", "task4", "stop", "task2_stream", "store_matrix", "use_matrix",
+            "release_matrix", "mapped_task", "set_cells", "cancel", "deadline", "encodings"};
+
+    // returns the name of a request opcode, or "unknown"
+    public static String requestName(byte opcode) {
+        return opcode > 0 && opcode < REQUEST_NAMES.length ? REQUEST_NAMES[opcode] : "unknown";
+    }
+
+    // returns the names of all request opcodes, in the order of their opcodes
+    public static List<String> requestNames() {
+        return Collections.unmodifiableList(Arrays.asList(REQUEST_NAMES).subList(1, REQUEST_NAMES.length));
+    }
+
+    // a single decoded frame
+    public static class Frame {
+        private final byte opcode;
+        private final int requestId;
+        private final byte[] payload;
+
+        public Frame(byte opcode, int requestId, byte[] payload) {
+            this.opcode = opcode;
+            this.requestId = requestId;
+            this.payload = payload;
+        }
+
+        public byte getOpcode() {
+            return opcode;
+        }
+
+        public int getRequestId() {
+            return requestId;
+        }
+
+        public int getPayloadLength() {
+            return payload.length;
+        }
+
+        public DataInputStream payload() {
+            return new DataInputStream(new ByteArrayInputStream(payload));
+        }
+    }
+
+    // builds the payload of a frame
+    public interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public static void writeHandshake(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.flush();
+    }
+
+    // throws IOException if the other side did not send a matching handshake
+    public static void readHandshake(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        byte version = in.readByte();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("unsupported protocol (magic " + Integer.toHexString(magic) + ", version " + version + ")");
+        }
+    }
+
+    // returns true if the stream starts with a Java serialization header rather than MAGIC
+    // the stream must support mark/reset - nothing is consumed
+    static boolean isSerializationStream(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first >= 0 && second >= 0 && ((first << 8) | second) == SERIALIZATION_MAGIC;
+    }
+
+    // returns the next frame, or null if the stream ended cleanly before a new frame started
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int opcode = in.read();
+        if (opcode < 0) {
+            return null;
+        }
+        int requestId = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("invalid frame length " + length);
+        }
+        return new Frame((byte) opcode, requestId, readPayload(in, length));
+    }
+
+    // reads a payload of the given length, growing the array as the bytes arrive instead of trusting the length
+    // throws EOFException if the stream ends first
+    private static byte[] readPayload(DataInputStream in, int length) throws IOException {
+        byte[] payload = new byte[Math.min(length, PAYLOAD_CHUNK_LENGTH)];
+        int read = 0;
+        while (read < length) {
+            if (read == payload.length) {
+                payload = Arrays.copyOf(payload, (int) Math.min(length, 2L * payload.length));
+            }
+            int chunk = in.read(payload, read, payload.length - read);
+            if (chunk < 0) {
+                throw new EOFException("the stream ended inside a frame");
+            }
+            read += chunk;
+        }
+        return payload;
+    }
+
+    public static void writeFrame(DataOutputStream out, byte opcode, int requestId, PayloadWriter payloadWriter)
+            throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        if (payloadWriter != null) {
+            payloadWriter.write(new DataOutputStream(payload));
+        }
+        if (payload.size() > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("a payload of " + payload.size() + " bytes is over the limit of " + MAX_PAYLOAD_LENGTH
+                    + " bytes");
+        }
+        out.writeByte(opcode);
+        out.writeInt(requestId);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        out.flush();
+    }
+
+    public static void writeBusy(DataOutputStream out, int requestId, int retryAfterMillis, int queuedRequests)
+            throws IOException {
+        writeFrame(out, BUSY, requestId, response -> {
+            response.writeInt(retryAfterMillis);
+            response.writeInt(queuedRequests);
+        });
+    }
+
+    public static void writeError(DataOutputStream out, int requestId, String message) throws IOException {
+        writeFrame(out, ERROR, requestId, response -> response.writeUTF(String.valueOf(message)));
+    }
+
+    public static void writeIndex(DataOutputStream out, Index index) throws IOException {
+        out.writeInt(index.getRow());
+        out.writeInt(index.getCol());
+    }
+
+    public static Index readIndex(DataInputStream in) throws IOException {
+        return new Index(in.readInt(), in.readInt());
+    }
+
+    public static void writeIndices(DataOutputStream out, Collection<Index> indices) throws IOException {
+        writeIndices(out, indices, 0);
+    }
+
+    // writes an index list in the negotiated encodings
+    public static void writeIndices(DataOutputStream out, Collection<Index> indices, int encodings)
+            throws IOException {
+        if ((encodings & ENCODING_INDEX_DELTAS) != 0) {
+            PayloadEncoding.writeIndexDeltas(out, indices);
+            return;
+        }
+        out.writeInt(indices.size());
+        for (Index index : indices) {
+            writeIndex(out, index);
+        }
+    }
+
+    public static List<Index> readIndices(DataInputStream in) throws IOException {
+        return readIndices(in, 0);
+    }
+
+    // reads an index list written in the negotiated encodings
+    public static List<Index> readIndices(DataInputStream in, int encodings) throws IOException {
+        if ((encodings & ENCODING_INDEX_DELTAS) != 0) {
+            // every index after the first takes at least 2 bytes
+            return PayloadEncoding.readIndexDeltas(in, readCount(in, 2));
+        }
+        int count = readCount(in, 8);
+        List<Index> indices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            indices.add(readIndex(in));
+        }
+        return indices;
+    }
+
+    public static void writeIndexLists(DataOutputStream out, Collection<? extends Collection<Index>> indexLists)
+            throws IOException {
+        writeIndexLists(out, indexLists, 0);
+    }
+
+    public static void writeIndexLists(DataOutputStream out, Collection<? extends Collection<Index>> indexLists,
+                                       int encodings) throws IOException {
+        out.writeInt(indexLists.size());
+        for (Collection<Index> indices : indexLists) {
+            writeIndices(out, indices, encodings);
+        }
+    }
+
+    public static List<List<Index>> readIndexLists(DataInputStream in) throws IOException {
+        return readIndexLists(in, 0);
+    }
+
+    public static List<List<Index>> readIndexLists(DataInputStream in, int encodings) throws IOException {
+        int count = readCount(in, 4);
+        List<List<Index>> indexLists = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            indexLists.add(readIndices(in, encodings));
+        }
+        return indexLists;
+    }
+
+    public static void writePathLimits(DataOutputStream out, PathLimits limits) throws IOException {
+        out.writeInt(limits.getMaxPaths());
+        out.writeInt(limits.getMaxLength());
+        out.writeInt((int) Math.min(limits.getTimeoutMillis(), Integer.MAX_VALUE));
+    }
+
+    // throws IOException if a limit is negative
+    public static PathLimits readPathLimits(DataInputStream in) throws IOException {
+        int maxPaths = in.readInt();
+        int maxLength = in.readInt();
+        int timeoutMillis = in.readInt();
+        if (maxPaths < 0 || maxLength < 0 || timeoutMillis < 0) {
+            throw new IOException("invalid path limits");
+        }
+        return new PathLimits(maxPaths, maxLength, timeoutMillis);
+    }
+
+    public static void writePathsEnd(DataOutputStream out, int requestId, int numPaths, PathSearchStatus status)
+            throws IOException {
+        writeFrame(out, PATHS_END, requestId, response -> {
+            response.writeInt(numPaths);
+            response.writeByte(status.ordinal());
+        });
+    }
+
+    public static PathSearchStatus readPathSearchStatus(DataInputStream in) throws IOException {
+        int status = in.readUnsignedByte();
+        if (status >= PathSearchStatus.values().length) {
+            throw new IOException("invalid path search status " + status);
+        }
+        return PathSearchStatus.values()[status];
+    }
+
+    public static void writeMatrix(DataOutputStream out, BitMatrix matrix) throws IOException {
+        matrix.writeTo(out);
+    }
+
+    // writes a matrix in the smallest of the negotiated encodings (see PayloadEncoding)
+    public static void writeMatrix(DataOutputStream out, BitMatrix matrix, int encodings) throws IOException {
+        if (encodings == 0) {
+            writeMatrix(out, matrix);
+            return;
+        }
+        PayloadEncoding.writeMatrix(out, matrix, encodings);
+    }
+
+    // the payload stream must be the one returned by Frame.payload()
+    public static BitMatrix readMatrix(DataInputStream in) throws IOException {
+        return BitMatrix.readFrom(in, in.available());
+    }
+
+    // reads a matrix written by writeMatrix with the same encodings
+    // the payload stream must be the one returned by Frame.payload(), and the matrix must be the rest of it
+    // throws IOException if the matrix has more than maxCells cells (0 for no limit), before allocating it
+    public static BitMatrix readMatrix(DataInputStream in, int encodings, long maxCells) throws IOException {
+        if (encodings != 0) {
+            return PayloadEncoding.readMatrix(in, maxCells);
+        }
+        // the payload stream is backed by an array, so the dimensions can be read ahead
+        in.mark(8);
+        int numRows = in.readInt();
+        int numCols = in.readInt();
+        in.reset();
+        checkMatrixCells(numRows, numCols, maxCells);
+        return readMatrix(in);
+    }
+
+    // throws IOException if a matrix of the given dimensions has more than maxCells cells (0 for no limit)
+    static void checkMatrixCells(int numRows, int numCols, long maxCells) throws IOException {
+        if (maxCells > 0 && (long) numRows * numCols > maxCells) {
+            throw new IOException("a matrix of " + numRows + "x" + numCols + " cells is over the limit of " + maxCells
+                    + " cells");
+        }
+    }
+
+    // the number of bytes before the dimensions of a matrix written with the encodings
+    static int matrixHeaderOffset(int encodings) {
+        return encodings == 0 ? 0 : 1;
+    }
+
+    // reads a count of elements that each take at least elementSize bytes, rejecting counts the remaining payload
+    // can't hold (so a bogus count can't trigger a huge allocation)
+    private static int readCount(DataInputStream in, int elementSize) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || (long) count * elementSize > in.available()) {
+            throw new IOException("invalid element count " + count);
+        }
+        return count;
+    }
+}
@@ -1,125 +1,477 @@
 package il.ac.hit.project.tcpserver;
 
+import il.ac.hit.project.algorithms.BitMatrix;
 import il.ac.hit.project.algorithms.Index;
+import il.ac.hit.project.algorithms.PathLimits;
+import il.ac.hit.project.algorithms.PathSearchStatus;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
-public class Client {
-    public static void main(String[] args) throws IOException, ClassNotFoundException {
-        Socket socket =new Socket("127.0.0.1",8010);
-        System.out.println("client::Socket");
-
-        InputStream inputStream = socket.getInputStream();
-        OutputStream outputStream = socket.getOutputStream();
-        ObjectOutputStream toServer=new ObjectOutputStream(outputStream);
-        ObjectInputStream fromServer=new ObjectInputStream(inputStream);
-
-        // sending #1 matrix
-        int[][] source = {
-                {0, 1, 0},
-                {1, 0, 1},
-                {1, 0, 1}
-        };
-        toServer.writeObject("matrix");
-        toServer.writeObject(source);
-
-        // sending #3 index for getAdjacentIndices
-        toServer.writeObject("AdjacentIndices");
-        toServer.writeObject(new Index(1,1));
-        // receiving #1 getAdjacentIndices
-        Collection<Index> AdjacentIndices =
-                new ArrayList<Index>((Collection<Index>) fromServer.readObject());
-        System.out.println("client::getAdjacentIndices:: "+ AdjacentIndices);
-
-        // sending #4 index for getReachables
-        toServer.writeObject("Reachables");
-
-        toServer.writeObject(new Index(1,1));
-        // receiving #2 getReachables
-        Collection<Index> ReachablesIndices =
-                new ArrayList<Index>((Collection<Index>) fromServer.readObject());
-        System.out.println("client::ReachablesIndices:: "+ ReachablesIndices);
-
-        //****************** Task1******************************************
-        toServer.writeObject("Task1");
-        Collection<Index> res1 =
-                new ArrayList<Index>((Collection<Index>) fromServer.readObject());
-        System.out.println("client::Task1:: "+ res1);
-//***********************END TASK1******************************************************
-
-//*** ****************** Task2**********************************************************/
-        int[][] matrix1 = new int[][] {
-                {1, 0, 1, 1},
-                {0, 1, 0, 1},
-                {1, 1, 1, 1}
-        };
-        int[][] matrix2= new int[][] {
-                {1, 0, 0, 1, 0},
-                {0, 1, 0, 0, 1},
-                {1, 0, 1, 1, 1}
-        };
-
-        int[][] matrix3 = new int[][] {
-                {1, 0, 1 },
-                {1, 0, 1},
-                {0, 1, 1}
-        };
-
-        toServer.writeObject("start Index");
-        toServer.writeObject(new Index(2, 2));
-
-        toServer.writeObject("end Index");
-        toServer.writeObject(new Index(0, 0));
-
-        toServer.writeObject("Task2");
-        toServer.writeObject(matrix3);
-
-        Collection<Index> res2 =
-                new ArrayList<Index>((Collection<Index>) fromServer.readObject());
-        System.out.println("client::Task2:: "+ res2);
-//**************************END TASK2******************************************************
-
-//**************************Task3**********************************************************
-    int[][] matrix4 = new int[][] {
-                {1, 0, 1, 1},
-                {0, 1, 0, 1},
-                {1, 1, 1, 1}
-        };
-        toServer.writeObject("start Index");
-        toServer.writeObject(new Index(0, 0));
-
-        toServer.writeObject("end Index");
-        toServer.writeObject(new Index(1, 3));
-
-
-        toServer.writeObject("Task3");
-        toServer.writeObject(matrix4);
-        Collection<Index> res3 =
-                new ArrayList<Index>((Collection<Index>) fromServer.readObject());
-        System.out.println("client::Task3:: "+ res3);
-
-//**************************END TASK3*******************************************************
-
-// **************************Task4**********************************************************
-        int[][] matrix5 = new int[][] {
-                {1, 0, 0, 1, 1, 0, 0},
-                {1, 0, 0, 1, 1, 0, 1},
-                {0, 0, 0, 1, 1, 1, 1}
-        };
-        toServer.writeObject("Task4");
-        toServer.writeObject(matrix5);
-        Integer numOfSubmarines=(Integer) fromServer.readObject();
-        System.out.println("client::Task4:: "+ numOfSubmarines);
-//***************************End TASK4******************************************************
-        toServer.writeObject("stop");
-
-        System.out.println("client::Close all streams!!!!");
-        fromServer.close();
-        toServer.close();
-        socket.close();
+// client speaking BinaryProtocol with a MatrixIHandler server.
+// requests are pipelined: every request method sends its frame and returns right away with a future, which is
+// completed when the response carrying the request's ID arrives (responses may arrive in any order).
+// a request the server is too busy to accept fails with a ServerBusyException (wrapped in a CompletionException), and
+// can be sent again after its retry delay.
+// a request still waiting for its response can be cancelled, and a deadline can be set for the requests that follow -
+// a task that is cancelled or misses its deadline fails with a server error (a streamed task2 completes with the
+// status CANCELLED or TIMED_OUT instead).
+// right after connecting, the client negotiates the payload encodings it asks for (see BinaryProtocol.ENCODINGS), so
+// matrices are sent in the smallest encoding the server accepts, and index lists are received as deltas.
+// the methods may be called from any thread
+public class Client implements Closeable {
+    // the encodings asked for by default - deflate trades CPU time on both sides for bandwidth, so it is only used
+    // when asked for
+    public static final int DEFAULT_ENCODINGS =
+            BinaryProtocol.ENCODING_RUNS | BinaryProtocol.ENCODING_SPARSE | BinaryProtocol.ENCODING_INDEX_DELTAS;
+
+    private final Socket socket;
+    private final DataInputStream fromServer;
+    private final DataOutputStream toServer;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    // requests waiting for a response, keyed by request ID
+    private final Map<Integer, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final Thread responseReader;
+    // set by the response reader once the connection is closed
+    private volatile IOException connectionFailure;
+    // the payload encodings the server accepted
+    private final int encodings;
+
+    public Client(String host, int port) throws IOException {
+        this(host, port, DEFAULT_ENCODINGS);
+    }
+
+    // encodings are the BinaryProtocol.ENCODING_* bits to ask for (0 for the plain formats)
+    public Client(String host, int port, int encodings) throws IOException {
+        socket = new Socket(host, port);
+        try {
+            // every frame is flushed as soon as it is written, see TcpServer
+            socket.setTcpNoDelay(true);
+            fromServer = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            toServer = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            BinaryProtocol.writeHandshake(toServer);
+            BinaryProtocol.readHandshake(fromServer);
+            this.encodings = encodings == 0 ? 0 : negotiateEncodings(encodings);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        responseReader = new Thread(this::readResponses, "client-response-reader");
+        responseReader.setDaemon(true);
+        responseReader.start();
+    }
+
+    // sends ENCODINGS and waits for its answer, before anything else is sent or the response reader starts
+    // returns the encodings the server accepted (0 if it doesn't know ENCODINGS)
+    private int negotiateEncodings(int requested) throws IOException {
+        int requestId = nextRequestId();
+        BinaryProtocol.writeFrame(toServer, BinaryProtocol.ENCODINGS, requestId, out -> out.writeInt(requested));
+        BinaryProtocol.Frame frame = BinaryProtocol.readFrame(fromServer);
+        if (frame == null) {
+            throw new EOFException("server closed the connection");
+        }
+        if (frame.getOpcode() == BinaryProtocol.BUSY) {
+            // the server rejected the connection (request ID 0), or the request
+            throw readBusy(frame);
+        }
+        if (frame.getRequestId() != requestId) {
+            throw new IOException("unexpected response to request " + frame.getRequestId());
+        }
+        if (frame.getOpcode() == BinaryProtocol.ERROR) {
+            return 0;
+        }
+        return decode(frame, BinaryProtocol.COUNT, DataInputStream::readInt) & requested;
+    }
+
+    // the payload encodings the server accepted (BinaryProtocol.ENCODING_* bits)
+    public int getEncodings() {
+        return encodings;
+    }
+
+    public void sendMatrix(int[][] matrix) throws IOException {
+        sendMatrix(BitMatrix.fromArray(matrix));
+    }
+
+    public void sendMatrix(BitMatrix matrix) throws IOException {
+        send(BinaryProtocol.MATRIX, nextRequestId(), out -> BinaryProtocol.writeMatrix(out, matrix, encodings));
+    }
+
+    public void sendStartIndex(Index start) throws IOException {
+        send(BinaryProtocol.START_INDEX, nextRequestId(), out -> BinaryProtocol.writeIndex(out, start));
+    }
+
+    public void sendEndIndex(Index end) throws IOException {
+        send(BinaryProtocol.END_INDEX, nextRequestId(), out -> BinaryProtocol.writeIndex(out, end));
+    }
+
+    public CompletableFuture<List<Index>> getAdjacentIndices(Index index) throws IOException {
+        return request(BinaryProtocol.ADJACENT_INDICES, out -> BinaryProtocol.writeIndex(out, index))
+                .thenApply(frame -> decode(frame, BinaryProtocol.INDICES, this::readIndices));
+    }
+
+    public CompletableFuture<List<Index>> getReachables(Index index) throws IOException {
+        return request(BinaryProtocol.REACHABLES, out -> BinaryProtocol.writeIndex(out, index))
+                .thenApply(frame -> decode(frame, BinaryProtocol.INDICES, this::readIndices));
+    }
+
+    // stores the matrix on the server, and returns a handle any connection can use to refer to it
+    public CompletableFuture<Long> storeMatrix(int[][] matrix) throws IOException {
+        return storeMatrix(BitMatrix.fromArray(matrix));
+    }
+
+    public CompletableFuture<Long> storeMatrix(BitMatrix matrix) throws IOException {
+        return request(BinaryProtocol.STORE_MATRIX, out -> BinaryProtocol.writeMatrix(out, matrix, encodings))
+                .thenApply(frame -> decode(frame, BinaryProtocol.HANDLE, DataInputStream::readLong));
+    }
+
+    // makes the stored matrix the current matrix of the connection, as if it was sent again
+    // the future fails if the handle is unknown (it was released or evicted), and the connection has no matrix then
+    public CompletableFuture<Void> useMatrix(long handle) throws IOException {
+        return request(BinaryProtocol.USE_MATRIX, out -> out.writeLong(handle))
+                .thenApply(frame -> decode(frame, BinaryProtocol.OK, in -> null));
+    }
+
+    // removes the stored matrix from the server - returns true if the handle was known
+    public CompletableFuture<Boolean> releaseMatrix(long handle) throws IOException {
+        return request(BinaryProtocol.RELEASE_MATRIX, out -> out.writeLong(handle))
+                .thenApply(frame -> decode(frame, BinaryProtocol.COUNT, in -> in.readInt() != 0));
+    }
+
+    // sets a cell of a stored matrix, and returns the counts of the edited matrix
+    // connections (including this one) see the edit after their next useMatrix
+    public CompletableFuture<ComponentCounts> setCell(long handle, Index cell, boolean value) throws IOException {
+        return setCells(handle, Collections.singletonList(cell), value);
+    }
+
+    // sets cells of a stored matrix to the same value, and returns the counts of the edited matrix
+    // nothing is set if one of the cells is out of bounds
+    public CompletableFuture<ComponentCounts> setCells(long handle, Collection<Index> cells, boolean value)
+            throws IOException {
+        return request(BinaryProtocol.SET_CELLS, out -> {
+                    out.writeLong(handle);
+                    out.writeInt(cells.size());
+                    for (Index cell : cells) {
+                        out.writeInt(cell.getRow());
+                        out.writeInt(cell.getCol());
+                        out.writeByte(value ? 1 : 0);
+                    }
+                })
+                .thenApply(frame -> decode(frame, BinaryProtocol.COMPONENT_COUNTS,
+                        in -> new ComponentCounts(in.readInt(), in.readInt())));
+    }
+
+    // connected components of the last matrix sent
+    public CompletableFuture<List<List<Index>>> task1() throws IOException {
+        return request(BinaryProtocol.TASK1, null)
+                .thenApply(frame -> decode(frame, BinaryProtocol.INDEX_LISTS, this::readIndexLists));
+    }
+
+    // all paths between the start and end indices sent, in the given matrix (or the last matrix sent if null)
+    public CompletableFuture<List<List<Index>>> task2(int[][] matrix) throws IOException {
+        return request(BinaryProtocol.TASK2, taskPayload(matrix))
+                .thenApply(frame -> decode(frame, BinaryProtocol.INDEX_LISTS, this::readIndexLists));
+    }
+
+    // all paths between the start and end indices sent, in the given matrix (or the last matrix sent if null), found
+    // within the given limits. the server streams the paths: each one is passed to pathConsumer (on the response reader
+    // thread) as soon as it arrives, in the order the server found them.
+    // the future is completed with the way the search ended, after the last path was passed to pathConsumer
+    public CompletableFuture<PathSearchStatus> task2(int[][] matrix, PathLimits limits,
+                                                     Consumer<List<Index>> pathConsumer) throws IOException {
+        BinaryProtocol.PayloadWriter matrixPayload = taskPayload(matrix);
+        return request(BinaryProtocol.TASK2_STREAM, out -> {
+                    BinaryProtocol.writePathLimits(out, limits);
+                    if (matrixPayload != null) {
+                        matrixPayload.write(out);
+                    }
+                },
+                frame -> pathConsumer.accept(decode(frame, BinaryProtocol.PATH, this::readIndices)))
+                .thenApply(frame -> decode(frame, BinaryProtocol.PATHS_END, in -> {
+                    in.readInt();
+                    return BinaryProtocol.readPathSearchStatus(in);
+                }));
+    }
+
+    // shortest paths between the start and end indices sent, in the given matrix (or the last matrix sent if null)
+    public CompletableFuture<List<List<Index>>> task3(int[][] matrix) throws IOException {
+        return request(BinaryProtocol.TASK3, taskPayload(matrix))
+                .thenApply(frame -> decode(frame, BinaryProtocol.INDEX_LISTS, this::readIndexLists));
+    }
+
+    // number of submarines in the given matrix (or the last matrix sent if null)
+    public CompletableFuture<Integer> task4(int[][] matrix) throws IOException {
+        return request(BinaryProtocol.TASK4, taskPayload(matrix))
+                .thenApply(frame -> decode(frame, BinaryProtocol.COUNT, DataInputStream::readInt));
+    }
+
+    // number of connected components of a matrix file in the server's mapped matrix directory
+    public CompletableFuture<Long> mappedTask1(String fileName) throws IOException {
+        return mappedTask(BinaryProtocol.TASK1, fileName, null, null);
+    }
+
+    // number of indices on a shortest path between start and end (-1 if there is none), in a matrix file in the
+    // server's mapped matrix directory
+    public CompletableFuture<Long> mappedTask3(String fileName, Index start, Index end) throws IOException {
+        return mappedTask(BinaryProtocol.TASK3, fileName, start, end);
+    }
+
+    // number of submarines in a matrix file in the server's mapped matrix directory
+    public CompletableFuture<Long> mappedTask4(String fileName) throws IOException {
+        return mappedTask(BinaryProtocol.TASK4, fileName, null, null);
+    }
+
+    private CompletableFuture<Long> mappedTask(byte task, String fileName, Index start, Index end)
+            throws IOException {
+        return request(BinaryProtocol.MAPPED_TASK, out -> {
+                    out.writeByte(task);
+                    out.writeUTF(fileName);
+                    if (task == BinaryProtocol.TASK3) {
+                        BinaryProtocol.writeIndex(out, start);
+                        BinaryProtocol.writeIndex(out, end);
+                    }
+                })
+                .thenApply(frame -> decode(frame, BinaryProtocol.LONG_COUNT, DataInputStream::readLong));
+    }
+
+    // returns the IDs of the requests still waiting for a response
+    public Set<Integer> getPendingRequestIds() {
+        return pendingRequests.keySet();
+    }
+
+    // asks the server to stop the request with the given ID (see getPendingRequestIds)
+    // its future still completes, once the server answered the request
+    public void cancel(int requestId) throws IOException {
+        send(BinaryProtocol.CANCEL, requestId, null);
+    }
+
+    // asks the server to stop every request still waiting for a response
+    public void cancelAll() throws IOException {
+        for (Integer requestId : pendingRequests.keySet()) {
+            cancel(requestId);
+        }
+    }
+
+    // sets the time the server may take for each of the requests sent after this (0 for no deadline)
+    public void setDeadline(int deadlineMillis) throws IOException {
+        if (deadlineMillis < 0) {
+            throw new IllegalArgumentException("deadlineMillis must not be negative");
+        }
+        send(BinaryProtocol.DEADLINE, nextRequestId(), out -> out.writeInt(deadlineMillis));
+    }
+
+    private int nextRequestId() {
+        return nextRequestId.incrementAndGet();
+    }
+
+    private BinaryProtocol.PayloadWriter taskPayload(int[][] matrix) {
+        return matrix == null ? null
+                : out -> BinaryProtocol.writeMatrix(out, BitMatrix.fromArray(matrix), encodings);
+    }
+
+    // sends a request frame and returns a future completed with its response frame
+    private CompletableFuture<BinaryProtocol.Frame> request(byte opcode, BinaryProtocol.PayloadWriter payloadWriter)
+            throws IOException {
+        return request(opcode, payloadWriter, null);
+    }
+
+    // same as request(byte, PayloadWriter), but the PATH frames of the response are passed to pathListener, and the
+    // future is completed with the frame that follows them
+    private CompletableFuture<BinaryProtocol.Frame> request(byte opcode, BinaryProtocol.PayloadWriter payloadWriter,
+                                                           Consumer<BinaryProtocol.Frame> pathListener)
+            throws IOException {
+        int requestId = nextRequestId();
+        PendingRequest pendingRequest = new PendingRequest(pathListener);
+        pendingRequests.put(requestId, pendingRequest);
+        try {
+            if (connectionFailure != null) {
+                throw connectionFailure;
+            }
+            send(opcode, requestId, payloadWriter);
+        } catch (IOException e) {
+            pendingRequests.remove(requestId);
+            throw e;
+        }
+        return pendingRequest.response;
+    }
+
+    private void send(byte opcode, int requestId, BinaryProtocol.PayloadWriter payloadWriter) throws IOException {
+        synchronized (toServer) {
+            BinaryProtocol.writeFrame(toServer, opcode, requestId, payloadWriter);
+        }
+    }
+
+    // runs on the response reader thread until the connection is closed
+    private void readResponses() {
+        IOException failure = null;
+        try {
+            BinaryProtocol.Frame frame;
+            while ((frame = BinaryProtocol.readFrame(fromServer)) != null) {
+                if (frame.getRequestId() == 0 && frame.getOpcode() == BinaryProtocol.BUSY) {
+                    // the server rejected the connection, and closes it
+                    throw readBusy(frame);
+                }
+                PendingRequest pendingRequest = pendingRequests.get(frame.getRequestId());
+                if (pendingRequest == null) {
+                    continue;
+                }
+                if (frame.getOpcode() == BinaryProtocol.PATH && pendingRequest.pathListener != null) {
+                    try {
+                        pendingRequest.pathListener.accept(frame);
+                    } catch (RuntimeException e) {
+                        // the rest of the response is ignored
+                        pendingRequests.remove(frame.getRequestId());
+                        pendingRequest.response.completeExceptionally(e);
+                    }
+                    continue;
+                }
+                pendingRequests.remove(frame.getRequestId());
+                pendingRequest.response.complete(frame);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        // fail whatever is still waiting
+        IOException closed = failure != null ? failure : new EOFException("server closed the connection");
+        connectionFailure = closed;
+        for (Integer requestId : pendingRequests.keySet()) {
+            PendingRequest pendingRequest = pendingRequests.remove(requestId);
+            if (pendingRequest != null) {
+                pendingRequest.response.completeExceptionally(closed);
+            }
+        }
+    }
+
+    private static class PendingRequest {
+        final CompletableFuture<BinaryProtocol.Frame> response = new CompletableFuture<>();
+        // receives the PATH frames of a streamed response (null if the request isn't streamed)
+        final Consumer<BinaryProtocol.Frame> pathListener;
+
+        PendingRequest(Consumer<BinaryProtocol.Frame> pathListener) {
+            this.pathListener = pathListener;
+        }
+    }
+
+    private List<Index> readIndices(DataInputStream in) throws IOException {
+        return BinaryProtocol.readIndices(in, encodings);
+    }
+
+    private List<List<Index>> readIndexLists(DataInputStream in) throws IOException {
+        return BinaryProtocol.readIndexLists(in, encodings);
+    }
+
+    private interface PayloadReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    // decodes a response payload
+    // throws CompletionException if the server answered with an error or an unexpected frame
+    private static <T> T decode(BinaryProtocol.Frame frame, byte expectedOpcode, PayloadReader<T> reader) {
+        try {
+            if (frame.getOpcode() == BinaryProtocol.ERROR) {
+                throw new IOException("server error: " + frame.payload().readUTF());
+            }
+            if (frame.getOpcode() == BinaryProtocol.BUSY) {
+                throw readBusy(frame);
+            }
+            if (frame.getOpcode() != expectedOpcode) {
+                throw new IOException("unexpected response opcode " + frame.getOpcode());
+            }
+            return reader.read(frame.payload());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static ServerBusyException readBusy(BinaryProtocol.Frame frame) throws IOException {
+        DataInputStream payload = frame.payload();
+        return new ServerBusyException(payload.readInt(), payload.readInt());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            send(BinaryProtocol.STOP, nextRequestId(), null);
+            // the server closes the connection after answering everything sent before STOP
+            responseReader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            socket.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (Client client = new Client("127.0.0.1", 8010)) {
+            System.out.println("client::Socket");
+
+            // sending #1 matrix
+            int[][] source = {
+                    {0, 1, 0},
+                    {1, 0, 1},
+                    {1, 0, 1}
+            };
+            client.sendMatrix(source);
+
+            // all requests are pipelined - responses are printed as they arrive
+            client.getAdjacentIndices(new Index(1, 1))
+                    .thenAccept(res -> System.out.println("client::getAdjacentIndices:: " + res));
+            client.getReachables(new Index(1, 1))
+                    .thenAccept(res -> System.out.println("client::ReachablesIndices:: " + res));
+
+            //****************** Task1******************************************
+            CompletableFuture<Void> task1 = client.task1()
+                    .thenAccept(res -> System.out.println("client::Task1:: " + res));
+
+            //****************** Task2******************************************
+            int[][] matrix3 = new int[][] {
+                    {1, 0, 1},
+                    {1, 0, 1},
+                    {0, 1, 1}
+            };
+            client.sendStartIndex(new Index(2, 2));
+            client.sendEndIndex(new Index(0, 0));
+            CompletableFuture<Void> task2 = client.task2(matrix3)
+                    .thenAccept(res -> System.out.println("client::Task2:: " + res));
+            // the same paths streamed one by one, at most 10 of them
+            CompletableFuture<Void> task2Stream = client.task2(matrix3, new PathLimits(10, 0, 1000),
+                    path -> System.out.println("client::Task2 path:: " + path))
+                    .thenAccept(status -> System.out.println("client::Task2 stream:: " + status));
+
+            //****************** Task3******************************************
+            int[][] matrix4 = new int[][] {
+                    {1, 0, 1, 1},
+                    {0, 1, 0, 1},
+                    {1, 1, 1, 1}
+            };
+            client.sendStartIndex(new Index(0, 0));
+            client.sendEndIndex(new Index(1, 3));
+            CompletableFuture<Void> task3 = client.task3(matrix4)
+                    .thenAccept(res -> System.out.println("client::Task3:: " + res));
+
+            //****************** Task4******************************************
+            int[][] matrix5 = new int[][] {
+                    {1, 0, 0, 1, 1, 0, 1},
+                    {1, 0, 0, 1, 1, 0, 1},
+                    {0, 0, 0, 1, 1, 0, 0}
+            };
+            CompletableFuture<Void> task4 = client.task4(matrix5)
+                    .thenAccept(res -> System.out.println("client::Task4:: " + res));
+
+            CompletableFuture.allOf(task1, task2, task2Stream, task3, task4).join();
+        }
         System.out.println("client::Close socket!!!!");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package il.ac.hit.project.tcpserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// the metrics of a single BinaryProtocol request opcode, kept by TcpServer.
+// a request is counted once its response was written (or it was rejected), and its latency runs from the time its
+// frame was read until then - so it includes the time the request waited for the connection and the compute pool.
+// thread safe
+public class CommandMetrics {
+    private final String name;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+    private final StripedHistogram latencyMicros = new StripedHistogram();
+
+    CommandMetrics(String name) {
+        this.name = name;
+    }
+
+    // error is true if the request failed, or was answered with an ERROR frame
+    void requestDone(long latencyNanos, boolean error) {
+        requests.increment();
+        if (error) {
+            errors.increment();
+        }
+        latencyMicros.record(latencyNanos / 1000);
+    }
+
+    // the request was answered with BUSY
+    void requestRejected() {
+        requests.increment();
+        busy.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // number of requests answered, including failed and rejected ones
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getBusy() {
+        return busy.sum();
+    }
+
+    // latencies of the requests that were not rejected
+    public StripedHistogram getLatencyMicros() {
+        return latencyMicros;
+    }
+}
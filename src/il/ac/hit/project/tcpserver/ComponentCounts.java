@@ -0,0 +1,34 @@
+package il.ac.hit.project.tcpserver;
+
+// the state of a stored matrix after its cells were set (see Client.setCells)
+public class ComponentCounts {
+    private final int componentCount;
+    private final int submarineCount;
+
+    public ComponentCounts(int componentCount, int submarineCount) {
+        this.componentCount = componentCount;
+        this.submarineCount = submarineCount;
+    }
+
+    // number of connected components (task 1)
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    // number of submarines (task 4), or -1 if the matrix is not a valid submarine game matrix
+    public int getSubmarineCount() {
+        return submarineCount;
+    }
+
+    public boolean isValidSubmarineMatrix() {
+        return submarineCount >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ComponentCounts{" +
+                "componentCount=" + componentCount +
+                ", submarineCount=" + submarineCount +
+                '}';
+    }
+}
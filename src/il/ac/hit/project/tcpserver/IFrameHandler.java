@@ -0,0 +1,100 @@
+package il.ac.hit.project.tcpserver;
+
+import il.ac.hit.project.part1.TaskType;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// a handler for connections speaking BinaryProtocol, driven one frame at a time
+// (so TcpServer can keep idle connections in its selector instead of parking a thread on each of them)
+public interface IFrameHandler {
+    // returns the state of a new connection, after its handshake was accepted
+    Session openSession();
+
+    // returns the state of a new connection of a server with the given limits
+    default Session openSession(ServerLimits limits) {
+        return openSession();
+    }
+
+    // the number of threads of its own the handler's requests keep busy while they run (e.g. a pool they hand their
+    // work to and wait for) - the server runs that many fewer compute threads, so together they don't use more
+    // threads than there are cores
+    default int getWorkerThreads() {
+        return 0;
+    }
+
+    interface Session {
+        // called for the request frames of the connection in the order they arrived, one at a time.
+        // applies any state the frame carries, and returns the work answering the frame (null if the frame needs no
+        // response). the returned requests may run concurrently with each other, so they must not depend on session
+        // state that later frames change
+        Request handleFrame(BinaryProtocol.Frame frame) throws IOException;
+
+        // the estimated cost of handling the frame itself (e.g. decoding a matrix it carries), in the units of
+        // Request.getCost. called right before handleFrame - a frame that costs anything is only handled once the
+        // server admitted its cost, which is held until handleFrame returns
+        default long getFrameCost(BinaryProtocol.Frame frame) throws IOException {
+            return 0;
+        }
+
+        // called instead of handleFrame for a frame the server is too busy for, which is answered with BUSY. the
+        // session should drop the state the frame would have replaced, so later requests don't run on stale state
+        default void frameRejected(BinaryProtocol.Frame frame) {
+        }
+
+        // stops the request with the given ID (see BinaryProtocol.CANCEL), if it is running or waiting to run.
+        // called as soon as the CANCEL frame arrives, on any thread and possibly while another frame is handled
+        default void cancel(int requestId) {
+        }
+    }
+
+    interface Request {
+        // writes the response frames, tagged with the ID of the request frame, to out
+        void respond(DataOutputStream out) throws IOException;
+
+        // the priority the request runs with - IO requests are cheap, and go ahead of queued COMPUTATIONAL ones
+        default TaskType getTaskType() {
+            return TaskType.UNKNOWN;
+        }
+
+        // the estimated cost of running the request, in the units of ServerLimits.getMaxInFlightCost - roughly the
+        // number of matrix cells it processes
+        default long getCost() {
+            return 1;
+        }
+
+        // called instead of respond if the request will not run (e.g. the server is too busy for it)
+        default void discard() {
+        }
+
+        // returns the request, running with the given priority
+        static Request withTaskType(TaskType taskType, Request request) {
+            return withTaskType(taskType, 1, request);
+        }
+
+        // returns the request, running with the given priority and estimated cost
+        static Request withTaskType(TaskType taskType, long cost, Request request) {
+            return new Request() {
+                @Override
+                public void respond(DataOutputStream out) throws IOException {
+                    request.respond(out);
+                }
+
+                @Override
+                public void discard() {
+                    request.discard();
+                }
+
+                @Override
+                public TaskType getTaskType() {
+                    return taskType;
+                }
+
+                @Override
+                public long getCost() {
+                    return cost;
+                }
+            };
+        }
+    }
+}
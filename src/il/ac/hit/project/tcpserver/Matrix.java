@@ -1,74 +1,108 @@
 package il.ac.hit.project.tcpserver;
 
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.Connectivity;
 import il.ac.hit.project.algorithms.Index;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.stream.Collectors;
 
+// serialized in the form of the original class (an int[][] primitiveMatrix field), with its UID, so serialized
+// peers built against it can still exchange matrices
 public class Matrix implements Serializable {
-    int[][] primitiveMatrix;
+    private static final long serialVersionUID = 7953149022516163497L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("primitiveMatrix", int[][].class)
+    };
 
+    // the cells are stored bit-packed (one bit per cell)
+    transient BitMatrix bitMatrix;
+
+    // legacy int[][] matrices are converted once into the packed representation
     public Matrix(int[][] oArray){
-        primitiveMatrix = Arrays
-                .stream(oArray)
-                .map(row -> row.clone())
-                .toArray(value -> new int[value][]);
+        bitMatrix = BitMatrix.fromArray(oArray);
+    }
+
+    public Matrix(BitMatrix bitMatrix){
+        this(bitMatrix, true);
     }
+
+    // copy=false takes over a matrix nothing else refers to (e.g. one just decoded), instead of copying it
+    Matrix(BitMatrix bitMatrix, boolean copy) {
+        this.bitMatrix = copy ? bitMatrix.copy() : bitMatrix;
+    }
+
     public void printMatrix(){
-        for (int[] row : primitiveMatrix) {
-            String s = Arrays.toString(row);
-            System.out.println(s);
-        }
+        System.out.print(bitMatrix);
     }
 
+    // returns a new int[][] copy of the matrix
     public final int[][] getPrimitiveMatrix() {
-        return primitiveMatrix;
+        return bitMatrix.toArray();
+    }
+
+    public final BitMatrix getBitMatrix() {
+        return bitMatrix;
     }
 
     @Override
     public String toString(){
-        StringBuilder stringBuilder = new StringBuilder();
-        for (int[] row : primitiveMatrix) {
-            stringBuilder.append(Arrays.toString(row));
-            stringBuilder.append("\n");
-        }
-        return stringBuilder.toString();
+        return bitMatrix.toString();
+    }
+
+    // calls the visitor for every neighbour of the index inside the matrix, in Connectivity order
+    public void forEachAdjacent(Index index, Connectivity connectivity, BitMatrix.NeighbourVisitor visitor) {
+        bitMatrix.forEachNeighbour(index.row, index.col, connectivity, visitor);
     }
 
+    // calls the visitor for every neighbour of the index inside the matrix that contains 1, in Connectivity order
+    public void forEachReachable(Index index, Connectivity connectivity, BitMatrix.NeighbourVisitor visitor) {
+        bitMatrix.forEachReachable(index.row, index.col, connectivity, visitor);
+    }
+
+    // returns the 4 neighbours of the index inside the matrix (down, right, up, left)
     public Collection<Index> getAdjacentIndices(final Index index){
-        Collection<Index> list = new ArrayList<>();
-        int extracted = -1;
-        try{
-            extracted = primitiveMatrix[index.row+1][index.col];
-            list.add(new Index(index.row+1,index.col));
-        }catch (ArrayIndexOutOfBoundsException ignored){}
-        try{
-            extracted = primitiveMatrix[index.row][index.col+1];
-            list.add(new Index(index.row,index.col+1));
-        }catch (ArrayIndexOutOfBoundsException ignored){}
-        try{
-            extracted = primitiveMatrix[index.row-1][index.col];
-            list.add(new Index(index.row-1,index.col));
-        }catch (ArrayIndexOutOfBoundsException ignored){}
-        try{
-            extracted = primitiveMatrix[index.row][index.col-1];
-            list.add(new Index(index.row,index.col-1));
-        }catch (ArrayIndexOutOfBoundsException ignored){}
+        return getAdjacentIndices(index, Connectivity.FOUR);
+    }
+
+    public Collection<Index> getAdjacentIndices(Index index, Connectivity connectivity) {
+        Collection<Index> list = new ArrayList<>(connectivity.numNeighbours());
+        forEachAdjacent(index, connectivity, (row, col) -> list.add(new Index(row, col)));
         return list;
     }
 
     public int getValue(Index index) {
-        return primitiveMatrix[index.row][index.col];
+        return bitMatrix.getValue(index.row, index.col);
     }
 
+    // returns the 4 neighbours of the index inside the matrix that contain 1 (down, right, up, left)
     public Collection<Index> getReachables(Index index) {
-        ArrayList<Index> filteredIndices = new ArrayList<>();
-        this.getAdjacentIndices(index).stream().filter(i-> getValue(i)==1)
-                .map(neighbor->filteredIndices.add(neighbor)).collect(Collectors.toList());
-        return filteredIndices;
+        return getReachables(index, Connectivity.FOUR);
+    }
+
+    public Collection<Index> getReachables(Index index, Connectivity connectivity) {
+        Collection<Index> list = new ArrayList<>(connectivity.numNeighbours());
+        forEachReachable(index, connectivity, (row, col) -> list.add(new Index(row, col)));
+        return list;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("primitiveMatrix", bitMatrix.toArray());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int[][] primitiveMatrix = (int[][]) in.readFields().get("primitiveMatrix", null);
+        if (primitiveMatrix == null) {
+            throw new InvalidObjectException("missing primitiveMatrix");
+        }
+        bitMatrix = BitMatrix.fromArray(primitiveMatrix);
     }
 
     public static void main(String[] args) {
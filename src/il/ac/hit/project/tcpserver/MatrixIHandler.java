@@ -1,38 +1,131 @@
 package il.ac.hit.project.tcpserver;
 
 
+import il.ac.hit.project.algorithms.AlgorithmException;
 import il.ac.hit.project.algorithms.Algorithms;
+import il.ac.hit.project.algorithms.AlgorithmsEngine;
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.BitRows;
+import il.ac.hit.project.algorithms.CancellationToken;
 import il.ac.hit.project.algorithms.Index;
 import il.ac.hit.project.algorithms.InvalidSubmarineMatrixAlgorithmException;
+import il.ac.hit.project.algorithms.MappedBitMatrix;
+import il.ac.hit.project.algorithms.PathLimits;
+import il.ac.hit.project.algorithms.PathSearchStatus;
+import il.ac.hit.project.part1.TaskType;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class MatrixIHandler implements IHandler {
+public class MatrixIHandler implements IHandler, IFrameHandler {
+    // default weight of the result cache (see ResultCache) - about a million cached indices
+    public static final long DEFAULT_RESULT_CACHE_WEIGHT = 1L << 20;
+
+    // default size of the matrix store (see MatrixStore) - 256 MiB of packed matrices
+    public static final long DEFAULT_MATRIX_STORE_BYTES = 1L << 28;
+
+    // estimated cost of the tasks (see IFrameHandler.Request.getCost) - a task costs the number of cells of its
+    // matrix, times ALL_PATHS_COST_WEIGHT for the all-paths searches, whose run time grows much faster than the matrix.
+    // mapped matrices are not looked at before their task runs, so a mapped task costs as much as a 4096x4096 matrix
+    static final int ALL_PATHS_COST_WEIGHT = 8;
+    static final long MAPPED_TASK_COST = 1L << 24;
+
+    // the handler is shared by all connections - their matrix and start/end indices are kept per connection
+    // task results shared by all connections of the handler
+    private final ResultCache resultCache;
+    // matrices uploaded once and referred to by handle from any connection
+    private final MatrixStore matrixStore;
+    // matrix files that MAPPED_TASK may map (and where its scratch files are kept), null if it is disabled
+    private final Path mappedMatrixDirectory;
+    // the pool the parallel tasks of all connections run on
+    private final AlgorithmsEngine algorithmsEngine;
+    // the number of cells of the matrices each task ran on (task1 to task4, and mapped for mapped tasks)
+    private final Map<String, StripedHistogram> gridSizes;
 
-    private Matrix matrix;
-    private Index start, end;
-   private int[][] primitiveMatrix;
     public MatrixIHandler() {
-        this.resetParams();
+        this(DEFAULT_RESULT_CACHE_WEIGHT, DEFAULT_MATRIX_STORE_BYTES, null);
+    }
+
+    public MatrixIHandler(long resultCacheWeight, long matrixStoreBytes) {
+        this(resultCacheWeight, matrixStoreBytes, null);
     }
-    private void resetParams(){
-        this.matrix = null;
-        this.start = null;
-        this.end = null;
+
+    // task 1 and task 2 run on half of the cores, and each of them may use half of those (see TcpServer, which runs
+    // the rest of the work on the other half)
+    public MatrixIHandler(long resultCacheWeight, long matrixStoreBytes, Path mappedMatrixDirectory) {
+        this(resultCacheWeight, matrixStoreBytes, mappedMatrixDirectory,
+                new AlgorithmsEngine(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    public MatrixIHandler(long resultCacheWeight, long matrixStoreBytes, Path mappedMatrixDirectory,
+                          AlgorithmsEngine algorithmsEngine) {
+        this.resultCache = new ResultCache(resultCacheWeight);
+        this.matrixStore = new MatrixStore(matrixStoreBytes);
+        this.mappedMatrixDirectory =
+                mappedMatrixDirectory == null ? null : mappedMatrixDirectory.toAbsolutePath().normalize();
+        this.algorithmsEngine = algorithmsEngine;
+        Map<String, StripedHistogram> gridSizes = new LinkedHashMap<>();
+        for (String task : new String[]{"task1", "task2", "task3", "task4", "mapped"}) {
+            gridSizes.put(task, new StripedHistogram());
+        }
+        this.gridSizes = Collections.unmodifiableMap(gridSizes);
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public MatrixStore getMatrixStore() {
+        return matrixStore;
+    }
+
+    public AlgorithmsEngine getAlgorithmsEngine() {
+        return algorithmsEngine;
+    }
+
+    // the threads of the AlgorithmsEngine
+    @Override
+    public int getWorkerThreads() {
+        return algorithmsEngine.getParallelism();
+    }
+
+    // the distribution of matrix sizes (in cells) of every task, whether its result was cached or not
+    public Map<String, StripedHistogram> getGridSizes() {
+        return gridSizes;
+    }
+
+    private void recordGridSize(String task, BitRows matrix) {
+        gridSizes.get(task).record((long) matrix.getNumRows() * matrix.getNumCols());
     }
 
     @Override
     public void handle(InputStream inClient, OutputStream outClient) throws Exception {
-        System.out.println("server::start handle");
+        ServerLog.info("server::start handle");
+
+        // detect which protocol the client speaks from the first bytes it sent
+        InputStream bufferedInClient = new BufferedInputStream(inClient);
+        if (BinaryProtocol.isSerializationStream(bufferedInClient)) {
+            handleSerialized(bufferedInClient, outClient);
+        } else {
+            handleBinary(bufferedInClient, outClient);
+        }
+    }
 
+    // handles a client speaking the legacy protocol (String commands and Java-serialized objects)
+    private void handleSerialized(InputStream inClient, OutputStream outClient) throws Exception {
         ObjectOutputStream objectOutputStream=new ObjectOutputStream(outClient);
         ObjectInputStream objectInputStream = new ObjectInputStream(inClient);
-
-        this.resetParams();
+        // state of this connection
+        Matrix matrix = null;
+        Index start = null, end = null;
 
         boolean dowork = true;
         while (dowork) {
@@ -42,28 +135,27 @@ public class MatrixIHandler implements IHandler {
                     break;
                 }
                 case "matrix": {
-                    primitiveMatrix = (int[][]) objectInputStream.readObject();
-                    this.matrix = new Matrix(primitiveMatrix);
-                    this.matrix.printMatrix();
+                    matrix = new Matrix(readMatrix(objectInputStream), false);
+                    logMatrix("matrix", matrix.getBitMatrix());
                     break;
                 }
                 case "start Index": {
-                    this.start = (Index) objectInputStream.readObject();
+                    start = (Index) objectInputStream.readObject();
                     break;
                 }
                 case "end Index": {
-                    this.end = (Index) objectInputStream.readObject();
+                    end = (Index) objectInputStream.readObject();
                     break;
                 }
                 case "AdjacentIndices": {
                     // receiving index for getAdjacentIndices
                     Index indexAdjacentIndices = (Index) objectInputStream.readObject();
                     Collection<Index> adjacentIndices = new ArrayList<>();
-                    if (this.matrix != null){
-                        adjacentIndices.addAll(this.matrix.getAdjacentIndices(indexAdjacentIndices));
+                    if (matrix != null){
+                        adjacentIndices.addAll(matrix.getAdjacentIndices(indexAdjacentIndices));
                     }
                     // sending getAdjacentIndices
-                    System.out.println("server::getAdjacentIndices:: " + adjacentIndices);
+                    ServerLog.info("server::getAdjacentIndices:: %s", adjacentIndices);
                     objectOutputStream.writeObject(adjacentIndices);
                     break;
                 }
@@ -71,46 +163,560 @@ public class MatrixIHandler implements IHandler {
                     // receiving index for getReachables
                     Index indexReachables = (Index) objectInputStream.readObject();
                     Collection<Index> reachables = new ArrayList<>();
-                    if (this.matrix != null){
-                        reachables.addAll(this.matrix.getReachables(indexReachables));
+                    if (matrix != null){
+                        reachables.addAll(matrix.getReachables(indexReachables));
                     }
                     // sending getReachables
-                    System.out.println("server::getReachables:: " + reachables);
+                    ServerLog.info("server::getReachables:: %s", reachables);
                     objectOutputStream.writeObject(reachables);
                     break;
                 }
                 case "Task1": {
-                    List<HashSet<Index>> res1 = Algorithms.findAllConnectedComponents(primitiveMatrix);
-                    System.out.println("server::Task1:: " + res1);
+                    long startNanos = System.nanoTime();
+                    List<HashSet<Index>> res1 = connectedComponents(matrix.getBitMatrix(), CancellationToken.NONE);
+                    logResult("Task1", res1, startNanos);
                     objectOutputStream.writeObject(res1);
                     break;
                 }
                 case "Task2":{
-                    int[][] matrix= (int[][]) objectInputStream.readObject();
-                    List<List<Index>> res2=Algorithms.findAllPathsFromSourceToDest(matrix,start,end);
-                    System.out.println("server::Task2:: " + res2);
+                    BitMatrix taskMatrix= readMatrix(objectInputStream);
+                    long startNanos = System.nanoTime();
+                    List<List<Index>> res2=allPaths(taskMatrix,start,end,CancellationToken.NONE);
+                    logResult("Task2", res2, startNanos);
                     objectOutputStream.writeObject(res2);
                     break;
                 }
                 case "Task3":{
                   //  Integer num=(Integer) objectInputStream.readObject();
                    // int[][] matrix= Algorithms.matrixGenerator(num);
-                    int[][] matrix= (int[][]) objectInputStream.readObject();
-                    List<List<Index>> res3 = Algorithms.findShortestPathsFromSourceToDest(matrix,start,end);
-                    System.out.println("server::Task3:: " + res3);
+                    BitMatrix taskMatrix= readMatrix(objectInputStream);
+                    long startNanos = System.nanoTime();
+                    List<List<Index>> res3 = shortestPaths(taskMatrix,start,end,CancellationToken.NONE);
+                    logResult("Task3", res3, startNanos);
                     objectOutputStream.writeObject(res3);
                     break;
                 }
                 case "Task4":{
-                    int[][] matrix= (int[][]) objectInputStream.readObject();
-                    int numOfSubmarine=Algorithms.countSubmarines(matrix);
-                    System.out.println("server::Task4:: " + numOfSubmarine);
+                    BitMatrix taskMatrix= readMatrix(objectInputStream);
+                    long startNanos = System.nanoTime();
+                    int numOfSubmarine=countSubmarines(taskMatrix,CancellationToken.NONE);
+                    ServerLog.info("server::Task4:: %d in %d ms", numOfSubmarine, millisSince(startNanos));
                     objectOutputStream.writeObject(numOfSubmarine);
-                    System.out.println("Input invalid");
                     break;
                 }
 
             }
         }
     }
+
+    // handles a client speaking BinaryProtocol on the current thread (requests are answered one by one, in order)
+    private void handleBinary(InputStream inClient, OutputStream outClient) throws IOException {
+        DataInputStream in = new DataInputStream(inClient);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outClient));
+
+        BinaryProtocol.readHandshake(in);
+        BinaryProtocol.writeHandshake(out);
+
+        IFrameHandler.Session session = openSession();
+        BinaryProtocol.Frame frame;
+        while ((frame = BinaryProtocol.readFrame(in)) != null && frame.getOpcode() != BinaryProtocol.STOP) {
+            IFrameHandler.Request request = session.handleFrame(frame);
+            if (request != null) {
+                request.respond(out);
+            }
+        }
+    }
+
+    @Override
+    public IFrameHandler.Session openSession() {
+        return openSession(ServerLimits.DEFAULT);
+    }
+
+    @Override
+    public IFrameHandler.Session openSession(ServerLimits limits) {
+        return new BinarySession(this, limits.getMaxMatrixCells());
+    }
+
+    // the tasks, answered from the result cache when the same matrix (and start/end indices) was seen before
+    // a task stopped by its token throws AlgorithmCancelledException, and nothing is cached
+
+    private List<HashSet<Index>> connectedComponents(BitMatrix matrix, CancellationToken token)
+            throws AlgorithmException {
+        recordGridSize("task1", matrix);
+        return resultCache.get(ResultCache.Kind.CONNECTED_COMPONENTS, matrix, null, null,
+                () -> algorithmsEngine.findAllConnectedComponents(matrix, token));
+    }
+
+    private List<List<Index>> allPaths(BitMatrix matrix, Index start, Index end, CancellationToken token)
+            throws AlgorithmException {
+        recordGridSize("task2", matrix);
+        return resultCache.get(ResultCache.Kind.ALL_PATHS, matrix, start, end,
+                () -> algorithmsEngine.findAllPathsFromSourceToDest(matrix, start, end, token));
+    }
+
+    private List<List<Index>> shortestPaths(BitMatrix matrix, Index start, Index end, CancellationToken token)
+            throws AlgorithmException {
+        recordGridSize("task3", matrix);
+        return resultCache.get(ResultCache.Kind.SHORTEST_PATHS, matrix, start, end,
+                () -> Algorithms.findShortestPathsFromSourceToDest(matrix, start, end, Integer.MAX_VALUE, token));
+    }
+
+    // reuses the connected components if Task1 already cached them for the same matrix, and otherwise validates the
+    // matrix in a single pass
+    private int countSubmarines(BitMatrix matrix, CancellationToken token) throws AlgorithmException {
+        recordGridSize("task4", matrix);
+        return resultCache.get(ResultCache.Kind.SUBMARINE_COUNT, matrix, null, null, () -> {
+            List<HashSet<Index>> components =
+                    resultCache.getIfPresent(ResultCache.Kind.CONNECTED_COMPONENTS, matrix, null, null);
+            return components != null ? Algorithms.countSubmarines(components)
+                    : Math.toIntExact(Algorithms.countSubmarines((BitRows) matrix, token));
+        });
+    }
+
+    // runs a task (TASK1, TASK3 or TASK4) directly over a matrix file of the mapped matrix directory - see
+    // BinaryProtocol.MAPPED_TASK for the results
+    // throws IOException if mapped tasks are disabled, the file is outside the directory or can't be mapped, or the
+    // task is unknown
+    private long runMappedTask(byte task, String fileName, Index start, Index end, CancellationToken token)
+            throws IOException, AlgorithmException {
+        if (mappedMatrixDirectory == null) {
+            throw new IOException("mapped matrices are disabled");
+        }
+        // compared with symbolic links resolved, so a link inside the directory can't point a client at any other file
+        Path file = mappedMatrixDirectory.resolve(fileName).toRealPath();
+        if (!file.startsWith(mappedMatrixDirectory.toRealPath())) {
+            throw new IOException("matrix file is outside the mapped matrix directory");
+        }
+        try (MappedBitMatrix matrix = MappedBitMatrix.open(file)) {
+            recordGridSize("mapped", matrix);
+            switch (task) {
+                case BinaryProtocol.TASK1:
+                    return Algorithms.countConnectedComponents(matrix, token);
+                case BinaryProtocol.TASK3:
+                    return Algorithms.findShortestPathLength(matrix, start, end, mappedMatrixDirectory, token);
+                case BinaryProtocol.TASK4:
+                    return Algorithms.countSubmarines(matrix, token);
+                default:
+                    throw new IOException("unknown mapped task " + task);
+            }
+        }
+    }
+
+    // state of a single connection speaking BinaryProtocol.
+    // requests capture the matrix and start/end indices current when their frame arrived, so they can run
+    // concurrently with later frames.
+    // algorithm failures (e.g. an invalid submarine matrix) are answered with an ERROR frame and the session continues.
+    // every task gets a CancellationToken with the deadline of the session, which CANCEL cancels until the task ends.
+    // matrices over the server's limit of cells are rejected before anything is allocated for them, and decoding the
+    // matrix of a MATRIX or STORE_MATRIX frame is charged in admission like a task
+    private static class BinarySession implements IFrameHandler.Session {
+        private final MatrixIHandler handler;
+        // the limit of cells of the matrices in frames (see ServerLimits.getMaxMatrixCells)
+        private final long maxMatrixCells;
+        private Matrix matrix;
+        private Index start, end;
+        // the deadline of the following requests, 0 for none
+        private int deadlineMillis = 0;
+        // the payload encodings of the following requests and their responses (see BinaryProtocol.ENCODINGS)
+        private int encodings = 0;
+        // tokens of the requests that were returned and did not end yet, keyed by request ID
+        private final Map<Integer, CancellationToken> runningRequests = new ConcurrentHashMap<>();
+
+        BinarySession(MatrixIHandler handler, long maxMatrixCells) {
+            this.handler = handler;
+            this.maxMatrixCells = maxMatrixCells;
+        }
+
+        // the requests that only write a response they already have are cheap, so whatever is not marked otherwise
+        // runs with IO priority
+        @Override
+        public IFrameHandler.Request handleFrame(BinaryProtocol.Frame frame) throws IOException {
+            IFrameHandler.Request request = request(frame);
+            if (request == null || request.getTaskType() != TaskType.UNKNOWN) {
+                return request;
+            }
+            return IFrameHandler.Request.withTaskType(TaskType.IO, request);
+        }
+
+        // decoding a matrix costs as much as a task going over its cells once
+        @Override
+        public long getFrameCost(BinaryProtocol.Frame frame) throws IOException {
+            if (frame.getOpcode() == BinaryProtocol.MATRIX || frame.getOpcode() == BinaryProtocol.STORE_MATRIX) {
+                return matrixCells(frame, 0, null, encodings);
+            }
+            return 0;
+        }
+
+        // the tasks after a MATRIX frame that wasn't admitted fail, instead of running on the matrix before it
+        @Override
+        public void frameRejected(BinaryProtocol.Frame frame) {
+            if (frame.getOpcode() == BinaryProtocol.MATRIX) {
+                this.matrix = null;
+            }
+        }
+
+        @Override
+        public void cancel(int requestId) {
+            CancellationToken token = runningRequests.get(requestId);
+            if (token != null) {
+                token.cancel();
+            }
+        }
+
+        private IFrameHandler.Request request(BinaryProtocol.Frame frame) throws IOException {
+            DataInputStream payload = frame.payload();
+            int requestId = frame.getRequestId();
+            Matrix matrix = this.matrix;
+            Index start = this.start, end = this.end;
+            int encodings = this.encodings;
+
+            switch (frame.getOpcode()) {
+                case BinaryProtocol.STOP: {
+                    return null;
+                }
+                case BinaryProtocol.MATRIX: {
+                    this.matrix = new Matrix(BinaryProtocol.readMatrix(payload, encodings, maxMatrixCells), false);
+                    logMatrix("matrix", this.matrix.getBitMatrix());
+                    return null;
+                }
+                case BinaryProtocol.STORE_MATRIX: {
+                    Matrix stored = new Matrix(BinaryProtocol.readMatrix(payload, encodings, maxMatrixCells), false);
+                    long handle;
+                    try {
+                        handle = handler.matrixStore.put(stored);
+                    } catch (IllegalArgumentException e) {
+                        return out -> BinaryProtocol.writeError(out, requestId, e.getMessage());
+                    }
+                    ServerLog.info("server::storeMatrix:: %d (%dx%d)", handle, stored.getBitMatrix().getNumRows(),
+                            stored.getBitMatrix().getNumCols());
+                    return out -> BinaryProtocol.writeFrame(out, BinaryProtocol.HANDLE, requestId,
+                            response -> response.writeLong(handle));
+                }
+                case BinaryProtocol.USE_MATRIX: {
+                    long handle = payload.readLong();
+                    // resolved right away, so the requests after this frame see the matrix
+                    this.matrix = handler.matrixStore.get(handle);
+                    if (this.matrix == null) {
+                        return out -> BinaryProtocol.writeError(out, requestId, "unknown matrix handle " + handle);
+                    }
+                    return out -> BinaryProtocol.writeFrame(out, BinaryProtocol.OK, requestId, null);
+                }
+                case BinaryProtocol.RELEASE_MATRIX: {
+                    boolean released = handler.matrixStore.remove(payload.readLong());
+                    return out -> BinaryProtocol.writeFrame(out, BinaryProtocol.COUNT, requestId,
+                            response -> response.writeInt(released ? 1 : 0));
+                }
+                case BinaryProtocol.SET_CELLS: {
+                    long handle = payload.readLong();
+                    int count = payload.readInt();
+                    // 9 bytes per cell
+                    if (count < 0 || frame.getPayloadLength() != 12 + 9L * count) {
+                        return out -> BinaryProtocol.writeError(out, requestId, "invalid cell count " + count);
+                    }
+                    int[] rows = new int[count], cols = new int[count];
+                    boolean[] values = new boolean[count];
+                    for (int i = 0; i < count; i++) {
+                        rows[i] = payload.readInt();
+                        cols[i] = payload.readInt();
+                        values[i] = payload.readByte() != 0;
+                    }
+                    // applied right away (in time proportional to the edit), so the frames after this one see it
+                    ComponentCounts counts;
+                    try {
+                        counts = handler.matrixStore.update(handle, components -> {
+                            for (int i = 0; i < count; i++) {
+                                if (rows[i] < 0 || rows[i] >= components.getNumRows()
+                                        || cols[i] < 0 || cols[i] >= components.getNumCols()) {
+                                    return null;
+                                }
+                            }
+                            for (int i = 0; i < count; i++) {
+                                components.set(rows[i], cols[i], values[i]);
+                            }
+                            return new ComponentCounts(components.getComponentCount(),
+                                    components.isValidSubmarineMatrix() ? components.getComponentCount() : -1);
+                        });
+                    } catch (IllegalArgumentException e) {
+                        return out -> BinaryProtocol.writeError(out, requestId, e.getMessage());
+                    }
+                    if (counts == null) {
+                        return out -> BinaryProtocol.writeError(out, requestId,
+                                "unknown matrix handle " + handle + " or cell out of bounds");
+                    }
+                    ServerLog.info("server::setCells:: %d %d cells %s", handle, count, counts);
+                    return out -> BinaryProtocol.writeFrame(out, BinaryProtocol.COMPONENT_COUNTS, requestId, response -> {
+                        response.writeInt(counts.getComponentCount());
+                        response.writeInt(counts.getSubmarineCount());
+                    });
+                }
+                case BinaryProtocol.START_INDEX: {
+                    this.start = BinaryProtocol.readIndex(payload);
+                    return null;
+                }
+                case BinaryProtocol.END_INDEX: {
+                    this.end = BinaryProtocol.readIndex(payload);
+                    return null;
+                }
+                case BinaryProtocol.CANCEL: {
+                    cancel(requestId);
+                    return null;
+                }
+                case BinaryProtocol.DEADLINE: {
+                    int deadline = payload.readInt();
+                    if (deadline < 0) {
+                        return out -> BinaryProtocol.writeError(out, requestId, "invalid deadline " + deadline);
+                    }
+                    this.deadlineMillis = deadline;
+                    return null;
+                }
+                case BinaryProtocol.ENCODINGS: {
+                    // the encodings the client supports that the server supports too
+                    int accepted = payload.readInt() & BinaryProtocol.ENCODINGS_ALL;
+                    this.encodings = accepted;
+                    return out -> BinaryProtocol.writeFrame(out, BinaryProtocol.COUNT, requestId,
+                            response -> response.writeInt(accepted));
+                }
+                case BinaryProtocol.ADJACENT_INDICES: {
+                    Index index = BinaryProtocol.readIndex(payload);
+                    return respond(requestId, TaskType.IO, 1, (out, token) -> {
+                        Collection<Index> adjacentIndices = new ArrayList<>();
+                        if (matrix != null) {
+                            adjacentIndices.addAll(matrix.getAdjacentIndices(index));
+                        }
+                        ServerLog.info("server::getAdjacentIndices:: %s", adjacentIndices);
+                        BinaryProtocol.writeFrame(out, BinaryProtocol.INDICES, requestId,
+                                response -> BinaryProtocol.writeIndices(response, adjacentIndices, encodings));
+                    });
+                }
+                case BinaryProtocol.REACHABLES: {
+                    Index index = BinaryProtocol.readIndex(payload);
+                    return respond(requestId, TaskType.IO, 1, (out, token) -> {
+                        Collection<Index> reachables = new ArrayList<>();
+                        if (matrix != null) {
+                            reachables.addAll(matrix.getReachables(index));
+                        }
+                        ServerLog.info("server::getReachables:: %s", reachables);
+                        BinaryProtocol.writeFrame(out, BinaryProtocol.INDICES, requestId,
+                                response -> BinaryProtocol.writeIndices(response, reachables, encodings));
+                    });
+                }
+                case BinaryProtocol.TASK1: {
+                    long cost = taskCost(frame, 0, matrix, encodings, 1);
+                    return respond(requestId, TaskType.COMPUTATIONAL, cost, (out, token) -> {
+                        if (matrix == null) {
+                            BinaryProtocol.writeError(out, requestId, "no matrix was sent");
+                            return;
+                        }
+                        long startNanos = System.nanoTime();
+                        List<HashSet<Index>> res1 = handler.connectedComponents(matrix.getBitMatrix(), token);
+                        logResult("Task1", res1, startNanos);
+                        BinaryProtocol.writeFrame(out, BinaryProtocol.INDEX_LISTS, requestId,
+                                response -> BinaryProtocol.writeIndexLists(response, res1, encodings));
+                    });
+                }
+                case BinaryProtocol.TASK2:
+                case BinaryProtocol.TASK3: {
+                    int weight = frame.getOpcode() == BinaryProtocol.TASK2 ? ALL_PATHS_COST_WEIGHT : 1;
+                    long cost = taskCost(frame, 0, matrix, encodings, weight);
+                    return respond(requestId, TaskType.COMPUTATIONAL, cost, (out, token) -> {
+                        BitMatrix taskMatrix = readTaskMatrix(frame, matrix, encodings, maxMatrixCells);
+                        if (taskMatrix == null || start == null || end == null) {
+                            BinaryProtocol.writeError(out, requestId, "matrix, start index and end index must be sent first");
+                            return;
+                        }
+                        long startNanos = System.nanoTime();
+                        List<List<Index>> paths;
+                        if (frame.getOpcode() == BinaryProtocol.TASK2) {
+                            paths = handler.allPaths(taskMatrix, start, end, token);
+                            logResult("Task2", paths, startNanos);
+                        } else {
+                            paths = handler.shortestPaths(taskMatrix, start, end, token);
+                            logResult("Task3", paths, startNanos);
+                        }
+                        BinaryProtocol.writeFrame(out, BinaryProtocol.INDEX_LISTS, requestId,
+                                response -> BinaryProtocol.writeIndexLists(response, paths, encodings));
+                    });
+                }
+                case BinaryProtocol.TASK2_STREAM: {
+                    // the matrix follows the path limits
+                    long cost = taskCost(frame, 12, matrix, encodings, ALL_PATHS_COST_WEIGHT);
+                    return respond(requestId, TaskType.COMPUTATIONAL, cost, (out, token) -> {
+                        DataInputStream taskPayload = frame.payload();
+                        PathLimits limits = BinaryProtocol.readPathLimits(taskPayload);
+                        BitMatrix taskMatrix = taskPayload.available() > 0 ? BinaryProtocol.readMatrix(taskPayload, encodings, maxMatrixCells)
+                                : matrix == null ? null : matrix.getBitMatrix();
+                        if (taskMatrix == null || start == null || end == null) {
+                            BinaryProtocol.writeError(out, requestId, "matrix, start index and end index must be sent first");
+                            return;
+                        }
+                        // every path is sent as soon as it is found, nothing is cached
+                        handler.recordGridSize("task2", taskMatrix);
+                        long startNanos = System.nanoTime();
+                        int[] numPaths = {0};
+                        PathSearchStatus status;
+                        try {
+                            status = Algorithms.findAllPathsFromSourceToDest(taskMatrix, start, end, limits, token,
+                                    path -> {
+                                        try {
+                                            BinaryProtocol.writeFrame(out, BinaryProtocol.PATH, requestId,
+                                                    response -> BinaryProtocol.writeIndices(response, path, encodings));
+                                        } catch (IOException e) {
+                                            throw new UncheckedIOException(e);
+                                        }
+                                        ++numPaths[0];
+                                    });
+                        } catch (UncheckedIOException e) {
+                            throw e.getCause();
+                        }
+                        ServerLog.info("server::Task2 stream:: %d paths, %s in %d ms", numPaths[0], status,
+                                millisSince(startNanos));
+                        BinaryProtocol.writePathsEnd(out, requestId, numPaths[0], status);
+                    });
+                }
+                case BinaryProtocol.TASK4: {
+                    long cost = taskCost(frame, 0, matrix, encodings, 1);
+                    return respond(requestId, TaskType.COMPUTATIONAL, cost, (out, token) -> {
+                        BitMatrix taskMatrix = readTaskMatrix(frame, matrix, encodings, maxMatrixCells);
+                        if (taskMatrix == null) {
+                            BinaryProtocol.writeError(out, requestId, "no matrix was sent");
+                            return;
+                        }
+                        long startNanos = System.nanoTime();
+                        int numOfSubmarine = handler.countSubmarines(taskMatrix, token);
+                        ServerLog.info("server::Task4:: %d in %d ms", numOfSubmarine, millisSince(startNanos));
+                        BinaryProtocol.writeFrame(out, BinaryProtocol.COUNT, requestId,
+                                response -> response.writeInt(numOfSubmarine));
+                    });
+                }
+                case BinaryProtocol.MAPPED_TASK: {
+                    byte task = payload.readByte();
+                    String fileName = payload.readUTF();
+                    Index mappedStart = task == BinaryProtocol.TASK3 ? BinaryProtocol.readIndex(payload) : null;
+                    Index mappedEnd = task == BinaryProtocol.TASK3 ? BinaryProtocol.readIndex(payload) : null;
+                    return respond(requestId, TaskType.COMPUTATIONAL, MAPPED_TASK_COST, (out, token) -> {
+                        long startNanos = System.nanoTime();
+                        long result;
+                        try {
+                            result = handler.runMappedTask(task, fileName, mappedStart, mappedEnd, token);
+                        } catch (IOException e) {
+                            BinaryProtocol.writeError(out, requestId, "mapped task failed: " + e.getMessage());
+                            return;
+                        }
+                        ServerLog.info("server::mappedTask%d:: %s %d in %d ms", task, fileName, result,
+                                millisSince(startNanos));
+                        BinaryProtocol.writeFrame(out, BinaryProtocol.LONG_COUNT, requestId,
+                                response -> response.writeLong(result));
+                    });
+                }
+                default: {
+                    return out -> BinaryProtocol.writeError(out, requestId, "unknown opcode " + frame.getOpcode());
+                }
+            }
+        }
+
+        // a task frame either carries its own matrix, or is empty and refers to the last matrix sent
+        // returns null if neither is available
+        private static BitMatrix readTaskMatrix(BinaryProtocol.Frame frame, Matrix matrix, int encodings,
+                                                long maxCells) throws IOException {
+            if (frame.getPayloadLength() > 0) {
+                return BinaryProtocol.readMatrix(frame.payload(), encodings, maxCells);
+            }
+            return matrix == null ? null : matrix.getBitMatrix();
+        }
+
+        // the estimated cost of a task: the number of cells of its matrix, times weight
+        private static long taskCost(BinaryProtocol.Frame frame, int matrixOffset, Matrix matrix, int encodings,
+                                     int weight) throws IOException {
+            return matrixCells(frame, matrixOffset, matrix, encodings) * weight;
+        }
+
+        // the number of cells (at least 1) of the matrix in the frame, which starts matrixOffset bytes into the
+        // payload, or else of the last matrix sent (if any) - read from the dimensions, before the matrix is decoded
+        private static long matrixCells(BinaryProtocol.Frame frame, int matrixOffset, Matrix matrix, int encodings)
+                throws IOException {
+            long cells = 1;
+            int dimensionsOffset = matrixOffset + BinaryProtocol.matrixHeaderOffset(encodings);
+            if (frame.getPayloadLength() >= dimensionsOffset + 8) {
+                DataInputStream payload = frame.payload();
+                payload.skipBytes(dimensionsOffset);
+                // invalid dimensions fail once the matrix is read
+                cells = (long) payload.readInt() * payload.readInt();
+            } else if (matrix != null) {
+                cells = (long) matrix.getBitMatrix().getNumRows() * matrix.getBitMatrix().getNumCols();
+            }
+            return Math.max(1, cells);
+        }
+
+        // wraps a responder so that algorithm failures are answered with an ERROR frame, and registers the token of the
+        // request until it ends. the deadline counts from now, so it includes the time the request waits to run, and a
+        // request cancelled before it runs is answered with an ERROR right away
+        private IFrameHandler.Request respond(int requestId, TaskType taskType, long cost, Responder responder) {
+            CancellationToken token = CancellationToken.withTimeout(deadlineMillis);
+            runningRequests.put(requestId, token);
+            IFrameHandler.Request request = IFrameHandler.Request.withTaskType(taskType, cost, out -> {
+                try {
+                    token.throwIfCancelled();
+                    responder.respond(out, token);
+                } catch (AlgorithmException e) {
+                    BinaryProtocol.writeError(out, requestId, e.getMessage());
+                } finally {
+                    runningRequests.remove(requestId, token);
+                }
+            });
+            return new IFrameHandler.Request() {
+                @Override
+                public void respond(DataOutputStream out) throws IOException {
+                    request.respond(out);
+                }
+
+                @Override
+                public void discard() {
+                    runningRequests.remove(requestId, token);
+                }
+
+                @Override
+                public TaskType getTaskType() {
+                    return request.getTaskType();
+                }
+
+                @Override
+                public long getCost() {
+                    return request.getCost();
+                }
+            };
+        }
+
+        private interface Responder {
+            void respond(DataOutputStream out, CancellationToken token) throws IOException, AlgorithmException;
+        }
+    }
+
+    // logs the dimensions of a matrix a client sent, and the matrix itself at DEBUG level
+    private static void logMatrix(String name, BitMatrix matrix) {
+        ServerLog.info("server::%s:: %dx%d", name, matrix.getNumRows(), matrix.getNumCols());
+        if (ServerLog.isDebugEnabled()) {
+            ServerLog.debug("server::%s::%n%s", name, matrix);
+        }
+    }
+
+    // logs the number of results of a task and how long it took, and the results themselves at DEBUG level
+    private static void logResult(String task, Collection<?> results, long startNanos) {
+        ServerLog.info("server::%s:: %d results in %d ms", task, results.size(), millisSince(startNanos));
+        if (ServerLog.isDebugEnabled()) {
+            ServerLog.debug("server::%s:: %s", task, results);
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    // reads a matrix sent either as a BitMatrix or as a legacy int[][] (which is converted once)
+    private static BitMatrix readMatrix(ObjectInputStream objectInputStream) throws IOException, ClassNotFoundException {
+        Object matrix = objectInputStream.readObject();
+        if (matrix instanceof BitMatrix) {
+            return (BitMatrix) matrix;
+        }
+        return BitMatrix.fromArray((int[][]) matrix);
+    }
 }
\ No newline at end of file
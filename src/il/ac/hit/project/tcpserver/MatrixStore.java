@@ -0,0 +1,177 @@
+package il.ac.hit.project.tcpserver;
+
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.DynamicComponents;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// server-wide store of uploaded matrices, so a client can send a matrix once and refer to it by a handle from any
+// connection afterwards.
+// the store is bounded by the total size of the packed matrices, and evicts the least recently used ones once it is
+// exceeded (their handles become unknown). stored matrices are shared, so they must not be modified.
+// a stored matrix can still be edited with update: the edits go to its DynamicComponents (created on the first
+// update), and get returns a new snapshot of the matrix after an update, leaving the snapshots already handed out
+// unchanged. the components grow with the edits, so they are measured again after every update and the difference
+// is counted in the size of the store.
+// all methods are thread safe
+public class MatrixStore {
+    // edits the components of a stored matrix
+    public interface Update<T> {
+        T apply(DynamicComponents components);
+    }
+
+    private final long maxBytes;
+    private final AtomicLong nextHandle = new AtomicLong();
+    // access ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<Long, Entry> matrices = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long evictions = 0;
+
+    public MatrixStore(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    // stores the matrix and returns its handle
+    // throws IllegalArgumentException if the matrix alone is larger than the store
+    public long put(Matrix matrix) {
+        long matrixBytes = sizeOf(matrix);
+        if (matrixBytes > maxBytes) {
+            throw new IllegalArgumentException("matrix is too large for the store (" + matrixBytes + " bytes)");
+        }
+        long handle = nextHandle.incrementAndGet();
+        synchronized (this) {
+            matrices.put(handle, new Entry(matrix, matrixBytes));
+            bytes += matrixBytes;
+            evict();
+        }
+        return handle;
+    }
+
+    // returns the matrix stored under the handle, or null if the handle is unknown (or was evicted)
+    public Matrix get(long handle) {
+        Entry entry;
+        synchronized (this) {
+            entry = matrices.get(handle);
+        }
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            if (entry.matrix == null) {
+                // copyMatrix already returns a snapshot of its own
+                entry.matrix = new Matrix(entry.components.copyMatrix(), false);
+            }
+            return entry.matrix;
+        }
+    }
+
+    // applies the update to the components of the matrix stored under the handle, and returns its result
+    // returns null if the handle is unknown (or was evicted)
+    // updates of the same matrix run one at a time, and updates of different matrices concurrently
+    // throws IllegalArgumentException if the matrix is too large to keep components of (see DynamicComponents)
+    public <T> T update(long handle, Update<T> update) {
+        Entry entry;
+        synchronized (this) {
+            entry = matrices.get(handle);
+        }
+        if (entry == null) {
+            return null;
+        }
+        long addedBytes;
+        T result;
+        synchronized (entry) {
+            if (entry.components == null) {
+                entry.components = new DynamicComponents(entry.matrix.getBitMatrix());
+            }
+            try {
+                result = update.apply(entry.components);
+            } finally {
+                // the next get takes a new snapshot
+                entry.matrix = null;
+                long componentBytes = entry.components.estimatedBytes();
+                addedBytes = componentBytes - entry.componentBytes;
+                entry.componentBytes = componentBytes;
+            }
+        }
+        if (addedBytes != 0) {
+            synchronized (this) {
+                // unless the entry was removed in the meantime
+                if (matrices.get(handle) == entry) {
+                    entry.bytes += addedBytes;
+                    bytes += addedBytes;
+                    evict();
+                }
+            }
+        }
+        return result;
+    }
+
+    // returns true if the handle was known
+    public synchronized boolean remove(long handle) {
+        Entry entry = matrices.remove(handle);
+        if (entry == null) {
+            return false;
+        }
+        bytes -= entry.bytes;
+        return true;
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = matrices.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            ++evictions;
+        }
+    }
+
+    private static long sizeOf(Matrix matrix) {
+        BitMatrix bitMatrix = matrix.getBitMatrix();
+        return BitMatrix.encodedSize(bitMatrix.getNumRows(), bitMatrix.getNumCols());
+    }
+
+    public synchronized int size() {
+        return matrices.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MatrixStore{" +
+                "matrices=" + matrices.size() +
+                ", bytes=" + bytes + "/" + maxBytes +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    // the matrix is null after an update until the next get, and the components are null until the first update
+    // bytes counts the matrix and componentBytes, the size of the components when they were last measured (guarded by
+    // the store and by the entry, respectively)
+    private static class Entry {
+        Matrix matrix;
+        DynamicComponents components;
+        long bytes;
+        long componentBytes;
+
+        Entry(Matrix matrix, long bytes) {
+            this.matrix = matrix;
+            this.bytes = bytes;
+        }
+    }
+}
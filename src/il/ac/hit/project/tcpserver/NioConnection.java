@@ -0,0 +1,678 @@
+package il.ac.hit.project.tcpserver;
+
+import il.ac.hit.project.part1.TaskType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// a connection registered in the TcpServer selector.
+// bytes are read and split into BinaryProtocol frames on the selector thread, each frame is handled on the compute
+// pool, and the responses are written back on the selector thread - so an idle connection costs no thread at all.
+// frames of one connection are passed to the session one at a time, in the order they arrived, but the requests they
+// produce run concurrently (up to MAX_IN_FLIGHT_REQUESTS of them). every response frame is sent as soon as the request
+// flushes it, so long responses are streamed. a request that is more than MAX_QUEUED_BYTES ahead of the socket waits
+// for the client to catch up before it flushes its next frame, and fails once the connection is closed. the waiting
+// request holds a compute pool thread, so only one request of a connection may wait at a time - any other request
+// that would have to wait fails with an ERROR frame - and a client that reads nothing for DRAIN_TIMEOUT_MILLIS is
+// disconnected. no more frames are passed to the session while the connection is that far behind.
+// a connection that starts with a Java serialization header is handed over to a blocking IHandler thread instead.
+// the connection stops reading while MAX_PENDING_FRAMES frames wait to be passed to the session, or while the frames
+// waiting take more than ServerLimits.getMaxConnectionBufferedBytes, so a client pipelining faster than the server
+// answers is slowed down by TCP flow control instead of filling the heap. the read buffer has a fixed size, and the
+// payload of a frame is copied out of it into an array that grows as the payload arrives - so a frame header claiming
+// a long payload costs nothing until the payload is actually sent. a frame longer than ServerLimits.getMaxFrameBytes
+// is answered with an ERROR, and the connection is closed once it was written. the bytes buffered are also reserved
+// from the server's total (see TcpServer.reserveBufferedBytes) - a frame that would take it over
+// ServerLimits.getMaxBufferedBytes is dropped as its bytes arrive, and answered with BUSY. requests
+// the server doesn't admit (see TcpServer.admitRequest) are answered with BUSY - as are frames whose own handling
+// costs more than the server admits, e.g. a matrix to decode (see IFrameHandler.Session.getFrameCost) - and a
+// connection over the connection limit is answered with BUSY right after the handshake and closed.
+// CANCEL frames skip the queue: they are passed to the session as soon as they are read, so a request can be cancelled
+// while the frames before it still wait.
+// every request is counted in the CommandMetrics of its opcode once it was answered, with the time from reading its
+// frame until then, and the bytes read and written are counted in the server's totals.
+// all methods are called on the selector thread, except for those of ResponseStream
+class NioConnection {
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int HEADER_LENGTH = BinaryProtocol.HEADER_LENGTH;
+    private static final int HANDSHAKE_LENGTH = 5; // MAGIC (int) + VERSION (byte)
+    // while this many requests of the connection are running, no more frames are passed to the session
+    private static final int MAX_IN_FLIGHT_REQUESTS = 16;
+    // while this many frames wait to be passed to the session, no more bytes are read from the connection
+    private static final int MAX_PENDING_FRAMES = 64;
+    // responses block while the connection has more than this many bytes waiting to be written
+    private static final long MAX_QUEUED_BYTES = 1 << 20;
+    // the connection is closed once a response waited this long for the client to read
+    private static final long DRAIN_TIMEOUT_MILLIS = 10_000;
+
+    private enum State {DETECTING, FRAMES, CLOSED}
+
+    private final TcpServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final IFrameHandler frameHandler;
+    // false if the connection is over the connection limit
+    private final boolean admitted;
+
+    private State state = State.DETECTING;
+    private IFrameHandler.Session session;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // the frame whose payload is being read, or null if the next frame didn't start yet
+    private PartialFrame partialFrame;
+    // bytes of the frames that wait to be passed to the session, and of the payload being read
+    private long bufferedBytes = 0;
+    private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private final Queue<ReceivedFrame> pendingFrames = new ArrayDeque<>();
+    // true while a frame is being passed to the session, and the request ID of that frame
+    private boolean handlingFrame = false;
+    private int handlingRequestId;
+    // IDs of the frames that were cancelled before the session returned their request - cancelled again right after
+    private final Set<Integer> cancelledFrames = ConcurrentHashMap.newKeySet();
+    // number of requests that are running, or whose frame is being passed to the session
+    private int inFlightRequests = 0;
+    private boolean stopReceived = false;
+    private boolean closeAfterWrite = false;
+    // bytes handed to the selector thread that were not yet written to the socket
+    private final AtomicLong queuedBytes = new AtomicLong();
+    // responses waiting for queuedBytes to drop wait on this lock
+    private final Object drainLock = new Object();
+    // true while a response waits on drainLock (guarded by drainLock)
+    private boolean responseWaiting = false;
+    // set once the connection is closed, so waiting responses can give up
+    private volatile boolean closed = false;
+
+    NioConnection(TcpServer server, SocketChannel channel, SelectionKey key, IFrameHandler frameHandler,
+                  boolean admitted) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        this.frameHandler = frameHandler;
+        this.admitted = admitted;
+    }
+
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            server.bytesReceived(read);
+            readBuffer.flip();
+            try {
+                if (state == State.DETECTING) {
+                    detectProtocol();
+                }
+                if (state == State.FRAMES) {
+                    readFrames();
+                }
+            } finally {
+                if (state != State.CLOSED) {
+                    readBuffer.compact();
+                }
+            }
+            dispatchNextFrame();
+        } catch (IOException e) {
+            ServerLog.warn("server::%s", e.getMessage());
+            close();
+        }
+    }
+
+    void onWritable() {
+        try {
+            flush();
+        } catch (IOException e) {
+            ServerLog.warn("server::%s", e.getMessage());
+            close();
+        }
+    }
+
+    // decides between BinaryProtocol and the legacy serialized protocol once enough bytes arrived
+    private void detectProtocol() throws IOException {
+        if (readBuffer.remaining() < 2) {
+            return;
+        }
+        int start = readBuffer.position();
+        int magic = ((readBuffer.get(start) & 0xFF) << 8) | (readBuffer.get(start + 1) & 0xFF);
+        if (magic == BinaryProtocol.SERIALIZATION_MAGIC) {
+            if (!admitted) {
+                // the legacy protocol has no way to say busy
+                close();
+                return;
+            }
+            handOverToBlockingHandler();
+            return;
+        }
+        if (readBuffer.remaining() < HANDSHAKE_LENGTH) {
+            return;
+        }
+        if (readBuffer.getInt() != BinaryProtocol.MAGIC || readBuffer.get() != BinaryProtocol.VERSION) {
+            throw new IOException("unsupported protocol");
+        }
+
+        ByteArrayOutputStream handshake = new ByteArrayOutputStream(HANDSHAKE_LENGTH);
+        DataOutputStream handshakeOut = new DataOutputStream(handshake);
+        BinaryProtocol.writeHandshake(handshakeOut);
+        if (!admitted) {
+            BinaryProtocol.writeBusy(handshakeOut, 0, server.getRetryAfterMillis(), server.getQueuedRequests());
+            // nothing more is read, and the connection is closed once the response was written
+            readBuffer.position(readBuffer.limit());
+            stopReceiving();
+            closeAfterWrite = true;
+        } else {
+            session = frameHandler.openSession(server.getLimits());
+            state = State.FRAMES;
+        }
+        queuedBytes.addAndGet(handshake.size());
+        enqueueWrite(handshake.toByteArray());
+    }
+
+    // moves every complete frame in the read buffer to pendingFrames, and keeps the payload of a frame that is only
+    // partly read in partialFrame
+    private void readFrames() throws IOException {
+        while (state == State.FRAMES && !stopReceived) {
+            if (partialFrame == null) {
+                if (readBuffer.remaining() < HEADER_LENGTH) {
+                    break;
+                }
+                byte opcode = readBuffer.get();
+                int requestId = readBuffer.getInt();
+                int length = readBuffer.getInt();
+                if (length < 0) {
+                    throw new IOException("invalid frame length " + length);
+                }
+                if (length > maxFrameBytes()) {
+                    rejectLongFrame(requestId, length);
+                    return;
+                }
+                partialFrame = new PartialFrame(opcode, requestId, length);
+                if (!buffered(partialFrame.payload.length)) {
+                    partialFrame.drop();
+                }
+            }
+            if (!readPayload(partialFrame)) {
+                break;
+            }
+            BinaryProtocol.Frame frame = partialFrame.toFrame();
+            boolean dropped = partialFrame.payload == null;
+            partialFrame = null;
+            if (frame.getOpcode() == BinaryProtocol.CANCEL) {
+                if (!dropped) {
+                    buffered(-frame.getPayloadLength());
+                }
+                cancel(frame.getRequestId());
+                server.getCommandMetrics(frame.getOpcode()).requestDone(0, false);
+                continue;
+            }
+            pendingFrames.add(new ReceivedFrame(frame, dropped));
+        }
+        updateReadInterest();
+    }
+
+    // copies what the read buffer holds of the payload into the frame, growing its array (and the bytes buffered)
+    // as needed - or skips it if the frame was dropped. returns true once the whole payload was read
+    private boolean readPayload(PartialFrame partial) {
+        while (partial.read < partial.length && readBuffer.hasRemaining()) {
+            if (partial.payload == null) {
+                int chunk = Math.min(partial.length - partial.read, readBuffer.remaining());
+                readBuffer.position(readBuffer.position() + chunk);
+                partial.read += chunk;
+                continue;
+            }
+            if (partial.read == partial.payload.length) {
+                int grown = (int) Math.min(partial.length, 2L * partial.payload.length);
+                if (!buffered(grown - partial.payload.length)) {
+                    buffered(-partial.payload.length);
+                    partial.drop();
+                    continue;
+                }
+                partial.payload = Arrays.copyOf(partial.payload, grown);
+            }
+            int chunk = Math.min(partial.payload.length - partial.read, readBuffer.remaining());
+            readBuffer.get(partial.payload, partial.read, chunk);
+            partial.read += chunk;
+        }
+        return partial.read == partial.length;
+    }
+
+    private int maxFrameBytes() {
+        int maxFrameBytes = server.getLimits().getMaxFrameBytes();
+        return maxFrameBytes == 0 ? BinaryProtocol.MAX_PAYLOAD_LENGTH
+                : Math.min(maxFrameBytes, BinaryProtocol.MAX_PAYLOAD_LENGTH);
+    }
+
+    // answers a frame over the frame limit with an ERROR, without reading its payload, and closes the connection
+    // once the ERROR was written. the requests already running may not get to send their responses
+    private void rejectLongFrame(int requestId, int length) throws IOException {
+        ServerLog.warn("server::a frame of %d bytes is over the limit - closing connection", length);
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        BinaryProtocol.writeError(new DataOutputStream(error), requestId,
+                "a frame of " + length + " bytes is over the limit of " + maxFrameBytes() + " bytes");
+        readBuffer.position(readBuffer.limit());
+        stopReceiving();
+        closeAfterWrite = true;
+        queuedBytes.addAndGet(error.size());
+        enqueueWrite(error.toByteArray());
+    }
+
+    // reads nothing more from the connection, and drops the frames that wait to be passed to the session
+    private void stopReceiving() {
+        stopReceived = true;
+        partialFrame = null;
+        pendingFrames.clear();
+        buffered(-bufferedBytes);
+        updateReadInterest();
+    }
+
+    // counts bytes of frames that started or stopped waiting to be passed to the session, in the connection and in
+    // the server. returns false (counting nothing) if the server has no room for more bytes
+    private boolean buffered(long numBytes) {
+        if (numBytes > 0 && !server.reserveBufferedBytes(numBytes, bufferedBytes)) {
+            return false;
+        }
+        if (numBytes < 0) {
+            server.releaseBufferedBytes(-numBytes);
+        }
+        bufferedBytes += numBytes;
+        return true;
+    }
+
+    // reads from the connection unless it is closed or stopped, MAX_PENDING_FRAMES frames wait, or the frames that
+    // wait take more than the connection's limit of buffered bytes. the frame being read is always read to its end
+    // when it is the only one - its length is bounded by the frame limit
+    private void updateReadInterest() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        long maxBufferedBytes = server.getLimits().getMaxConnectionBufferedBytes();
+        boolean reading = !stopReceived && pendingFrames.size() < MAX_PENDING_FRAMES
+                && (maxBufferedBytes == 0 || bufferedBytes <= maxBufferedBytes || pendingFrames.isEmpty());
+        key.interestOps(reading ? key.interestOps() | SelectionKey.OP_READ
+                : key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    // passes a CANCEL to the session right away. if the session didn't return the request of the cancelled frame
+    // yet, the request is cancelled again once it did
+    private void cancel(int requestId) {
+        boolean pending = handlingFrame && handlingRequestId == requestId;
+        for (ReceivedFrame received : pendingFrames) {
+            pending |= received.frame.getRequestId() == requestId;
+        }
+        if (pending) {
+            cancelledFrames.add(requestId);
+        }
+        session.cancel(requestId);
+    }
+
+    // passes the next pending frame to the session on the compute pool, unless a frame is already being passed, too
+    // many requests are in flight, or the client is too far behind reading the responses. passing a frame is cheap and
+    // gates the frames after it, so it runs with IO priority, and the request the session returns is then queued with
+    // its own priority
+    private void dispatchNextFrame() {
+        if (handlingFrame || stopReceived || state != State.FRAMES || pendingFrames.isEmpty()
+                || inFlightRequests >= MAX_IN_FLIGHT_REQUESTS || queuedBytes.get() > MAX_QUEUED_BYTES) {
+            return;
+        }
+        handlingFrame = true;
+        ++inFlightRequests;
+        ReceivedFrame received = pendingFrames.poll();
+        BinaryProtocol.Frame frame = received.frame;
+        handlingRequestId = frame.getRequestId();
+        buffered(-received.bufferedBytes());
+        updateReadInterest();
+        server.compute(TaskType.IO, () -> {
+            IFrameHandler.Request request;
+            long frameCost = 0;
+            try {
+                frameCost = received.dropped ? -1 : admitFrame(frame);
+                request = frameCost < 0 ? null : session.handleFrame(frame);
+                if (frameCost < 0) {
+                    session.frameRejected(frame);
+                }
+            } catch (Exception e) {
+                ServerLog.warn("server::%s", e.getMessage());
+                received.done(true);
+                server.runOnSelector(this::close);
+                return;
+            } finally {
+                if (frameCost > 0) {
+                    server.requestDone(frameCost);
+                }
+            }
+            if (cancelledFrames.contains(frame.getRequestId())) {
+                session.cancel(frame.getRequestId());
+            }
+            server.runOnSelector(() -> onFrameHandled(frame));
+
+            if (frameCost < 0) {
+                rejectFrame(received);
+                return;
+            }
+            if (request == null) {
+                received.done(false);
+                server.runOnSelector(this::onRequestDone);
+                return;
+            }
+            long cost = server.admitRequest(request.getTaskType(), request.getCost());
+            if (cost < 0) {
+                request.discard();
+                rejectFrame(received);
+                return;
+            }
+            server.compute(request.getTaskType(), () -> {
+                boolean failed = true;
+                try {
+                    failed = !respond(frame, request);
+                } finally {
+                    server.requestDone(cost);
+                    received.done(failed);
+                }
+                server.runOnSelector(this::onRequestDone);
+            });
+        });
+    }
+
+    // reserves the cost of handling the frame itself (see IFrameHandler.Session.getFrameCost)
+    // returns the cost reserved, to be passed to requestDone, or -1 if the server is too busy for the frame
+    private long admitFrame(BinaryProtocol.Frame frame) throws IOException {
+        long cost = session.getFrameCost(frame);
+        return cost == 0 ? 0 : server.admitRequest(TaskType.COMPUTATIONAL, cost);
+    }
+
+    // answers a frame the server is too busy for with BUSY
+    private void rejectFrame(ReceivedFrame received) {
+        BinaryProtocol.Frame frame = received.frame;
+        respond(frame, out -> BinaryProtocol.writeBusy(out, frame.getRequestId(), server.getRetryAfterMillis(),
+                server.getQueuedRequests()));
+        received.metrics().requestRejected();
+        server.runOnSelector(this::onRequestDone);
+    }
+
+    // runs the request, streaming its response frames to the client
+    // if the request fails, the frames it already flushed are followed by an ERROR frame
+    // returns false if the request failed or answered with an ERROR frame
+    private boolean respond(BinaryProtocol.Frame frame, IFrameHandler.Request request) {
+        ResponseStream responseStream = new ResponseStream();
+        DataOutputStream response = new DataOutputStream(responseStream);
+        try {
+            request.respond(response);
+            response.flush();
+            return !responseStream.errorFlushed;
+        } catch (Exception e) {
+            ServerLog.warn("server::%s", e.getMessage());
+            if (closed) {
+                return false;
+            }
+            try {
+                responseStream.discardUnflushed();
+                BinaryProtocol.writeError(response, frame.getRequestId(), "request failed: " + e.getMessage());
+            } catch (IOException ignored) {
+                // the connection was closed meanwhile
+            }
+            return false;
+        }
+    }
+
+    private void onFrameHandled(BinaryProtocol.Frame frame) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        handlingFrame = false;
+        cancelledFrames.remove(frame.getRequestId());
+        if (frame.getOpcode() == BinaryProtocol.STOP) {
+            stopReceiving();
+        }
+        dispatchNextFrame();
+    }
+
+    private void onRequestDone() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        --inFlightRequests;
+        // after STOP, close once the responses of all earlier requests were sent
+        if (stopReceived && inFlightRequests == 0) {
+            closeAfterWrite = true;
+        }
+        try {
+            flush();
+            dispatchNextFrame();
+        } catch (IOException e) {
+            ServerLog.warn("server::%s", e.getMessage());
+            close();
+        }
+    }
+
+    // queues bytes a ResponseStream flushed (and already counted in queuedBytes)
+    private void onResponseFlushed(byte[] bytes) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        try {
+            enqueueWrite(bytes);
+        } catch (IOException e) {
+            ServerLog.warn("server::%s", e.getMessage());
+            close();
+        }
+    }
+
+    private void enqueueWrite(byte[] bytes) throws IOException {
+        if (bytes.length > 0) {
+            writeQueue.add(ByteBuffer.wrap(bytes));
+        }
+        flush();
+    }
+
+    // writes as much as the socket accepts, and waits for OP_WRITE if anything is left
+    private void flush() throws IOException {
+        while (!writeQueue.isEmpty()) {
+            ByteBuffer buffer = writeQueue.peek();
+            server.bytesSent(channel.write(buffer));
+            if (buffer.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            writeQueue.poll();
+            onWritten(buffer.capacity());
+        }
+        if (state == State.CLOSED) {
+            return;
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (closeAfterWrite) {
+            close();
+        }
+    }
+
+    // wakes up the response waiting for the queue to drain, and resumes passing frames to the session, once it
+    // dropped below MAX_QUEUED_BYTES
+    private void onWritten(int numBytes) {
+        long remaining = queuedBytes.addAndGet(-numBytes);
+        if (remaining <= MAX_QUEUED_BYTES && remaining + numBytes > MAX_QUEUED_BYTES) {
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+            dispatchNextFrame();
+        }
+    }
+
+    // the legacy protocol is stream based, so the connection leaves the selector and gets its own thread
+    private void handOverToBlockingHandler() {
+        byte[] consumed = new byte[readBuffer.remaining()];
+        readBuffer.get(consumed);
+        state = State.CLOSED;
+        key.cancel();
+        server.startBlockingConnection(channel, consumed);
+    }
+
+    void close() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        key.cancel();
+        partialFrame = null;
+        pendingFrames.clear();
+        buffered(-bufferedBytes);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        closed = true;
+        synchronized (drainLock) {
+            drainLock.notifyAll();
+        }
+        server.connectionClosed();
+    }
+
+    // a frame whose payload is being read. the payload array starts at most as long as the read buffer, and doubles
+    // whenever it is full, up to the length of the payload. it is null once the frame was dropped
+    private static class PartialFrame {
+        private final byte opcode;
+        private final int requestId;
+        private final int length;
+        private byte[] payload;
+        // number of payload bytes read
+        private int read = 0;
+
+        PartialFrame(byte opcode, int requestId, int length) {
+            this.opcode = opcode;
+            this.requestId = requestId;
+            this.length = length;
+            this.payload = new byte[Math.min(length, READ_BUFFER_SIZE)];
+        }
+
+        // forgets the payload - the rest of it is skipped
+        void drop() {
+            payload = null;
+        }
+
+        // the frame, with an empty payload if it was dropped
+        BinaryProtocol.Frame toFrame() {
+            return new BinaryProtocol.Frame(opcode, requestId, payload == null ? new byte[0] : payload);
+        }
+    }
+
+    // a frame waiting to be passed to the session, and the time it was read
+    private class ReceivedFrame {
+        private final BinaryProtocol.Frame frame;
+        // true if the server had no room for the payload - the frame is answered with BUSY
+        private final boolean dropped;
+        private final long receivedNanos = System.nanoTime();
+
+        ReceivedFrame(BinaryProtocol.Frame frame, boolean dropped) {
+            this.frame = frame;
+            this.dropped = dropped;
+        }
+
+        // the bytes counted in bufferedBytes for the frame
+        int bufferedBytes() {
+            return dropped ? 0 : frame.getPayloadLength();
+        }
+
+        CommandMetrics metrics() {
+            return server.getCommandMetrics(frame.getOpcode());
+        }
+
+        void done(boolean error) {
+            metrics().requestDone(System.nanoTime() - receivedNanos, error);
+        }
+    }
+
+    // the stream a request writes its response to, on a compute pool thread.
+    // written bytes are buffered until flush, which hands them to the selector thread (BinaryProtocol.writeFrame
+    // flushes after every frame). every flush after the first first waits while too many bytes of the connection are
+    // still waiting to be sent - unless another response of the connection is already waiting. the bytes of a frame
+    // are in memory either way, so the last frame of a response (and a response of a single frame) never waits, and
+    // only a streamed response is held back from producing more
+    private class ResponseStream extends OutputStream {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // true once an ERROR frame was flushed (every frame is flushed on its own, so it starts the flushed bytes)
+        private boolean errorFlushed = false;
+        // true once something was flushed, so the next flush waits for the queue to drain
+        private boolean flushedAny = false;
+        // true once the response failed - the ERROR frame ending it is flushed without waiting
+        private boolean failed = false;
+
+        @Override
+        public void write(int b) {
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.write(bytes, offset, length);
+        }
+
+        // throws IOException if the connection was closed, another response is waiting for the client, or the client
+        // read nothing for DRAIN_TIMEOUT_MILLIS (which closes the connection)
+        @Override
+        public void flush() throws IOException {
+            if (closed) {
+                throw new IOException("connection closed");
+            }
+            if (buffer.size() == 0) {
+                return;
+            }
+            if (flushedAny && !failed) {
+                synchronized (drainLock) {
+                    if (!closed && queuedBytes.get() > MAX_QUEUED_BYTES) {
+                        awaitDrain();
+                    }
+                }
+                if (closed) {
+                    throw new IOException("connection closed");
+                }
+            }
+            flushedAny = true;
+            byte[] bytes = buffer.toByteArray();
+            buffer.reset();
+            errorFlushed |= bytes[0] == BinaryProtocol.ERROR;
+            queuedBytes.addAndGet(bytes.length);
+            server.runOnSelector(() -> onResponseFlushed(bytes));
+        }
+
+        // waits (holding drainLock) until the queue drains below MAX_QUEUED_BYTES or the connection is closed
+        private void awaitDrain() throws IOException {
+            if (responseWaiting) {
+                throw new IOException("the client is not reading its responses");
+            }
+            responseWaiting = true;
+            try {
+                long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+                while (!closed && queuedBytes.get() > MAX_QUEUED_BYTES) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        server.runOnSelector(NioConnection.this::close);
+                        throw new IOException("the client stopped reading its responses");
+                    }
+                    drainLock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the client");
+            } finally {
+                responseWaiting = false;
+            }
+        }
+
+        // drops bytes written since the last flush (e.g. part of a frame the request failed to finish), so the
+        // response can be ended with an ERROR frame
+        void discardUnflushed() {
+            buffer.reset();
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package il.ac.hit.project.tcpserver;
+
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.Index;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// the compact encodings of matrices and index lists that a connection may negotiate with ENCODINGS - see
+// BinaryProtocol for the formats.
+// a matrix is written in whichever of the negotiated formats is estimated to be smallest, from the number of 1's and
+// of runs of 1's it has, and is deflated on top if that was negotiated too and pays off. every format is decoded
+// straight into a BitMatrix
+final class PayloadEncoding {
+    // matrix formats (the first byte of an encoded matrix)
+    static final int MATRIX_PACKED = 0;
+    static final int MATRIX_RUNS = 1;
+    static final int MATRIX_SPARSE = 2;
+    // set in the format byte of a matrix whose body is deflated
+    static final int MATRIX_DEFLATED = 0x80;
+
+    // smaller bodies are not worth deflating
+    private static final int MIN_DEFLATE_LENGTH = 1024;
+    // encoded matrices may not decode to more packed bytes than a single frame could carry
+    private static final long MAX_DECODED_BYTES = BinaryProtocol.MAX_PAYLOAD_LENGTH;
+
+    private PayloadEncoding() {
+    }
+
+    // writes format (byte), rows (int), cols (int), then the body in that format
+    static void writeMatrix(DataOutputStream out, BitMatrix matrix, int encodings) throws IOException {
+        int format = chooseFormat(matrix, encodings);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeBody(new DataOutputStream(body), matrix, format);
+        if ((encodings & BinaryProtocol.ENCODING_DEFLATE) != 0 && body.size() >= MIN_DEFLATE_LENGTH) {
+            // the packed words of a matrix of mostly 0's are mostly 0 bytes, and run lengths and gaps repeat -
+            // the fastest level already takes most of the gain
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(deflated, deflater)) {
+                body.writeTo(deflaterOut);
+            } finally {
+                deflater.end();
+            }
+            // inflating costs the reader more than reading the body, so a small gain isn't worth it
+            if (deflated.size() + 4 <= body.size() - body.size() / 8) {
+                out.writeByte(format | MATRIX_DEFLATED);
+                out.writeInt(matrix.getNumRows());
+                out.writeInt(matrix.getNumCols());
+                out.writeInt(deflated.size());
+                deflated.writeTo(out);
+                return;
+            }
+        }
+        out.writeByte(format);
+        out.writeInt(matrix.getNumRows());
+        out.writeInt(matrix.getNumCols());
+        body.writeTo(out);
+    }
+
+    // estimates the size of every negotiated format in a single pass over the packed words: sparse costs a gap per
+    // 1, runs cost a gap and a length per run of 1's, and each gap or length takes as many bytes as the average one
+    private static int chooseFormat(BitMatrix matrix, int encodings) {
+        boolean runs = (encodings & BinaryProtocol.ENCODING_RUNS) != 0;
+        boolean sparse = (encodings & BinaryProtocol.ENCODING_SPARSE) != 0;
+        if (!runs && !sparse) {
+            return MATRIX_PACKED;
+        }
+        long numOnes = 0, numRuns = 0;
+        for (int i = 0; i < matrix.getNumRows(); i++) {
+            long previous = 0;
+            for (int w = 0; w < matrix.getWordsPerRow(); w++) {
+                long word = matrix.word(i, w);
+                numOnes += Long.bitCount(word);
+                // a run starts at every 1 whose left neighbour (in the same row) is 0
+                numRuns += Long.bitCount(word & ~((word << 1) | (previous >>> 63)));
+                previous = word;
+            }
+        }
+        long cells = (long) matrix.getNumRows() * matrix.getNumCols();
+        long bestSize = 8L * matrix.getNumRows() * matrix.getWordsPerRow();
+        int best = MATRIX_PACKED;
+        if (runs) {
+            long size = 2 * numRuns * varLongLength(cells / (2 * numRuns + 1));
+            if (size < bestSize) {
+                bestSize = size;
+                best = MATRIX_RUNS;
+            }
+        }
+        if (sparse && numOnes * varLongLength(cells / (numOnes + 1)) < bestSize) {
+            best = MATRIX_SPARSE;
+        }
+        return best;
+    }
+
+    private static void writeBody(DataOutputStream out, BitMatrix matrix, int format) throws IOException {
+        int numRows = matrix.getNumRows();
+        int numCols = matrix.getNumCols();
+        switch (format) {
+            case MATRIX_PACKED: {
+                for (int i = 0; i < numRows; i++) {
+                    for (int w = 0; w < matrix.getWordsPerRow(); w++) {
+                        out.writeLong(matrix.word(i, w));
+                    }
+                }
+                return;
+            }
+            case MATRIX_RUNS: {
+                // runs never continue past the end of their row
+                ByteArrayOutputStream runs = new ByteArrayOutputStream();
+                DataOutputStream runsOut = new DataOutputStream(runs);
+                long numRuns = 0;
+                long end = 0;
+                for (int i = 0; i < numRows; i++) {
+                    long rowStart = (long) i * numCols;
+                    for (int from = matrix.nextSetBit(i, 0); from < numCols; from = matrix.nextSetBit(i, from)) {
+                        int to = matrix.nextClearBit(i, from);
+                        writeVarLong(runsOut, rowStart + from - end);
+                        writeVarLong(runsOut, to - from);
+                        ++numRuns;
+                        end = rowStart + to;
+                        from = to;
+                    }
+                }
+                writeVarLong(out, numRuns);
+                runs.writeTo(out);
+                return;
+            }
+            case MATRIX_SPARSE: {
+                writeVarLong(out, matrix.countOnes());
+                long next = 0;
+                for (int i = 0; i < numRows; i++) {
+                    long rowStart = (long) i * numCols;
+                    for (int j = matrix.nextSetBit(i, 0); j < numCols; j = matrix.nextSetBit(i, j + 1)) {
+                        writeVarLong(out, rowStart + j - next);
+                        next = rowStart + j + 1;
+                    }
+                }
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("unknown matrix format " + format);
+        }
+    }
+
+    // reads a matrix written by writeMatrix, that must be the rest of the payload stream
+    // throws IOException if the matrix is malformed, has more than maxCells cells (unless maxCells is 0), or decodes
+    // to more than MAX_DECODED_BYTES
+    static BitMatrix readMatrix(DataInputStream in, long maxCells) throws IOException {
+        int format = in.readUnsignedByte();
+        int numRows = in.readInt();
+        int numCols = in.readInt();
+        if (numRows <= 0 || numCols <= 0 || BitMatrix.encodedSize(numRows, numCols) > MAX_DECODED_BYTES) {
+            throw new IOException("invalid matrix dimensions " + numRows + "x" + numCols);
+        }
+        BinaryProtocol.checkMatrixCells(numRows, numCols, maxCells);
+        if ((format & MATRIX_DEFLATED) == 0) {
+            if (format == MATRIX_PACKED && BitMatrix.encodedSize(numRows, numCols) - 8 > in.available()) {
+                throw new IOException("invalid matrix dimensions " + numRows + "x" + numCols);
+            }
+            return readBody(in, format, numRows, numCols);
+        }
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("invalid deflated matrix length " + length);
+        }
+        byte[] deflated = new byte[length];
+        in.readFully(deflated);
+        Inflater inflater = new Inflater();
+        try (DataInputStream body = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(deflated), inflater))) {
+            return readBody(body, format & ~MATRIX_DEFLATED, numRows, numCols);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // reads the body of a matrix of the given format and dimensions
+    private static BitMatrix readBody(DataInputStream body, int format, int numRows, int numCols) throws IOException {
+        BitMatrix matrix = new BitMatrix(numRows, numCols);
+        long cells = (long) numRows * numCols;
+        switch (format) {
+            case MATRIX_PACKED: {
+                try {
+                    for (int i = 0; i < numRows; i++) {
+                        for (int w = 0; w < matrix.getWordsPerRow(); w++) {
+                            matrix.setWord(i, w, body.readLong());
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("matrix padding bits must be 0");
+                }
+                return matrix;
+            }
+            case MATRIX_RUNS: {
+                long numRuns = readVarLong(body);
+                long end = 0;
+                for (long r = 0; r < numRuns; r++) {
+                    long from = end + readVarLong(body);
+                    long length = readVarLong(body);
+                    if (length == 0 || from < end || from + length > cells || from + length < from) {
+                        throw new IOException("invalid matrix run");
+                    }
+                    end = from + length;
+                    // a run may span rows
+                    for (long position = from; position < end; ) {
+                        int row = (int) (position / numCols);
+                        int col = (int) (position % numCols);
+                        int to = (int) Math.min(numCols, col + (end - position));
+                        matrix.setRange(row, col, to);
+                        position += to - col;
+                    }
+                }
+                return matrix;
+            }
+            case MATRIX_SPARSE: {
+                long numOnes = readVarLong(body);
+                if (numOnes > cells) {
+                    throw new IOException("invalid number of 1's " + numOnes);
+                }
+                long next = 0;
+                for (long k = 0; k < numOnes; k++) {
+                    long position = next + readVarLong(body);
+                    if (position < next || position >= cells) {
+                        throw new IOException("invalid matrix cell");
+                    }
+                    matrix.set((int) (position / numCols), (int) (position % numCols), true);
+                    next = position + 1;
+                }
+                return matrix;
+            }
+            default:
+                throw new IOException("unknown matrix format " + format);
+        }
+    }
+
+    // writes count (int), then the first index (row and col ints) and the difference of every other index from the
+    // one before it (row and col zigzag var ints)
+    static void writeIndexDeltas(DataOutputStream out, Collection<Index> indices) throws IOException {
+        out.writeInt(indices.size());
+        Index previous = null;
+        for (Index index : indices) {
+            if (previous == null) {
+                BinaryProtocol.writeIndex(out, index);
+            } else {
+                writeVarLong(out, zigzag(index.getRow() - (long) previous.getRow()));
+                writeVarLong(out, zigzag(index.getCol() - (long) previous.getCol()));
+            }
+            previous = index;
+        }
+    }
+
+    // reads the indices of an index list written by writeIndexDeltas, after its count
+    static List<Index> readIndexDeltas(DataInputStream in, int count) throws IOException {
+        List<Index> indices = new ArrayList<>(count);
+        if (count == 0) {
+            return indices;
+        }
+        long row = in.readInt(), col = in.readInt();
+        indices.add(new Index((int) row, (int) col));
+        for (int i = 1; i < count; i++) {
+            row += unzigzag(readVarLong(in));
+            col += unzigzag(readVarLong(in));
+            if (row != (int) row || col != (int) col) {
+                throw new IOException("invalid index delta");
+            }
+            indices.add(new Index((int) row, (int) col));
+        }
+        return indices;
+    }
+
+    // unsigned LEB128: 7 bits per byte, low bits first, the high bit set on every byte but the last
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed var long");
+    }
+
+    private static int varLongLength(long value) {
+        return Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 6) / 7);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,189 @@
+package il.ac.hit.project.tcpserver;
+
+import il.ac.hit.project.algorithms.AlgorithmException;
+import il.ac.hit.project.algorithms.BitMatrix;
+import il.ac.hit.project.algorithms.Index;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// server-wide cache of task results, keyed by the content of the matrix, the kind of task and its start/end indices.
+// the cache is bounded by a total weight - roughly the number of indices held by the cached results plus the number of
+// words of the cached matrices - and evicts the least recently used results once it is exceeded.
+// results are shared between connections, so they must not be modified by the callers.
+// all methods are thread safe. two threads missing on the same key at the same time both compute the result
+public class ResultCache {
+    // the kinds of results that are cached
+    public enum Kind {
+        CONNECTED_COMPONENTS, ALL_PATHS, SHORTEST_PATHS, SUBMARINE_COUNT
+    }
+
+    // computes a result on a cache miss
+    public interface Computation<T> {
+        T compute() throws AlgorithmException;
+    }
+
+    private final long maxWeight;
+    // access ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    public ResultCache(long maxWeight) {
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("maxWeight must not be negative");
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    // returns the cached result of the task, or computes and caches it
+    // start and end may be null for tasks that don't use them
+    // throws whatever the computation throws (failures are not cached)
+    @SuppressWarnings("unchecked")
+    public <T> T get(Kind kind, BitMatrix matrix, Index start, Index end, Computation<T> computation)
+            throws AlgorithmException {
+        Key key = new Key(kind, matrix, start, end);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                ++hits;
+                return (T) entry.result;
+            }
+            ++misses;
+        }
+
+        T result = computation.compute();
+        put(key, result);
+        return result;
+    }
+
+    // returns the cached result of the task, or null if it is not cached
+    // a peek for a result another computation can reuse - it counts as neither a hit nor a miss, so the request that
+    // peeks is counted once, by its own get
+    @SuppressWarnings("unchecked")
+    public <T> T getIfPresent(Kind kind, BitMatrix matrix, Index start, Index end) {
+        Key key = new Key(kind, matrix, start, end);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            return entry == null ? null : (T) entry.result;
+        }
+    }
+
+    private synchronized void put(Key key, Object result) {
+        long entryWeight = weigh(key.matrix, result);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(result, entryWeight));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entryWeight;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > maxWeight) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            ++evictions;
+        }
+    }
+
+    // the weight of a result is the number of indices it holds (at least 1), plus the words of the key's matrix
+    private static long weigh(BitMatrix matrix, Object result) {
+        long resultWeight = 0;
+        if (result instanceof Collection) {
+            for (Object element : (Collection<?>) result) {
+                resultWeight += element instanceof Collection ? ((Collection<?>) element).size() : 1;
+            }
+        }
+        return Math.max(1, resultWeight) + BitMatrix.encodedSize(matrix.getNumRows(), matrix.getNumCols()) / 8;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache{" +
+                "entries=" + entries.size() +
+                ", weight=" + weight + "/" + maxWeight +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    private static class Entry {
+        final Object result;
+        final long weight;
+
+        Entry(Object result, long weight) {
+            this.result = result;
+            this.weight = weight;
+        }
+    }
+
+    // the content hash is computed once, and only keys with equal hashes compare the matrices themselves
+    // the key keeps a reference to the matrix, which must not be modified afterwards
+    private static class Key {
+        final Kind kind;
+        final BitMatrix matrix;
+        final long contentHash;
+        final Index start, end;
+
+        Key(Kind kind, BitMatrix matrix, Index start, Index end) {
+            this.kind = kind;
+            this.matrix = matrix;
+            this.contentHash = matrix.contentHash();
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return contentHash == key.contentHash &&
+                    kind == key.kind &&
+                    Objects.equals(start, key.start) &&
+                    Objects.equals(end, key.end) &&
+                    matrix.equals(key.matrix);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * Long.hashCode(contentHash) + kind.hashCode()) + Objects.hashCode(start))
+                    + Objects.hashCode(end);
+        }
+    }
+}
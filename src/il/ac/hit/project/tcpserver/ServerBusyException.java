@@ -0,0 +1,27 @@
+package il.ac.hit.project.tcpserver;
+
+import java.io.IOException;
+
+// thrown by Client when the server answered a request (or the connection) with BUSY
+public class ServerBusyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterMillis;
+    private final int queuedRequests;
+
+    public ServerBusyException(int retryAfterMillis, int queuedRequests) {
+        super("server busy, retry after " + retryAfterMillis + " ms (" + queuedRequests + " queued requests)");
+        this.retryAfterMillis = retryAfterMillis;
+        this.queuedRequests = queuedRequests;
+    }
+
+    // how long the server suggested to wait before retrying
+    public int getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    // the depth of the server's queue when it rejected the request
+    public int getQueuedRequests() {
+        return queuedRequests;
+    }
+}
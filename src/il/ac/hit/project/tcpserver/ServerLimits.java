@@ -0,0 +1,89 @@
+package il.ac.hit.project.tcpserver;
+
+// limits on the load TcpServer admits - past them it answers BUSY instead of queueing more work (see
+// BinaryProtocol.BUSY)
+// a limit of 0 means unlimited
+public class ServerLimits {
+    public static final ServerLimits UNLIMITED = new ServerLimits(0, 0, 0, 0, 0, 0, 0);
+    public static final ServerLimits DEFAULT =
+            new ServerLimits(10_000, 4096, 1L << 28, 1L << 26, 1 << 24, 1L << 25, 1L << 27);
+
+    // maximal number of open connections
+    private final int maxConnections;
+    // maximal number of tasks waiting for a thread of the compute pool
+    private final int maxQueuedRequests;
+    // maximal total estimated cost of the requests admitted and not done yet (see IFrameHandler.Request.getCost).
+    // a request is always admitted when nothing else is in flight, however costly it is
+    private final long maxInFlightCost;
+    // maximal number of cells of a matrix a request carries. an encoded matrix can declare far more cells than its
+    // frame has bytes, so its dimensions are checked against this before anything is allocated for it (the encodings
+    // are never allowed to decode to more than BinaryProtocol.MAX_PAYLOAD_LENGTH bytes, even when this is unlimited)
+    private final long maxMatrixCells;
+    // maximal payload length of a request frame. a connection sending a longer frame is answered with an ERROR and
+    // closed (frames are never longer than BinaryProtocol.MAX_PAYLOAD_LENGTH, even when this is unlimited)
+    private final int maxFrameBytes;
+    // maximal number of bytes of the frames a connection sent that wait to be handled. past it the server stops
+    // reading from the connection until the frames were handled - except for the frame being read, which is read to
+    // its end when nothing else waits
+    private final long maxConnectionBufferedBytes;
+    // maximal number of bytes of the frames all connections sent that wait to be handled. a frame whose payload would
+    // take the total past it is not kept, and is answered with BUSY once it was read. a frame is always kept when
+    // nothing else waits, however long it is
+    private final long maxBufferedBytes;
+
+    public ServerLimits(int maxConnections, int maxQueuedRequests, long maxInFlightCost, long maxMatrixCells,
+                        int maxFrameBytes, long maxConnectionBufferedBytes, long maxBufferedBytes) {
+        if (maxConnections < 0 || maxQueuedRequests < 0 || maxInFlightCost < 0 || maxMatrixCells < 0
+                || maxFrameBytes < 0 || maxConnectionBufferedBytes < 0 || maxBufferedBytes < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+        this.maxConnections = maxConnections;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.maxInFlightCost = maxInFlightCost;
+        this.maxMatrixCells = maxMatrixCells;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxConnectionBufferedBytes = maxConnectionBufferedBytes;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    public long getMaxInFlightCost() {
+        return maxInFlightCost;
+    }
+
+    public long getMaxMatrixCells() {
+        return maxMatrixCells;
+    }
+
+    public int getMaxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    public long getMaxConnectionBufferedBytes() {
+        return maxConnectionBufferedBytes;
+    }
+
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerLimits{" +
+                "maxConnections=" + maxConnections +
+                ", maxQueuedRequests=" + maxQueuedRequests +
+                ", maxInFlightCost=" + maxInFlightCost +
+                ", maxMatrixCells=" + maxMatrixCells +
+                ", maxFrameBytes=" + maxFrameBytes +
+                ", maxConnectionBufferedBytes=" + maxConnectionBufferedBytes +
+                ", maxBufferedBytes=" + maxBufferedBytes +
+                '}';
+    }
+}
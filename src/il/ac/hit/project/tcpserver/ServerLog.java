@@ -0,0 +1,213 @@
+package il.ac.hit.project.tcpserver;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// the server's log. logging a record only puts the format and its arguments in a lock-free ring buffer - the message
+// is formatted and printed by a single background thread, so a request never waits for the console, or for the
+// toString of what it logs. records at or above WARN go to System.err, the rest to System.out.
+// the log is bounded: records logged while the buffer is full, or beyond MAX_RECORDS_PER_SECOND in a second, are
+// dropped, and the number of dropped records is printed once the log catches up.
+// the level is INFO unless the system property tcpserver.log.level says otherwise - records below it are skipped
+// right away, and callers should check isDebugEnabled before building the arguments of DEBUG records (the full
+// matrices and results).
+// the arguments are formatted later, on the log thread, so they must not be modified after they were logged.
+// all methods are thread safe
+public final class ServerLog {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    // must be a power of two
+    private static final int CAPACITY = 1 << 13;
+    public static final int MAX_RECORDS_PER_SECOND =
+            Integer.getInteger("tcpserver.log.maxRecordsPerSecond", 10_000);
+    // how long the log thread sleeps at most when there is nothing to print - logging a record wakes it up right away,
+    // so this only delays the report of records dropped while the log was idle
+    private static final long IDLE_PARK_NANOS = 1_000_000_000;
+    // how often flush checks whether the records were printed
+    private static final long FLUSH_POLL_NANOS = 1_000_000;
+
+    private static volatile Level level = configuredLevel();
+
+    // a multi-producer, single-consumer ring: producers claim sequence numbers by advancing tail, and publish the
+    // record in its slot; the log thread takes the slot at head once it was published, and clears it before advancing
+    // head, so a slot is only reused after it was printed
+    private static final AtomicReferenceArray<Record> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static volatile long head = 0;
+    private static final AtomicLong dropped = new AtomicLong();
+    // the current one-second window (high 32 bits) and the number of records logged in it (low 32 bits)
+    private static final AtomicLong window = new AtomicLong();
+    // the log thread, and true while it is (about to be) parked because there was nothing to print - a producer
+    // unparks it after publishing a record
+    private static final Thread writer = new Thread(ServerLog::writeRecords, "server-log");
+    private static volatile boolean writerIdle = false;
+
+    static {
+        writer.setDaemon(true);
+        writer.start();
+        // print whatever is left when the JVM exits normally
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000), "server-log-flush"));
+    }
+
+    private ServerLog() {
+    }
+
+    private static Level configuredLevel() {
+        String name = System.getProperty("tcpserver.log.level", "INFO");
+        try {
+            return Level.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("server::log:: unknown level " + name + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    public static boolean isEnabled(Level recordLevel) {
+        return recordLevel.compareTo(level) >= 0;
+    }
+
+    // the format is a String.format format
+    public static void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    public static void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    public static void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    public static void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    // returns false if the record was skipped (below the level) or dropped
+    public static boolean log(Level recordLevel, String format, Object... args) {
+        if (!isEnabled(recordLevel)) {
+            return false;
+        }
+        if (!withinRate()) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= CAPACITY) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        slots.set((int) sequence & (CAPACITY - 1), new Record(recordLevel, format, args));
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    // counts the record in the current window, unless the window is full
+    private static boolean withinRate() {
+        long second = System.nanoTime() >>> 30; // about a second
+        while (true) {
+            long current = window.get();
+            long next;
+            if (current >>> 32 != (second & 0xFFFFFFFFL)) {
+                next = second << 32 | 1;
+            } else if ((current & 0xFFFFFFFFL) < MAX_RECORDS_PER_SECOND) {
+                next = current + 1;
+            } else {
+                return false;
+            }
+            if (window.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // returns the number of records dropped since the log started
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    // waits up to timeoutMillis for the records logged so far to be printed
+    // returns true if they were
+    public static boolean flush(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (head < target) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+        }
+        return true;
+    }
+
+    // runs on the log thread
+    private static void writeRecords() {
+        long reportedDropped = 0;
+        while (true) {
+            Record record = slots.get((int) head & (CAPACITY - 1));
+            if (record == null) {
+                // nothing was logged, or the next record is claimed but not published yet
+                long droppedNow = dropped.get();
+                if (droppedNow != reportedDropped && head == tail.get()) {
+                    System.err.println("server::log:: dropped " + (droppedNow - reportedDropped) + " records");
+                    reportedDropped = droppedNow;
+                }
+                // the record is checked again after writerIdle is set, so a record published in between either is
+                // seen here or unparks the thread
+                writerIdle = true;
+                if (slots.get((int) head & (CAPACITY - 1)) == null) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                writerIdle = false;
+                continue;
+            }
+            slots.set((int) head & (CAPACITY - 1), null);
+            print(record);
+            // only the log thread writes head
+            head = head + 1;
+        }
+    }
+
+    private static void print(Record record) {
+        PrintStream out = record.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+        try {
+            out.println(record.args.length == 0 ? record.format : String.format(record.format, record.args));
+        } catch (RuntimeException e) {
+            // a bad format or a failing toString must not stop the log
+            System.err.println("server::log:: failed to format \"" + record.format + "\": " + e);
+        }
+    }
+
+    private static class Record {
+        final Level level;
+        final String format;
+        final Object[] args;
+
+        Record(Level level, String format, Object[] args) {
+            this.level = level;
+            this.format = format;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package il.ac.hit.project.tcpserver;
+
+import com.sun.net.httpserver.HttpServer;
+import il.ac.hit.project.algorithms.AlgorithmsEngine;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+// publishes the metrics of a TcpServer and its MatrixIHandler, as an MXBean and as plain text in the Prometheus
+// exposition format over HTTP (GET /metrics).
+// the metrics are read from the server's counters when they are asked for, so publishing them costs the request path
+// nothing. the HTTP endpoint only listens on the loopback interface - anything further away should go through an
+// agent or a tunnel.
+// histograms are written with a bucket per power of two up to a fixed bound, so every scrape has the same series
+// whatever values were recorded - the values above the last bound are only counted in +Inf
+// thread safe
+public class ServerMetrics implements ServerMetricsMXBean, AutoCloseable {
+    private static final String PATH = "/metrics";
+    // the last bucket bounds of the histograms: about 67 seconds of latency, and 2^32 cells
+    private static final long MAX_LATENCY_BUCKET_MICROS = 1L << 26;
+    private static final long MAX_GRID_BUCKET_CELLS = 1L << 32;
+
+    private final TcpServer server;
+    // null if the server doesn't run a MatrixIHandler
+    private final MatrixIHandler handler;
+    private ObjectName objectName;
+    private HttpServer httpServer;
+
+    public ServerMetrics(TcpServer server, MatrixIHandler handler) {
+        this.server = server;
+        this.handler = handler;
+    }
+
+    // registers the metrics in the platform MBean server, as il.ac.hit.project.tcpserver:type=ServerMetrics,port=N
+    public synchronized void registerMBean() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("il.ac.hit.project.tcpserver:type=ServerMetrics,port=" + server.getPort());
+        mBeanServer.registerMBean(this, name);
+        objectName = name;
+    }
+
+    // serves the metrics at http://localhost:port/metrics until close (port 0 picks a free port)
+    // returns the port the endpoint listens on
+    public synchronized int startHttpEndpoint(int port) throws IOException {
+        if (httpServer != null) {
+            throw new IllegalStateException("the metrics endpoint is already started");
+        }
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext(PATH, exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        http.start();
+        httpServer = http;
+        return http.getAddress().getPort();
+    }
+
+    // stops the HTTP endpoint and unregisters the MBean
+    @Override
+    public synchronized void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+                // already unregistered
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getRequests() {
+        return byCommand(CommandMetrics::getRequests);
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        return byCommand(CommandMetrics::getErrors);
+    }
+
+    @Override
+    public Map<String, Long> getBusyResponses() {
+        return byCommand(CommandMetrics::getBusy);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50Micros() {
+        return byCommand(metrics -> metrics.getLatencyMicros().getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99Micros() {
+        return byCommand(metrics -> metrics.getLatencyMicros().getPercentile(99));
+    }
+
+    private Map<String, Long> byCommand(ToLongFunction<CommandMetrics> metric) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (CommandMetrics metrics : server.getCommandMetrics().values()) {
+            values.put(metrics.getName(), metric.applyAsLong(metrics));
+        }
+        return values;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return server.getBytesReceived();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return server.getBytesSent();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return server.getActiveConnections();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return server.getAcceptedConnections();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return server.getRejectedConnections();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return server.getRejectedRequests();
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return server.getQueuedRequests();
+    }
+
+    @Override
+    public int getActiveComputeThreads() {
+        return server.getActiveComputeThreads();
+    }
+
+    @Override
+    public long getCompletedComputeTasks() {
+        return server.getCompletedComputeTasks();
+    }
+
+    @Override
+    public long getInFlightCost() {
+        return server.getInFlightCost();
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return server.getBufferedBytes();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        if (handler == null) {
+            return 0;
+        }
+        ResultCache cache = handler.getResultCache();
+        long hits = cache.getHits();
+        long lookups = hits + cache.getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+
+        header(out, "tcpserver_requests_total", "counter", "requests answered, by command");
+        for (CommandMetrics metrics : server.getCommandMetrics().values()) {
+            sample(out, "tcpserver_requests_total", command(metrics), metrics.getRequests());
+        }
+        header(out, "tcpserver_request_errors_total", "counter", "requests that failed or were answered with ERROR");
+        for (CommandMetrics metrics : server.getCommandMetrics().values()) {
+            sample(out, "tcpserver_request_errors_total", command(metrics), metrics.getErrors());
+        }
+        header(out, "tcpserver_request_busy_total", "counter", "requests answered with BUSY");
+        for (CommandMetrics metrics : server.getCommandMetrics().values()) {
+            sample(out, "tcpserver_request_busy_total", command(metrics), metrics.getBusy());
+        }
+        header(out, "tcpserver_request_latency_seconds", "histogram",
+                "time from reading a request until its response was written");
+        for (CommandMetrics metrics : server.getCommandMetrics().values()) {
+            // every latency is recorded in whole microseconds, so the latencies below 2^k are those of at most 2^k
+            histogram(out, "tcpserver_request_latency_seconds", command(metrics), metrics.getLatencyMicros(),
+                    MAX_LATENCY_BUCKET_MICROS, bound -> bound / 1e6, 1e-6);
+        }
+
+        counter(out, "tcpserver_bytes_received_total", "bytes read from BinaryProtocol connections",
+                server.getBytesReceived());
+        counter(out, "tcpserver_bytes_sent_total", "bytes written to BinaryProtocol connections",
+                server.getBytesSent());
+        gauge(out, "tcpserver_connections_active", "open connections", server.getActiveConnections());
+        gauge(out, "tcpserver_connections_blocking", "connections handled by a blocking thread",
+                server.getBlockingConnections());
+        counter(out, "tcpserver_connections_accepted_total", "connections accepted",
+                server.getAcceptedConnections());
+        counter(out, "tcpserver_connections_rejected_total", "connections over the connection limit",
+                server.getRejectedConnections());
+        counter(out, "tcpserver_requests_rejected_total", "requests not admitted to the compute pool",
+                server.getRejectedRequests());
+        gauge(out, "tcpserver_compute_queue_depth", "tasks waiting for a compute thread",
+                server.getQueuedRequests());
+        gauge(out, "tcpserver_compute_threads", "threads of the compute pool", server.getComputeThreads());
+        gauge(out, "tcpserver_compute_threads_active", "compute threads running a task",
+                server.getActiveComputeThreads());
+        counter(out, "tcpserver_compute_tasks_completed_total", "tasks the compute pool finished",
+                server.getCompletedComputeTasks());
+        gauge(out, "tcpserver_inflight_cost", "estimated cost of the admitted requests", server.getInFlightCost());
+        gauge(out, "tcpserver_buffered_bytes", "bytes of the frames read that wait to be handled",
+                server.getBufferedBytes());
+
+        if (handler != null) {
+            ResultCache cache = handler.getResultCache();
+            counter(out, "tcpserver_cache_hits_total", "task results answered from the result cache",
+                    cache.getHits());
+            counter(out, "tcpserver_cache_misses_total", "task results computed", cache.getMisses());
+            gauge(out, "tcpserver_cache_hit_ratio", "hits of all result cache lookups", getCacheHitRatio());
+            counter(out, "tcpserver_cache_evictions_total", "results evicted from the cache", cache.getEvictions());
+            gauge(out, "tcpserver_cache_weight", "weight of the cached results", cache.getWeight());
+            gauge(out, "tcpserver_cache_max_weight", "maximal weight of the cached results", cache.getMaxWeight());
+
+            MatrixStore store = handler.getMatrixStore();
+            gauge(out, "tcpserver_matrix_store_bytes", "bytes of the stored matrices", store.getBytes());
+            gauge(out, "tcpserver_matrix_store_max_bytes", "maximal bytes of the stored matrices",
+                    store.getMaxBytes());
+            counter(out, "tcpserver_matrix_store_evictions_total", "stored matrices evicted", store.getEvictions());
+
+            AlgorithmsEngine engine = handler.getAlgorithmsEngine();
+            gauge(out, "tcpserver_algorithms_threads", "threads of the algorithms pool", engine.getPoolSize());
+            gauge(out, "tcpserver_algorithms_threads_active", "algorithms threads running a task",
+                    engine.getActiveThreadCount());
+            gauge(out, "tcpserver_algorithms_queued_tasks", "tasks queued in the algorithms pool",
+                    engine.getQueuedTaskCount());
+            counter(out, "tcpserver_algorithms_steals_total", "tasks stolen between algorithms threads",
+                    engine.getStealCount());
+            counter(out, "tcpserver_algorithms_requests_total", "tasks run on the algorithms pool",
+                    engine.getRequests());
+            counter(out, "tcpserver_algorithms_cancelled_total", "algorithms tasks cancelled",
+                    engine.getCancelledRequests());
+
+            header(out, "tcpserver_grid_cells", "histogram", "cells of the matrices the tasks ran on");
+            for (Map.Entry<String, StripedHistogram> gridSize : handler.getGridSizes().entrySet()) {
+                // the matrices below 2^k cells are those of at most 2^k - 1 cells
+                histogram(out, "tcpserver_grid_cells", "task=\"" + gridSize.getKey() + "\"", gridSize.getValue(),
+                        MAX_GRID_BUCKET_CELLS, bound -> bound - 1, 1);
+            }
+        }
+
+        counter(out, "tcpserver_log_dropped_total", "log records dropped by the rate limit or a full queue",
+                ServerLog.getDropped());
+        return out.toString();
+    }
+
+    private static String command(CommandMetrics metrics) {
+        return "command=\"" + metrics.getName() + "\"";
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        sample(out, name, null, value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, "gauge", help);
+        sample(out, name, null, value);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    // writes the cumulative buckets of the histogram, one for the values below every power of two up to maxBound,
+    // labelled le = bucketLabel(power of two). the sum is multiplied by scale
+    private static void histogram(StringBuilder out, String name, String labels, StripedHistogram histogram,
+                                  long maxBound, BucketLabel bucketLabel, double scale) {
+        long[] counts = histogram.getBucketCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long cumulative = 0;
+        int bucket = 0;
+        for (long bound = 1; bound <= maxBound; bound <<= 1) {
+            // the buckets of the values below bound (the edge of every power of two is an edge of a bucket)
+            while (bucket < counts.length && histogram.highestValue(bucket) < bound) {
+                cumulative += counts[bucket++];
+            }
+            sample(out, name + "_bucket", labels + ",le=\"" + format(bucketLabel.of(bound)) + "\"", cumulative);
+        }
+        sample(out, name + "_bucket", labels + ",le=\"+Inf\"", total);
+        sample(out, name + "_sum", labels, histogram.getSum() * scale);
+        sample(out, name + "_count", labels, total);
+    }
+
+    private interface BucketLabel {
+        double of(long bound);
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,45 @@
+package il.ac.hit.project.tcpserver;
+
+import java.util.Map;
+
+// the metrics of a TcpServer (and its MatrixIHandler) as JMX attributes - see ServerMetrics
+// the maps are keyed by request name (see BinaryProtocol.requestName), and latencies are in microseconds
+public interface ServerMetricsMXBean {
+    Map<String, Long> getRequests();
+
+    Map<String, Long> getErrors();
+
+    Map<String, Long> getBusyResponses();
+
+    Map<String, Long> getLatencyP50Micros();
+
+    Map<String, Long> getLatencyP99Micros();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    int getActiveConnections();
+
+    long getAcceptedConnections();
+
+    long getRejectedConnections();
+
+    long getRejectedRequests();
+
+    int getQueuedRequests();
+
+    int getActiveComputeThreads();
+
+    long getCompletedComputeTasks();
+
+    long getInFlightCost();
+
+    long getBufferedBytes();
+
+    // 0 if the server has no MatrixIHandler, or nothing was looked up in its cache yet
+    double getCacheHitRatio();
+
+    // the metrics in the plain-text format of the scrape endpoint
+    String scrape();
+}
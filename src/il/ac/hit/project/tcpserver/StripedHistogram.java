@@ -0,0 +1,117 @@
+package il.ac.hit.project.tcpserver;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// a histogram of non-negative values (e.g. latencies, or matrix sizes in cells), laid out like an HdrHistogram: with
+// a precision of p bits, values below 2^p have a bucket each, and every power of two above is split into 2^(p-1)
+// buckets, so a recorded value is off by less than 1/2^(p-1). the server's metrics use 3 bits (off by less than a
+// quarter, 252 buckets), the load generator 7 (off by less than 1.6%, 3776 buckets).
+// every bucket is a LongAdder, so threads recording at the same time don't contend on a single counter - recording
+// is a few uncontended adds, and reading the histogram sums the stripes.
+// the counts read while values are being recorded may be off by the values in flight.
+// thread safe
+public class StripedHistogram {
+    private static final int DEFAULT_PRECISION = 3;
+
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final int halfSubBuckets;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public StripedHistogram() {
+        this(DEFAULT_PRECISION);
+    }
+
+    // precision is the number of bits of a value that its bucket keeps, from 1 to 16
+    public StripedHistogram(int precision) {
+        if (precision < 1 || precision > 16) {
+            throw new IllegalArgumentException("precision must be between 1 and 16 bits: " + precision);
+        }
+        subBucketBits = precision;
+        subBuckets = 1 << precision;
+        halfSubBuckets = subBuckets / 2;
+        // enough buckets for any long value
+        buckets = new LongAdder[subBuckets + (64 - subBucketBits) * halfSubBuckets];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    // negative values are recorded as 0
+    public void record(long value) {
+        long recorded = Math.max(value, 0);
+        buckets[bucketIndex(recorded)].increment();
+        count.increment();
+        sum.add(recorded);
+        max.accumulate(recorded);
+    }
+
+    int bucketIndex(long value) {
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        // value >>> shift is in [halfSubBuckets, subBuckets)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (subBucketBits - 1);
+        return subBuckets + (shift - 1) * halfSubBuckets + (int) (value >>> shift) - halfSubBuckets;
+    }
+
+    // the highest value that falls in the bucket. every power of two is the lowest value of a bucket
+    public long highestValue(int bucketIndex) {
+        if (bucketIndex < subBuckets) {
+            return bucketIndex;
+        }
+        int shift = (bucketIndex - subBuckets) / halfSubBuckets + 1;
+        long subBucket = (bucketIndex - subBuckets) % halfSubBuckets + halfSubBuckets;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    // the highest value recorded (0 if none were)
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long total = count.sum();
+        return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+
+    // the number of values recorded in each bucket
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    // the highest value of the bucket holding the given percentile of the values, but no more than the highest value
+    // recorded - so never below the real percentile (0 if no values were recorded)
+    public long getPercentile(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return 0;
+    }
+}
@@ -1,21 +1,90 @@
 package il.ac.hit.project.tcpserver;
+import il.ac.hit.project.part1.PriorityTaskExecutor;
+import il.ac.hit.project.part1.TaskType;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class represents a multi-threaded server
+ *
+ * Connections are accepted and multiplexed by a single selector thread. If the handler is an IFrameHandler,
+ * connections speaking BinaryProtocol stay in the selector and only their requests run on the compute pool, so
+ * mostly-idle connections cost no thread. Any other connection (a plain IHandler, or a client using the legacy
+ * serialized protocol) is handed to a thread of its own running IHandler.handle.
+ *
+ * Load is bounded by ServerLimits: connections over the connection limit, and requests arriving while the compute
+ * queue, the estimated cost of the requests in flight or the bytes of the frames waiting to be handled is over its
+ * limit, are answered with BUSY (see BinaryProtocol) instead of being queued.
+ *
+ * The server counts every BinaryProtocol request, its latency and the bytes it moves (see CommandMetrics), and
+ * ServerMetrics publishes these counters over JMX and a plain-text scrape endpoint. Counters that are updated on the
+ * request path are LongAdders, so threads updating them at once don't contend.
  */
 public class TcpServer {
+    // maximal number of connections that are handled by a blocking IHandler thread at the same time
+    private static final int MAX_BLOCKING_CONNECTIONS = 1000;
+    private static final int ACCEPT_BACKLOG = 1024;
+    // how long accepting pauses after accept failed
+    private static final long ACCEPT_PAUSE_MILLIS = 100;
+    // the retry delay suggested in BUSY responses grows with the queue, between these bounds
+    private static final int MIN_RETRY_AFTER_MILLIS = 50;
+    private static final int MAX_RETRY_AFTER_MILLIS = 10_000;
+
     private final int port;
     private volatile boolean stopServer;
     private ThreadPoolExecutor executor;
+    private PriorityTaskExecutor computePool;
     private IHandler requestConcreteIHandler;
+    private volatile Selector selector;
+    // true while accepting is paused, until System.nanoTime reaches acceptResumeNanos (selector thread only)
+    private boolean acceptPaused = false;
+    private long acceptResumeNanos;
+    // tasks other threads need to run on the selector thread
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final ServerLimits limits;
+    private final AtomicLong inFlightCost = new AtomicLong();
+    // bytes of the frames read from all connections that wait to be passed to their sessions
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    // indexed by request opcode, with the metrics of unknown opcodes at 0
+    private final CommandMetrics[] commandMetrics;
 
     public TcpServer(int port) {
+        this(port, ServerLimits.DEFAULT);
+    }
+
+    public TcpServer(int port, ServerLimits limits) {
         this.port = port;
+        this.limits = limits;
+        List<String> requestNames = BinaryProtocol.requestNames();
+        commandMetrics = new CommandMetrics[requestNames.size() + 1];
+        commandMetrics[0] = new CommandMetrics(BinaryProtocol.requestName((byte) 0));
+        for (int opcode = 1; opcode < commandMetrics.length; opcode++) {
+            commandMetrics[opcode] = new CommandMetrics(requestNames.get(opcode - 1));
+        }
         stopServer = false;
         executor = null;
     }
@@ -23,55 +92,398 @@ public class TcpServer {
     public void run(IHandler concreteIHandlerStrategy) {
         this.requestConcreteIHandler = concreteIHandlerStrategy;
 
+        // a thread per blocking connection, created on demand and disposed after 10 seconds of inactivity
+        executor = new ThreadPoolExecutor(
+                0, MAX_BLOCKING_CONNECTIONS, 10,
+                TimeUnit.SECONDS, new SynchronousQueue<>(), namedThreadFactory("tcpserver-connection-"));
+        computePool = new PriorityTaskExecutor(computeThreads(concreteIHandlerStrategy),
+                namedThreadFactory("tcpserver-compute-"));
+
         Runnable mainLogic = () -> {
-            try {
-                executor = new ThreadPoolExecutor(
-                        3, 5, 10,
-                        TimeUnit.SECONDS, new LinkedBlockingQueue<>());
-                ServerSocket server = new ServerSocket(port);
-                server.setSoTimeout(1000);
+            try (Selector selector = Selector.open();
+                 ServerSocketChannel server = ServerSocketChannel.open()) {
+                server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+                server.configureBlocking(false);
+                SelectionKey acceptKey = server.register(selector, SelectionKey.OP_ACCEPT);
+                this.selector = selector;
+
                 while (!stopServer) {
-                    try {
-                        Socket request = server.accept();
-                        System.out.println("server::client!!!!");
-                        Runnable runnable = () -> {
-                            try {
-                                System.out.println("server::handle!!!!");
-                                requestConcreteIHandler.handle(request.getInputStream(),
-                                        request.getOutputStream());
-                                System.out.println("server::Close all streams!!!!");
-                                // Close all streams
-                                request.getInputStream().close();
-                                request.getOutputStream().close();
-                                request.close();
-                            } catch (Exception e) {
-                                System.out.println("server::"+e.getMessage());
-                                System.err.println(e.getMessage());
-                            }
-                        };
-                        executor.execute(runnable);
-                    } catch (SocketTimeoutException ignored) {
+                    if (!acceptPaused) {
+                        selector.select();
+                    } else {
+                        long remaining = acceptResumeNanos - System.nanoTime();
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                        if (System.nanoTime() - acceptResumeNanos >= 0) {
+                            acceptPaused = false;
+                            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                        }
+                    }
+                    runSelectorTasks();
+
+                    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext()) {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+                        if (!key.isValid()) continue;
+
+                        if (key.isAcceptable()) {
+                            accept(server, selector);
+                        } else {
+                            handleConnection(key);
+                        }
+                    }
+                }
+
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof NioConnection) {
+                        ((NioConnection) key.attachment()).close();
                     }
                 }
-                server.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                ServerLog.error("server::selector failed - the server stopped: %s", e);
+            }
+        };
+        new Thread(mainLogic, "tcpserver-selector").start();
+    }
+
+    // a compute thread per core, except for the cores the handler keeps busy with threads of its own (see
+    // IFrameHandler.getWorkerThreads)
+    private static int computeThreads(IHandler handler) {
+        int workerThreads = handler instanceof IFrameHandler ? ((IFrameHandler) handler).getWorkerThreads() : 0;
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - workerThreads);
+    }
+
+    // accepts every pending connection. if accepting fails (e.g. the process is out of file descriptors), accepting
+    // pauses for ACCEPT_PAUSE_MILLIS instead of spinning on the pending connection - the connections already open
+    // are still served
+    private void accept(ServerSocketChannel server, Selector selector) {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                ServerLog.warn("server::accept failed, pausing for %d ms: %s", ACCEPT_PAUSE_MILLIS, e.getMessage());
+                server.keyFor(selector).interestOps(0);
+                acceptPaused = true;
+                acceptResumeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_PAUSE_MILLIS);
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            ServerLog.info("server::client!!!!");
+            int connections = activeConnections.incrementAndGet();
+            boolean admitted = limits.getMaxConnections() == 0 || connections <= limits.getMaxConnections();
+            if (admitted) {
+                acceptedConnections.increment();
+            } else {
+                rejectedConnections.increment();
+            }
+            try {
+                // a request or response is written as a whole, so nothing is gained by waiting for more to send -
+                // and Nagle's algorithm would hold the tail of every multi-segment response until the client's
+                // delayed ack
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (requestConcreteIHandler instanceof IFrameHandler) {
+                    // a rejected connection still gets the handshake, so it can be told it is rejected
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new NioConnection(this, channel, key, (IFrameHandler) requestConcreteIHandler,
+                            admitted));
+                } else if (!admitted) {
+                    ServerLog.warn("server::too many connections - closing connection");
+                    closeBlockingConnection(channel);
+                } else {
+                    startBlockingHandler(channel, new byte[0]);
+                }
+            } catch (IOException e) {
+                ServerLog.warn("server::%s", e.getMessage());
+                closeBlockingConnection(channel);
+            }
+        }
+    }
+
+    // passes the events of a key to its connection. a connection failing with anything but an IOException (which it
+    // handles itself) is closed, so one bad connection can't stop the selector
+    private void handleConnection(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (RuntimeException | Error e) {
+            ServerLog.error("server::connection failed - closing it: %s", e);
+            connection.close();
+        }
+    }
+
+    // hands a connection that was registered in the selector over to a blocking IHandler thread
+    // consumed holds the bytes already read from the connection
+    void startBlockingConnection(SocketChannel channel, byte[] consumed) {
+        // the cancelled key is only deregistered by the next select, and only then can the channel block again
+        runOnSelector(() -> {
+            try {
+                channel.configureBlocking(true);
+                startBlockingHandler(channel, consumed);
+            } catch (IOException e) {
+                ServerLog.warn("server::%s", e.getMessage());
+                closeBlockingConnection(channel);
+            }
+        });
+    }
+
+    private void startBlockingHandler(SocketChannel channel, byte[] consumed) {
+        Runnable runnable = () -> {
+            try {
+                ServerLog.info("server::handle!!!!");
+                InputStream in = new SequenceInputStream(new ByteArrayInputStream(consumed),
+                        channel.socket().getInputStream());
+                requestConcreteIHandler.handle(in, channel.socket().getOutputStream());
+            } catch (Exception e) {
+                ServerLog.warn("server::%s", e.getMessage());
+            } finally {
+                ServerLog.info("server::Close all streams!!!!");
+                closeBlockingConnection(channel);
             }
         };
-        new Thread(mainLogic).start();
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            ServerLog.warn("server::too many blocking connections - closing connection");
+            closeBlockingConnection(channel);
+        }
+    }
+
+    private void closeBlockingConnection(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        connectionClosed();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    // runs a task of an NioConnection on the compute pool, with the given priority
+    void compute(TaskType taskType, Runnable task) {
+        computePool.execute(task, taskType);
+    }
+
+    // reserves the cost of a request about to be queued on the compute pool (IO requests are cheap, and are only
+    // limited by the queue)
+    // returns the cost reserved, to be passed to requestDone, or -1 (and counts the rejection) if a limit is
+    // reached - the request must then be answered with BUSY
+    long admitRequest(TaskType taskType, long cost) {
+        if (limits.getMaxQueuedRequests() > 0 && computePool.getQueue().size() >= limits.getMaxQueuedRequests()) {
+            rejectedRequests.increment();
+            return -1;
+        }
+        if (taskType == TaskType.IO) {
+            return 0;
+        }
+        long maxCost = limits.getMaxInFlightCost();
+        while (true) {
+            long current = inFlightCost.get();
+            if (maxCost > 0 && current > 0 && current + cost > maxCost) {
+                rejectedRequests.increment();
+                return -1;
+            }
+            if (inFlightCost.compareAndSet(current, current + cost)) {
+                return cost;
+            }
+        }
+    }
+
+    // releases the cost of an admitted request once it is done
+    void requestDone(long cost) {
+        inFlightCost.addAndGet(-cost);
+    }
+
+    // reserves bytes an NioConnection is about to buffer for a frame it reads, on top of the ownBytes it already
+    // buffers. the bytes are always reserved if no other connection buffers any (a connection buffers a bounded number
+    // of bytes on its own, see ServerLimits.getMaxConnectionBufferedBytes)
+    // returns false (and counts the rejection) if the bytes would take the total over the limit - the frame must then
+    // be dropped and answered with BUSY
+    boolean reserveBufferedBytes(long numBytes, long ownBytes) {
+        long maxBytes = limits.getMaxBufferedBytes();
+        while (true) {
+            long current = bufferedBytes.get();
+            if (maxBytes > 0 && current > ownBytes && current + numBytes > maxBytes) {
+                rejectedRequests.increment();
+                return false;
+            }
+            if (bufferedBytes.compareAndSet(current, current + numBytes)) {
+                return true;
+            }
+        }
+    }
+
+    // releases buffered bytes once their frame was passed to its session or dropped
+    void releaseBufferedBytes(long numBytes) {
+        bufferedBytes.addAndGet(-numBytes);
+    }
+
+    // bytes of the frames read that wait to be handled
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    // the delay suggested to rejected clients - MIN_RETRY_AFTER_MILLIS for every queued task per compute thread
+    int getRetryAfterMillis() {
+        long perThread = getQueuedRequests() / Math.max(1, computePool.getMaximumPoolSize());
+        return (int) Math.min(MAX_RETRY_AFTER_MILLIS, MIN_RETRY_AFTER_MILLIS * (1 + perThread));
+    }
+
+    // number of tasks waiting for a thread of the compute pool
+    public int getQueuedRequests() {
+        return computePool == null ? 0 : computePool.getQueue().size();
+    }
+
+    public long getInFlightCost() {
+        return inFlightCost.get();
+    }
+
+    // number of threads of the compute pool running a task
+    public int getActiveComputeThreads() {
+        return computePool == null ? 0 : computePool.getActiveCount();
+    }
+
+    public int getComputeThreads() {
+        return computePool == null ? 0 : computePool.getPoolSize();
+    }
+
+    // number of tasks the compute pool finished (approximate, like ThreadPoolExecutor.getCompletedTaskCount)
+    public long getCompletedComputeTasks() {
+        return computePool == null ? 0 : computePool.getCompletedTaskCount();
+    }
+
+    // number of connections handled by a blocking IHandler thread
+    public int getBlockingConnections() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    void bytesReceived(long numBytes) {
+        bytesReceived.add(numBytes);
+    }
+
+    void bytesSent(long numBytes) {
+        bytesSent.add(numBytes);
+    }
+
+    // bytes read from and written to BinaryProtocol connections (the legacy protocol isn't counted)
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    // the metrics of the requests with the given opcode (those of "unknown" for an unknown opcode)
+    CommandMetrics getCommandMetrics(byte opcode) {
+        return commandMetrics[opcode > 0 && opcode < commandMetrics.length ? opcode : 0];
+    }
+
+    // the metrics of every request opcode by its name (see BinaryProtocol.requestName), in opcode order
+    public Map<String, CommandMetrics> getCommandMetrics() {
+        Map<String, CommandMetrics> metrics = new LinkedHashMap<>();
+        for (int opcode = 1; opcode < commandMetrics.length; opcode++) {
+            metrics.put(commandMetrics[opcode].getName(), commandMetrics[opcode]);
+        }
+        metrics.put(commandMetrics[0].getName(), commandMetrics[0]);
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ServerLimits getLimits() {
+        return limits;
+    }
+
+    // runs the task on the selector thread (tasks run in the order they were submitted)
+    void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                ServerLog.error("server::selector task failed: %s", e);
+            }
+        }
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
     }
 
     public void stop() {
         if (!stopServer) {
             stopServer = true;
+            Selector selector = this.selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
             if (executor != null) {
                 executor.shutdown();
             }
+            if (computePool != null) {
+                computePool.shutdown();
+            }
         }
     }
 
-    public static void main(String[] args) {
+    static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // the optional argument is the directory of the matrix files clients may run mapped tasks on
+    // the metrics are published over JMX, and at http://localhost:N/metrics where N is the system property
+    // tcpserver.metrics.port (9010 by default, 0 disables the endpoint)
+    public static void main(String[] args) throws Exception {
         TcpServer tcpServer =new TcpServer(8010);
-        tcpServer.run(new MatrixIHandler());
+        Path mappedMatrixDirectory = args.length > 0 ? Paths.get(args[0]) : null;
+        MatrixIHandler handler = new MatrixIHandler(MatrixIHandler.DEFAULT_RESULT_CACHE_WEIGHT,
+                MatrixIHandler.DEFAULT_MATRIX_STORE_BYTES, mappedMatrixDirectory);
+        tcpServer.run(handler);
+
+        ServerMetrics metrics = new ServerMetrics(tcpServer, handler);
+        metrics.registerMBean();
+        int metricsPort = Integer.getInteger("tcpserver.metrics.port", 9010);
+        if (metricsPort != 0) {
+            metrics.startHttpEndpoint(metricsPort);
+            ServerLog.info("server::metrics at http://localhost:%d/metrics", metricsPort);
+        }
     }
-}
\ No newline at end of file
+}